@@ -1,6 +1,10 @@
 package app;
 
 import io.javalin.Javalin;
+import io.javalin.core.security.RouteRole;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
 
 import java.util.ArrayList;
 import java.util.Base64;
@@ -8,16 +12,15 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
 import java.io.File;
 import java.nio.charset.StandardCharsets;
-import java.util.Set;
 
 import handlers.LabelHandler;
 import handlers.NodeHandler;
 import handlers.RelationshipHandler;
 import handlers.TgraphHandler;
 import handlers.PropertyHandler;
+import handlers.TemporalHandler;
 import handlers.UserLogHandler;
 
 // 着重了解一下org.neo4j.tooling.GlobalGraphOperations
@@ -26,19 +29,42 @@ import service.UserService;
 import service.User;
 import service.SessionManager;
 import service.SystemMonitorService;
+import service.CredentialCache;
+import service.GroupCommitBatcher;
+import service.TemporalValueCache;
+import service.RateLimiter;
+import service.AdmissionController;
 import util.PasswordUtil;
 import service.SecurityConfig;
 import util.ServerConfig;
+import tgraph.BackupJobs;
+import tgraph.BackupProgress;
+import tgraph.BlockArchive;
 import tgraph.DBSpace;
+import tgraph.DatabaseLifecycle;
+import tgraph.DatabaseRegistry;
+import tgraph.OnlineBackup;
+import tgraph.PageCacheWarmup;
+import tgraph.Tgraph;
+import tgraph.TemporalRetention;
+import tgraph.TemporalStoreMaintenance;
 import config.PermissionConfig;
+import config.RoutePermission;
+import config.RouteClass;
 
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
+import org.neo4j.graphdb.TransactionTerminatedException;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 
 // label和dynamiclabel的区别
 
 public class Application {
+    // 数据接口的路径前缀，这些接口同时以 /db/{database}/data/ 注册
+    private static final String DATA_PREFIX = "/db/data/";
+
     private static UserService userService = new UserService();
 
     // 创建处理器实例
@@ -48,6 +74,7 @@ public class Application {
     private static PropertyHandler propertyHandler = new PropertyHandler();
     private static TgraphHandler TgraphHandler = new TgraphHandler();
     private static UserLogHandler userLogHandler = new UserLogHandler();
+    private static TemporalHandler temporalHandler = new TemporalHandler();
     private static SystemMonitorService systemMonitorService = new SystemMonitorService();
     
     
@@ -64,7 +91,92 @@ public class Application {
         boolean httpLogEnabled = ServerConfig.getBoolean("org.neo4j.server.http.log.enabled", true);
         int transactionTimeout = ServerConfig.getInt("org.neo4j.server.transaction.timeout", 60);
         String domainName = ServerConfig.getString("org.neo4j.server.domain.name", "localhost");
-        // transactionTimeout参数for long running cypher queries
+        // transactionTimeout 作为每个请求的期限，传入请求中开启的每个事务，扫描循环逐条检查
+        RequestTracker.setDefaultTimeout(transactionTimeout);
+
+        // 启动组提交：批量时态写入总是走组提交，属性/标签写入和单值时态写入可按配置合并提交
+        GroupCommitBatcher.start(
+            ServerConfig.getInt("org.neo4j.server.group_commit.max_batch_size", 1000),
+            ServerConfig.getInt("org.neo4j.server.group_commit.max_latency_ms", 5),
+            ServerConfig.getBoolean("org.neo4j.server.group_commit.enabled", false),
+            ServerConfig.getBoolean("org.neo4j.server.temporal.group_commit.enabled", false));
+
+        // 每个数据库单独的页缓存大小，多个数据库同时打开时避免各自按默认值占满内存
+        DatabaseRegistry.setPageCacheMemory(ServerConfig.getString("org.neo4j.server.database.pagecache_memory", ""));
+        // 页缓存总预算：配置后按访问频率在打开的数据库之间分配，取代上面的固定大小
+        DatabaseRegistry.setPageCacheBudget(
+            ServerConfig.getString("org.neo4j.server.database.pagecache_budget", ""),
+            ServerConfig.getString("org.neo4j.server.database.pagecache_min", "32m"),
+            ServerConfig.getString("org.neo4j.server.database.pagecache_max", "512m"));
+        // 按需打开数据库，空闲超时后关闭
+        DatabaseRegistry.setPoolOptions(
+            ServerConfig.getBoolean("org.neo4j.server.database.lazy_open", true),
+            ServerConfig.getInt("org.neo4j.server.database.idle_timeout_seconds", 600));
+
+        // 关闭数据库前排空请求，进程退出时并行关闭所有数据库
+        DatabaseLifecycle.init(
+            ServerConfig.getInt("org.neo4j.server.database.drain_timeout_seconds", 30),
+            ServerConfig.getInt("org.neo4j.server.database.shutdown_timeout_seconds", 60));
+
+        // 同时执行的备份和恢复任务数
+        BackupJobs.init(ServerConfig.getInt("org.neo4j.server.backup.max_concurrent_jobs", 2));
+        // 备份的复制限速，只对未打开的数据库生效，在线备份持有检查点互斥锁，不限速
+        OnlineBackup.init(ServerConfig.getInt("org.neo4j.server.backup.max_mb_per_second", 64));
+        // 备份压缩和恢复解压的线程数（0 为 CPU 核数）及压缩级别
+        BlockArchive.init(
+            ServerConfig.getInt("org.neo4j.server.backup.compression_threads", 0),
+            ServerConfig.getInt("org.neo4j.server.backup.compression_level", 1));
+
+        // 数据库空间统计的缓存有效期和后台重新统计的间隔
+        DBSpace.init(ServerConfig.getInt("org.neo4j.server.database.space.refresh_seconds", 300));
+
+        // 页缓存预热：关闭时记录热数据，打开时在后台预读
+        PageCacheWarmup.init(
+            ServerConfig.getBoolean("org.neo4j.server.database.warmup.enabled", true),
+            ServerConfig.getInt("org.neo4j.server.database.warmup.profile_interval_seconds", 600));
+
+        // 时态存储合并的最小间隔（只控制间隔，不限制合并的磁盘读写速度）
+        TemporalStoreMaintenance.init(ServerConfig.getInt("org.neo4j.server.temporal.compaction.min_interval_seconds", 600));
+
+        // 时态保留策略后台任务
+        TemporalRetention.start(
+            ServerConfig.getInt("org.neo4j.server.temporal.retention.interval_seconds", 3600),
+            ServerConfig.getString("org.neo4j.server.temporal.retention.time_unit", "seconds"));
+
+        // 会话模式：memory（进程内）、token（无状态签名令牌）或 persistent（进程内 + 本地文件持久化）
+        SessionManager.init(
+            ServerConfig.getString("org.neo4j.server.session.mode", SessionManager.MODE_MEMORY),
+            ServerConfig.getString("org.neo4j.server.session.token_secret", ""),
+            ServerConfig.getString("org.neo4j.server.session.store.dir", "target/sessions"),
+            ServerConfig.getInt("org.neo4j.server.session.store.flush_interval_ms", 1000),
+            ServerConfig.getInt("org.neo4j.server.session.store.snapshot_threshold", 10000));
+
+        // Basic Auth 已验证凭据缓存，有效期为0时关闭
+        CredentialCache.init(
+            ServerConfig.getInt("org.neo4j.server.auth.credential_cache.ttl_seconds", 300),
+            ServerConfig.getInt("org.neo4j.server.auth.credential_cache.max_entries", 10000));
+
+        // 时态属性最新值缓存，容量为0时关闭
+        TemporalValueCache.init(ServerConfig.getInt("org.neo4j.server.temporal.latest_cache.size", 100000));
+
+        // 按用户和路由类别限流，各类别的限额可单独配置
+        RateLimiter.init(ServerConfig.getBoolean("org.neo4j.server.ratelimit.enabled", false));
+        for (RouteClass routeClass : RouteClass.values()) {
+            String prefix = "org.neo4j.server.ratelimit." + routeClass.name().toLowerCase() + ".";
+            RateLimiter.Limit limit = RateLimiter.getLimit(routeClass);
+            RateLimiter.configure(routeClass,
+                ServerConfig.getInt(prefix + "rate", limit.rate),
+                ServerConfig.getInt(prefix + "burst", limit.burst),
+                ServerConfig.getInt(prefix + "max_in_flight", limit.maxInFlight));
+        }
+
+        // 自适应并发限制，上限默认留出部分线程给管理请求和 Jetty 自身
+        AdmissionController.init(
+            ServerConfig.getBoolean("org.neo4j.server.admission.enabled", false),
+            ServerConfig.getInt("org.neo4j.server.admission.initial_limit", Math.max(1, maxThreads / 4)),
+            ServerConfig.getInt("org.neo4j.server.admission.min_limit", 8),
+            ServerConfig.getInt("org.neo4j.server.admission.max_limit", Math.max(1, maxThreads - 20)),
+            ServerConfig.getInt("org.neo4j.server.admission.scan_limit_percent", 50));
 
         // 创建Javalin应用
         Javalin app = Javalin.create(config -> {
@@ -100,42 +212,40 @@ public class Application {
             // 设置最大线程数
             config.server(() -> {
                 QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads);
+                // 准入控制用线程池队列长度判断是否已经积压
+                AdmissionController.setQueueDepthSource(threadPool::getQueueSize);
                 Server server = new Server(threadPool); // 使用构造函数设置线程池
                 return server;
             });
 
             
             config.accessManager((handler, ctx, permittedRoles) -> {
-                // 如果认证被禁用，直接允许访问
+                // 路由权限在注册时已预编译，包含允许的角色位掩码和限流用的路由类别
+                RoutePermission permission = RoutePermission.UNRESTRICTED;
+                for (RouteRole role : permittedRoles) {
+                    if (role instanceof RoutePermission) {
+                        permission = (RoutePermission) role;
+                    }
+                }
+
+                // 如果认证被禁用，直接允许访问，按客户端地址限流
                 if (!SecurityConfig.isAuthEnabled()) {
-                    handler.handle(ctx);
+                    handleLimited(handler, ctx, "ip:" + ctx.ip(), permission);
                     return;
                 }
                 
-                // 公共路径无需认证 (例如登录、注册、系统监控等)
+                // 公共路径无需认证 (例如登录、注册、系统监控等)，按客户端地址限流
                 String path = ctx.path();
                 if (path.equals("/user/login") || 
                     path.equals("/user/register") || 
                     path.startsWith("/system/resources") || // Assuming /system/resources is public
                     path.equals("/")) { // 根路径或其他公共路径
-                    handler.handle(ctx);
+                    handleLimited(handler, ctx, "ip:" + ctx.ip(), permission);
                     return;
                 }
                 
-                User user = null;
-                String usernameFromSession = null;
-
-                // 1. 尝试从 Session 获取用户
-                String sessionId = ctx.cookie("sessionId");
-                if (sessionId != null) {
-                    usernameFromSession = SessionManager.validateSession(sessionId);
-                    if (usernameFromSession != null) {
-                        user = userService.getUserStatus(usernameFromSession);
-                        if (user != null) {
-                            ctx.attribute("user", user); // 缓存用户信息
-                        }
-                    }
-                }
+                // 1. 会话已在前置过滤器中校验过，直接取缓存在 Context 上的用户
+                User user = ctx.attribute("user");
                 
                 // 2. 如果 Session 无效或无 Session，尝试 Basic Auth
                 if (user == null) {
@@ -153,8 +263,8 @@ public class Application {
                         String usernameFromAuth = credentials[0];
                         String password = credentials[1];
                         
-                        User potentialUser = userService.getUserStatus(usernameFromAuth);
-                        if (potentialUser == null || !PasswordUtil.checkPassword(password, potentialUser.getPasswordHash())) {
+                        User potentialUser = userService.authenticate(usernameFromAuth, password);
+                        if (potentialUser == null) {
                             ctx.status(401)
                                .header("WWW-Authenticate", "Basic realm=\"Restricted Access\"")
                                .json(new ErrorResponse("用户名或密码无效", "Neo.ClientError.Security.AuthorizationFailed"));
@@ -184,89 +294,101 @@ public class Application {
                 }
 
                 // 开始角色权限检查
-                String method = ctx.method();
-                String pathTemplate = ctx.matchedPath();
-                
                 // 特殊处理：对于 /db/data/databases 接口，直接放行（或者根据需要调整）
-                // 因为 accessManager 运行时可能还没有匹配到具体的 pathTemplate
                 if (path.equals("/db/data/databases")) { 
-                    handler.handle(ctx);
-                    return;
-                }
-
-                if (pathTemplate == null) {
-                    // 如果到这里 pathTemplate 仍然是 null，可能意味着路由未定义或匹配逻辑有问题
-                    // 出于安全考虑，可以拒绝访问或记录日志
-                    System.err.println("Warning: No matchedPath for path: " + path + ", method: " + method);
-                    ctx.status(404).json(new ErrorResponse("资源未找到或路径模板无法匹配", "Neo.ClientError.General.NotFound"));
+                    handleLimited(handler, ctx, user.getUsername(), permission);
                     return;
                 }
 
-                String permissionKey = method + ":" + pathTemplate;
-                Set<String> allowedRoles = PermissionConfig.PERMISSIONS.get(permissionKey);
-
-                if (allowedRoles != null) { // 此路由需要特定角色
-                    List<String> userRoles = userService.getRolesByUsername(user.getUsername());
-                    boolean hasPermission = false;
-                    for (String role : userRoles) {
-                        if (allowedRoles.contains(role)) {
-                            hasPermission = true;
-                            break;
-                        }
-                    }
-
-                    if (!hasPermission) {
-                        ctx.status(403).json(new ErrorResponse("您没有权限访问此资源: " + permissionKey, "Neo.ClientError.Security.Forbidden"));
-                        return; // 权限不足，终止
-                    }
+                // 角色检查只需一次按位与
+                if (!permission.permits(user.getRoleMask())) {
+                    ctx.status(403).json(new ErrorResponse("您没有权限访问此资源: " + permission.getKey(), "Neo.ClientError.Security.Forbidden"));
+                    return; // 权限不足，终止
                 }
                 // --- 授权检查结束 ---
 
-                // 认证和授权都通过，执行请求处理器
-                handler.handle(ctx);
+                // 认证和授权都通过，按用户限流后执行请求处理器
+                handleLimited(handler, ctx, user.getUsername(), permission);
             });
         }).start(host, port);
 
-        // 设置事务超时时间
-        // 添加中间件以处理事务超时
+        // 请求处理链：前置过滤器 -> accessManager -> 处理器 -> 后置过滤器
+        // 前置过滤器为每个请求分配ID、登记活跃请求，并只做一次会话校验，结果缓存在 Context 上供后续使用
         app.before(ctx -> {
-            // 为每个请求生成唯一 ID
-            String requestId = UUID.randomUUID().toString();
+            String requestId = RequestTracker.nextRequestId();
             ctx.attribute("requestId", requestId); // 将数据存储在当前请求的上下文中，以便在整个请求生命周期中共享数据
+            // 客户端可用 max-execution-time 头（毫秒）要求更短的期限
+            long requestTimeout = 0;
+            String maxExecutionTime = ctx.header("max-execution-time");
+            if (maxExecutionTime != null) {
+                try {
+                    requestTimeout = Long.parseLong(maxExecutionTime.trim());
+                } catch (NumberFormatException e) {
+                    // 忽略格式错误的头，使用默认期限
+                }
+            }
+            // 客户端关闭连接后 Jetty 感知到时端点变为关闭，长查询据此提前结束
+            EndPoint endPoint = Request.getBaseRequest(ctx.req).getHttpChannel().getEndPoint();
+            RequestTracker.startRequest(requestId, ctx.path(), ctx.method(), requestTimeout, endPoint::isOpen);
             
             // 尝试从cookie中获取会话ID和用户名
             String sessionId = ctx.cookie("sessionId");
             if (sessionId != null) {
-                String username = SessionManager.validateSession(sessionId);
-                if (username != null) {
+                // 每个请求只校验一次会话，token 模式下同时得到续期的令牌
+                SessionManager.Validation session = SessionManager.validate(sessionId);
+                if (session != null) {
                     // 会话有效，设置当前用户
-                    User user = userService.getUserStatus(username);
+                    User user = userService.getUserStatus(session.getUsername());
                     if (user != null) {
                         ctx.attribute("user", user);
-                        
-                        // 读取并缓存用户角色
-                        List<String> roles = userService.getRolesByUsername(username);
-                        ctx.attribute("roles", roles);
+                        // token 模式下的滑动续期：签发新令牌写回cookie
+                        if (session.getRefreshedSessionId() != null) {
+                            ctx.cookie("sessionId", session.getRefreshedSessionId(), -1);
+                        }
                     }
-                } 
-            } 
-            
-            // 记录请求开始时间
-            ctx.attribute("requestStartTime", System.currentTimeMillis());
-            
-            
+                }
+            }
         });
         
-        // 目前只能在结束后再计算是否超时
+        // 请求超过期限或客户端断开时中止，事务超时被 Neo4j 终止的按期限超时处理
+        app.exception(RequestAbortedException.class, (e, ctx) -> {
+            if (e.getReason() == RequestAbortedException.Reason.CLIENT_DISCONNECTED) {
+                System.err.println("请求 " + ctx.attribute("requestId") + " 的客户端已断开，已中止: " + ctx.path());
+                return;
+            }
+            if (e.getReason() == RequestAbortedException.Reason.CANCELLED) {
+                ctx.status(409).json(new ErrorResponse(e.getMessage(), "Neo.TransientError.Transaction.Terminated"));
+                return;
+            }
+            if (e.getReason() == RequestAbortedException.Reason.DATABASE_UNAVAILABLE) {
+                ctx.status(503)
+                   .header("Retry-After", "1")
+                   .json(new ErrorResponse(e.getMessage(), "Neo.TransientError.General.DatabaseUnavailable"));
+                return;
+            }
+            ctx.status(504).json(new ErrorResponse(e.getMessage(), "Neo.ClientError.Transaction.TransactionTimedOut"));
+        });
+        app.exception(TransactionTerminatedException.class, (e, ctx) -> {
+            if (RequestTracker.isCurrentRequestCancelled()) {
+                ctx.status(409).json(new ErrorResponse(RequestTracker.getCurrentCancelReason(), "Neo.TransientError.Transaction.Terminated"));
+                return;
+            }
+            ctx.status(504).json(new ErrorResponse("事务已超时终止: " + e.getMessage(), "Neo.ClientError.Transaction.TransactionTimedOut"));
+        });
+
         app.after(ctx -> {
-            // 在请求完成后的处理
+            // 记录请求结束
+            String requestId = ctx.attribute("requestId");
+            if (requestId != null) {
+                RequestTracker.endRequest(requestId);
+            }
         });
 
         // 列出所有属性键API
-        app.get("/db/data/propertykeys", propertyHandler::getAllPropertyKeys);
+        route(app, HandlerType.GET, "/db/data/propertykeys", propertyHandler::getAllPropertyKeys);
         
         // 添加数据API
-        app.get("/db/data/", ctx -> {
+        route(app, HandlerType.GET, "/db/data/", ctx -> {
             Map<String, Object> response = new HashMap<>();
             response.put("extensions", new HashMap<>());
             response.put("node", "http://" + domainName + ":" + ctx.port() + "/db/data/node");
@@ -285,7 +407,7 @@ public class Application {
         });
 
         // 获取当前用户的所有数据库列表
-        app.get("/db/data/databases", ctx -> { 
+        route(app, HandlerType.GET, "/db/data/databases", ctx -> { 
             Object userObj = ctx.attribute("user");
             String username = ((User) userObj).getUsername();
             // 获取用户可访问的数据库列表
@@ -298,7 +420,8 @@ public class Application {
                 File[] files = dbDir.listFiles();
                 if (files != null) {
                     for (File file : files) {
-                        if (file.isDirectory()) {
+                        // 以点开头的是恢复时的临时目录
+                        if (file.isDirectory() && !file.getName().startsWith(".")) {
                             // 只要数据库目录存在，就添加到列表中
                             // 这里可以根据需要添加权限检查
                             databases.add(file.getName());
@@ -312,7 +435,7 @@ public class Application {
         });
         
         // 用户状态API
-        app.get("/user/{username}/status", ctx -> {
+        route(app, HandlerType.GET, "/user/{username}/status", ctx -> {
             String username = ctx.pathParam("username");
             
             // 验证当前用户是否有权查看此用户信息
@@ -345,7 +468,7 @@ public class Application {
         });
         
         // 密码修改API
-        app.post("/user/{username}/password", ctx -> {
+        route(app, HandlerType.POST, "/user/{username}/password", ctx -> {
             String username = ctx.pathParam("username");
             
             // 验证当前用户是否有权更改此用户密码
@@ -384,63 +507,63 @@ public class Application {
         });
 
         // 获取所有节点信息API
-        app.get("/db/data/nodes", labelHandler::getAllNodes);
+        route(app, HandlerType.GET, "/db/data/nodes", labelHandler::getAllNodes);
 
         // 获取分页节点信息API
-        app.get("/db/data/nodes/paginated", labelHandler::getPaginatedNodes);
+        route(app, HandlerType.GET, "/db/data/nodes/paginated", labelHandler::getPaginatedNodes);
 
         // 获取分页关系信息API
-        app.get("/db/data/relationships/paginated", labelHandler::getPaginatedRelationships);
+        route(app, HandlerType.GET, "/db/data/relationships/paginated", labelHandler::getPaginatedRelationships);
 
         // 创建节点API
-        app.post("/db/data/node", nodeHandler::createNode);
+        route(app, HandlerType.POST, "/db/data/node", nodeHandler::createNode);
 
         // 获取节点API(存在和不存在的)
-        app.get("/db/data/node/{id}", nodeHandler::getNode);
+        route(app, HandlerType.GET, "/db/data/node/{id}", nodeHandler::getNode);
 
         // 删除节点API
-        app.delete("/db/data/node/{id}", nodeHandler::deleteNode);
+        route(app, HandlerType.DELETE, "/db/data/node/{id}", nodeHandler::deleteNode);
 
         // 移动至下方
 
         // 创建关系API
-        app.post("/db/data/node/{id}/relationships", relationshipHandler::createRelationship);
+        route(app, HandlerType.POST, "/db/data/node/{id}/relationships", relationshipHandler::createRelationship);
 
         // 删除关系API
-        app.delete("/db/data/relationship/{id}", relationshipHandler::deleteRelationship);
+        route(app, HandlerType.DELETE, "/db/data/relationship/{id}", relationshipHandler::deleteRelationship);
 
         // 获取关系上所有属性API
-        app.get("/db/data/relationship/{id}/properties", relationshipHandler::getProperties);
+        route(app, HandlerType.GET, "/db/data/relationship/{id}/properties", relationshipHandler::getProperties);
 
         // 设置关系上的所有属性
-        app.put("/db/data/relationship/{id}/properties", relationshipHandler::setProperties);
+        route(app, HandlerType.PUT, "/db/data/relationship/{id}/properties", relationshipHandler::setProperties);
 
         // 获取关系上的单个属性
-        app.get("/db/data/relationship/{id}/properties/{key}", relationshipHandler::getProperty);
+        route(app, HandlerType.GET, "/db/data/relationship/{id}/properties/{key}", relationshipHandler::getProperty);
 
         // 设置关系上的单个属性
-        app.put("/db/data/relationship/{id}/properties/{key}", relationshipHandler::setProperty);
+        route(app, HandlerType.PUT, "/db/data/relationship/{id}/properties/{key}", relationshipHandler::setProperty);
 
         // 获取所有关系（有关系和没有关系的）
-        app.get("/db/data/node/{id}/relationships/all", relationshipHandler::getAllRelationships);
+        route(app, HandlerType.GET, "/db/data/node/{id}/relationships/all", relationshipHandler::getAllRelationships);
 
         // 获取传入的关系
-        app.get("/db/data/node/{id}/relationships/in", relationshipHandler::getIncomingRelationships);
+        route(app, HandlerType.GET, "/db/data/node/{id}/relationships/in", relationshipHandler::getIncomingRelationships);
 
         // 获取传出的关系
-        app.get("/db/data/node/{id}/relationships/out", relationshipHandler::getOutgoingRelationships);
+        route(app, HandlerType.GET, "/db/data/node/{id}/relationships/out", relationshipHandler::getOutgoingRelationships);
 
         // 获取指定类型的关系 tx.success()是在try里，没有包含在整个transaction里
-        app.get("/db/data/node/{id}/relationships/all/{typeString}", relationshipHandler::getRelationshipsByTypes);
+        route(app, HandlerType.GET, "/db/data/node/{id}/relationships/all/{typeString}", relationshipHandler::getRelationshipsByTypes);
 
         // 获取关系类型 和下面的产生路径冲突 将types识别成了{id} 将将具体路径放在模式匹配的路径前面可以确保它会被优先匹配
         /*
         ai说以下也会冲突
             // 先定义具体路径
-            app.get("/db/data/labels", labelHandler::getAllLabels);
+            route(app, HandlerType.GET, "/db/data/labels", labelHandler::getAllLabels);
 
             // 再定义参数路径
-            app.get("/db/data/label/{labelName}/nodes", labelHandler::getNodesWithLabel);
+            route(app, HandlerType.GET, "/db/data/label/{labelName}/nodes", labelHandler::getNodesWithLabel);
         */
 
         /*
@@ -449,91 +572,94 @@ public class Application {
             3. 如果不调整顺序，types 会被错误地识别为 {id} 的值
             4. 将具体路径放在前面可以确保它会被优先匹配
         */
-        app.get("/db/data/relationship/types", relationshipHandler::getRelationshipTypes);
+        route(app, HandlerType.GET, "/db/data/relationship/types", relationshipHandler::getRelationshipTypes);
 
         // 通过ID获取关系API
-        app.get("/db/data/relationship/{id}", relationshipHandler::getRelationship);
+        route(app, HandlerType.GET, "/db/data/relationship/{id}", relationshipHandler::getRelationship);
 
         // 通过ID获取节点的所有时态属性
-        app.get("/db/data/node/{id}/temporal", nodeHandler::getAllTemporalProperties);
+        route(app, HandlerType.GET, "/db/data/node/{id}/temporal", nodeHandler::getAllTemporalProperties);
 
         // 通过ID获取关系的所有时态属性
-        app.get("/db/data/relationship/{id}/temporal", relationshipHandler::getAllTemporalProperties);
+        route(app, HandlerType.GET, "/db/data/relationship/{id}/temporal", relationshipHandler::getAllTemporalProperties);
 
         // 在节点上设置单个属性
-        app.put("/db/data/node/{id}/properties/{key}", nodeHandler::setProperty);
+        route(app, HandlerType.PUT, "/db/data/node/{id}/properties/{key}", nodeHandler::setProperty);
 
         // 更新节点的所有属性
-        app.put("/db/data/node/{id}/properties", nodeHandler::updateAllProperties);
+        route(app, HandlerType.PUT, "/db/data/node/{id}/properties", nodeHandler::updateAllProperties);
 
         // 获取节点的所有属性
-        app.get("/db/data/node/{id}/properties", nodeHandler::getAllProperties);
+        route(app, HandlerType.GET, "/db/data/node/{id}/properties", nodeHandler::getAllProperties);
 
         // 获取节点的单个属性
-        app.get("/db/data/node/{id}/properties/{key}", nodeHandler::getProperty);
+        route(app, HandlerType.GET, "/db/data/node/{id}/properties/{key}", nodeHandler::getProperty);
 
         // 删除节点的所有属性
-        app.delete("/db/data/node/{id}/properties", nodeHandler::deleteAllProperties);
+        route(app, HandlerType.DELETE, "/db/data/node/{id}/properties", nodeHandler::deleteAllProperties);
 
         // 删除节点的单个属性
-        app.delete("/db/data/node/{id}/properties/{key}", nodeHandler::deleteProperty);
+        route(app, HandlerType.DELETE, "/db/data/node/{id}/properties/{key}", nodeHandler::deleteProperty);
 
         // 从关系中删除所有属性
-        app.delete("/db/data/relationship/{id}/properties", relationshipHandler::deleteAllProperties);
+        route(app, HandlerType.DELETE, "/db/data/relationship/{id}/properties", relationshipHandler::deleteAllProperties);
 
         // 从关系中删除单个属性
-        app.delete("/db/data/relationship/{id}/properties/{key}", relationshipHandler::deleteProperty);
+        route(app, HandlerType.DELETE, "/db/data/relationship/{id}/properties/{key}", relationshipHandler::deleteProperty);
 
         // 向节点添加标签
-        app.post("/db/data/node/{id}/labels", nodeHandler::addLabels);
+        route(app, HandlerType.POST, "/db/data/node/{id}/labels", nodeHandler::addLabels);
 
         // 替换节点上的所有标签
-        app.put("/db/data/node/{id}/labels", nodeHandler::replaceLabels);
+        route(app, HandlerType.PUT, "/db/data/node/{id}/labels", nodeHandler::replaceLabels);
 
         // 从节点中删除标签
-        app.delete("/db/data/node/{id}/labels/{labelName}", nodeHandler::removeLabel);
+        route(app, HandlerType.DELETE, "/db/data/node/{id}/labels/{labelName}", nodeHandler::removeLabel);
 
         // 获取节点的所有标签
-        app.get("/db/data/node/{id}/labels", nodeHandler::getAllLabels);
+        route(app, HandlerType.GET, "/db/data/node/{id}/labels", nodeHandler::getAllLabels);
 
         // 获取具有特定标签的所有节点，支持可选的属性过滤
-        app.get("/db/data/label/{labelName}/nodes", labelHandler::getNodesWithLabel);
+        route(app, HandlerType.GET, "/db/data/label/{labelName}/nodes", labelHandler::getNodesWithLabel);
 
         // 列出所有标签
-        app.get("/db/data/labels", labelHandler::getAllLabels);
+        route(app, HandlerType.GET, "/db/data/labels", labelHandler::getAllLabels);
 
         // 获取节点的度数（各种场景）
-        app.get("/db/data/node/{id}/degree/*", nodeHandler::getDegree);
+        route(app, HandlerType.GET, "/db/data/node/{id}/degree/*", nodeHandler::getDegree);
 
         // 创建数据库
-        app.post("/db/data/database/{databaseName}/create", TgraphHandler::createDatabase);
+        route(app, HandlerType.POST, "/db/data/database/{databaseName}/create", TgraphHandler::createDatabase);
 
         // 启动数据库
-        app.post("/db/data/database/{databaseName}/start", TgraphHandler::startDatabase);
+        route(app, HandlerType.POST, "/db/data/database/{databaseName}/start", TgraphHandler::startDatabase);
 
         // 删除数据库
-        app.delete("/db/data/database/{databaseName}", TgraphHandler::deleteDatabase);
+        route(app, HandlerType.DELETE, "/db/data/database/{databaseName}", TgraphHandler::deleteDatabase);
         
         // 关闭数据库 由于一个时间只能有一个数据库被打开 所以不用传入{databaseName}
-        app.post("/db/data/database", TgraphHandler::shutdownDatabase);
+        route(app, HandlerType.POST, "/db/data/database", TgraphHandler::shutdownDatabase);
+
+        // 关闭指定数据库API
+        route(app, HandlerType.POST, "/db/data/database/{databaseName}/shutdown", TgraphHandler::shutdownNamedDatabase);
 
         // 备份数据库
-        app.post("/db/data/database/{databaseName}/backup", TgraphHandler::backupDatabase);
+        route(app, HandlerType.POST, "/db/data/database/{databaseName}/backup", TgraphHandler::backupDatabase);
 
         // 恢复数据库
-        app.post("/db/data/database/{databaseName}/restore", TgraphHandler::restoreDatabase);
+        route(app, HandlerType.POST, "/db/data/database/{databaseName}/restore", TgraphHandler::restoreDatabase);
 
         // 返回所有备份文件的名称
-        app.get("/db/data/database/backup", TgraphHandler::getBackupFiles);
+        route(app, HandlerType.GET, "/db/data/database/backup", TgraphHandler::getBackupFiles);
 
         // 获取数据库路径
-        app.get("/db/data/database/{databaseName}/path", TgraphHandler::getDatabasePath);
+        route(app, HandlerType.GET, "/db/data/database/{databaseName}/path", TgraphHandler::getDatabasePath);
 
         // 获取数据库状态
-        app.get("/db/data/database/{databaseName}/status", TgraphHandler::getDatabaseStatus);
+        route(app, HandlerType.GET, "/db/data/database/{databaseName}/status", TgraphHandler::getDatabaseStatus);
 
         // 添加数据库空间统计API
-        app.get("/databases/{dbname}/space", ctx -> {
+        route(app, HandlerType.GET, "/databases/{dbname}/space", ctx -> {
             String dbname = ctx.pathParam("dbname");
             
             // 验证当前用户是否有权限查看此数据库信息
@@ -551,92 +677,146 @@ public class Application {
             ctx.status(200).json(response);
         });
 
+        // 时态存储统计API：各层文件数、大小和读放大
+        route(app, HandlerType.GET, "/databases/{dbname}/temporal/stats", temporalHandler::getStoreStats);
+
+        // 在后台触发时态存储合并
+        route(app, HandlerType.POST, "/databases/{dbname}/temporal/compaction", temporalHandler::startCompaction);
+
+        // 查询时态存储合并状态
+        route(app, HandlerType.GET, "/databases/{dbname}/temporal/compaction", temporalHandler::getCompactionStatus);
+
+        // 查询时态保留策略和执行状态
+        route(app, HandlerType.GET, "/admin/temporal/retention", temporalHandler::getRetentionStatus);
+
+        // 立即执行一轮时态保留任务
+        route(app, HandlerType.POST, "/admin/temporal/retention", temporalHandler::runRetention);
+
         // 添加系统资源监控API
         // 应用程序（Javalin服务）正在使用的CPU资源占总可用CPU资源的百分比
         // 所有运行中的进程总共使用的CPU资源占总可用CPU资源的百分比
-        app.get("/system/resources", ctx -> {
+        route(app, HandlerType.GET, "/system/resources", ctx -> {
             Map<String, Object> resources = systemMonitorService.getSystemResources();
             ctx.status(200).json(resources);
         });
 
         // 添加线程监控API
-        app.get("/system/threads", ctx -> {
+        route(app, HandlerType.GET, "/system/threads", ctx -> {
             Map<String, Object> threadInfo = systemMonitorService.getThreadInfo();
+            threadInfo.put("admission", AdmissionController.getStats());
             ctx.status(200).json(threadInfo);
         });
         
         // 获取数据库中的节点总数API
-        app.get("/db/data/nodes/count", labelHandler::getNodeCount);
+        route(app, HandlerType.GET, "/db/data/nodes/count", labelHandler::getNodeCount);
 
         // 获取数据库中的关系总数API
-        app.get("/db/data/relationships/count", labelHandler::getRelationshipCount);
+        route(app, HandlerType.GET, "/db/data/relationships/count", labelHandler::getRelationshipCount);
 
         // 添加用户日志查看API
-        app.get("/user/logs", userLogHandler::getUserLog);
+        route(app, HandlerType.GET, "/user/logs", userLogHandler::getUserLog);
 
         // 添加用户列表API
-        app.get("/user/list", userLogHandler::getUsersList);
+        route(app, HandlerType.GET, "/user/list", userLogHandler::getUsersList);
 
-        app.post("/db/data/batch", propertyHandler::batchExecuteTransaction);
+        route(app, HandlerType.POST, "/db/data/batch", propertyHandler::batchExecuteTransaction);
 
         // 获取节点上单一时间点的时态属性
-        app.get("/db/data/node/{id}/temporal/{key}/{time}", nodeHandler::getTemporalProperty);
+        route(app, HandlerType.GET, "/db/data/node/{id}/temporal/{key}/{time}", nodeHandler::getTemporalProperty);
 
         // 设置节点上当前时间的时态属性
-        app.put("/db/data/node/{id}/temporal/{key}/{time}", nodeHandler::setTemporalProperty);
+        route(app, HandlerType.PUT, "/db/data/node/{id}/temporal/{key}/{time}", nodeHandler::setTemporalProperty);
 
         // 设置节点上时间范围内的时态属性
-        app.put("/db/data/node/{id}/temporal/{key}/{startTime}/{endTime}", nodeHandler::setTemporalPropertyRange);
+        route(app, HandlerType.PUT, "/db/data/node/{id}/temporal/{key}/{startTime}/{endTime}", nodeHandler::setTemporalPropertyRange);
 
         // 获取节点上时间范围内的时态属性
-        app.get("/db/data/node/{id}/temporal/{key}/{startTime}/{endTime}", nodeHandler::getTemporalPropertyRange);
+        route(app, HandlerType.GET, "/db/data/node/{id}/temporal/{key}/{startTime}/{endTime}", nodeHandler::getTemporalPropertyRange);
 
         // 删除节点上某个时态属性
-        app.delete("/db/data/node/{id}/temporal/{key}", nodeHandler::deleteTemporalProperty);
+        route(app, HandlerType.DELETE, "/db/data/node/{id}/temporal/{key}", nodeHandler::deleteTemporalProperty);
 
         // 获取关系上单一时间点的时态属性
-        app.get("/db/data/relationship/{id}/temporal/{key}/{time}", relationshipHandler::getTemporalProperty);
+        route(app, HandlerType.GET, "/db/data/relationship/{id}/temporal/{key}/{time}", relationshipHandler::getTemporalProperty);
 
         // 设置关系上当前时间的时态属性
-        app.put("/db/data/relationship/{id}/temporal/{key}/{time}", relationshipHandler::setTemporalProperty);
+        route(app, HandlerType.PUT, "/db/data/relationship/{id}/temporal/{key}/{time}", relationshipHandler::setTemporalProperty);
 
         // 设置关系上时间范围内的时态属性
-        app.put("/db/data/relationship/{id}/temporal/{key}/{startTime}/{endTime}", relationshipHandler::setTemporalPropertyRange);
+        route(app, HandlerType.PUT, "/db/data/relationship/{id}/temporal/{key}/{startTime}/{endTime}", relationshipHandler::setTemporalPropertyRange);
 
         // 获取关系上时间范围内的时态属性
-        app.get("/db/data/relationship/{id}/temporal/{key}/{startTime}/{endTime}", relationshipHandler::getTemporalPropertyRange);
+        route(app, HandlerType.GET, "/db/data/relationship/{id}/temporal/{key}/{startTime}/{endTime}", relationshipHandler::getTemporalPropertyRange);
 
         // 删除关系上某个时态属性
-        app.delete("/db/data/relationship/{id}/temporal/{key}", relationshipHandler::deleteTemporalProperty);
+        route(app, HandlerType.DELETE, "/db/data/relationship/{id}/temporal/{key}", relationshipHandler::deleteTemporalProperty);
 
-        // 在 Javalin.create 配置中添加
-        app.before(ctx -> {
-            // 为每个请求生成唯一 ID
-            String requestId = UUID.randomUUID().toString();
-            // 存储请求 ID 在上下文中，以便后续使用
-            ctx.attribute("requestId", requestId);
-            // 记录请求开始
-            RequestTracker.startRequest(requestId, ctx.path(), ctx.method());
+        // 批量写入节点和关系上的时态属性（组提交）
+        route(app, HandlerType.POST, "/db/data/temporal/batch", temporalHandler::bulkSetTemporalProperties);
+
+        // 会话统计：活跃会话数、累计创建/过期/登出数
+        route(app, HandlerType.GET, "/admin/sessions", ctx -> {
+            ctx.status(200).json(SessionManager.getStats());
         });
 
-        app.after(ctx -> {
-        
-            // 获取请求 ID
-            String requestId = ctx.attribute("requestId");
-            // 记录请求结束
-            if (requestId != null) {
-                RequestTracker.endRequest(requestId);
+        // 已打开的数据库列表
+        route(app, HandlerType.GET, "/admin/databases", ctx -> {
+            ctx.status(200).json(DatabaseRegistry.getStats());
+        });
+
+        // 备份和恢复任务：排队中、正在进行和最近完成的任务及其进度
+        route(app, HandlerType.GET, "/admin/backups/jobs", ctx -> {
+            ctx.status(200).json(BackupProgress.getStatus());
+        });
+
+        route(app, HandlerType.GET, "/admin/backups/jobs/{id}", ctx -> {
+            BackupProgress.Operation operation = parseJobId(ctx.pathParam("id"));
+            if (operation == null) {
+                ctx.status(404).json(new ErrorResponse("任务不存在: " + ctx.pathParam("id"), "Neo.ClientError.Request.Invalid"));
+                return;
             }
+            ctx.status(200).json(operation.toMap());
+        });
+
+        // 取消备份或恢复任务：排队中的任务不再执行，执行中的任务在下一次汇报进度时中止
+        route(app, HandlerType.DELETE, "/admin/backups/jobs/{id}", ctx -> {
+            BackupProgress.Operation operation = parseJobId(ctx.pathParam("id"));
+            String reason = operation == null ? "任务不存在" : BackupProgress.cancel(operation.getId());
+            if (reason != null) {
+                ctx.status(operation == null ? 404 : 409).json(new ErrorResponse(reason + ": " + ctx.pathParam("id"), "Neo.ClientError.Request.Invalid"));
+                return;
+            }
+            ctx.status(202);
+        });
+
+        // 页缓存预热进度
+        route(app, HandlerType.GET, "/admin/databases/warmup", ctx -> {
+            ctx.status(200).json(PageCacheWarmup.getStatus());
+        });
+
+        // 限流统计：各路由类别的限额和累计拒绝数
+        route(app, HandlerType.GET, "/admin/ratelimit", ctx -> {
+            ctx.status(200).json(RateLimiter.getStats());
         });
 
         // 添加一个 API 端点，用于查询当前正在执行的请求列表
-        app.get("/admin/active-requests", ctx -> {
+        route(app, HandlerType.GET, "/admin/active-requests", ctx -> {
             // 检查是否有管理员权限
             ctx.json(RequestTracker.getActiveRequests());
         });
 
+        // 取消活跃请求：设置取消标记并终止其事务，扫描循环检查到标记后中止
+        route(app, HandlerType.DELETE, "/admin/active-requests/{id}", ctx -> {
+            String requestId = ctx.pathParam("id");
+            if (!RequestTracker.cancelRequest(requestId)) {
+                ctx.status(404).json(new ErrorResponse("请求不存在或已结束: " + requestId, "Neo.ClientError.Request.Invalid"));
+                return;
+            }
+            ctx.status(202);
+        });
+
         // 用户登录API
-        app.post("/user/login", ctx -> {
+        route(app, HandlerType.POST, "/user/login", ctx -> {
             LoginRequest loginRequest;
             try {
                 loginRequest = ctx.bodyAsClass(LoginRequest.class);
@@ -691,7 +871,7 @@ public class Application {
         });
         
         // 用户登出API
-        app.post("/user/logout", ctx -> {
+        route(app, HandlerType.POST, "/user/logout", ctx -> {
             String sessionId = ctx.cookie("sessionId");
             if (sessionId != null) {
                 // 获取用户名以关闭日志记录器
@@ -707,7 +887,7 @@ public class Application {
         });
 
         // 用户注册API（无需登录）
-        app.post("/user/register", ctx -> {
+        route(app, HandlerType.POST, "/user/register", ctx -> {
             RegisterUserRequest registerRequest;
             try {
                 registerRequest = ctx.bodyAsClass(RegisterUserRequest.class);
@@ -751,6 +931,81 @@ public class Application {
         });
     }
     
+    /**
+     * 注册路由，并挂上按权限表预编译的路由权限
+     * /db/data/ 下的数据接口同时注册为 /db/{database}/data/...，作用于路径中指定的数据库，权限与原路由相同
+     */
+    private static void route(Javalin app, HandlerType type, String path, Handler handler) {
+        RoutePermission permission = PermissionConfig.compile(type.name(), path);
+        app.addHandler(type, path, handler, permission);
+        if (path.startsWith(DATA_PREFIX) && !path.startsWith(DATA_PREFIX + "database")) {
+            String databasePath = "/db/{database}/data/" + path.substring(DATA_PREFIX.length());
+            app.addHandler(type, databasePath, ctx -> handleOnDatabase(handler, ctx), permission);
+        }
+    }
+
+    /**
+     * 在路径指定的数据库上执行处理器：数据库绑定到当前线程，处理器中的 Tgraph.beginTx/database 都作用于它
+     */
+    private static void handleOnDatabase(Handler handler, Context ctx) throws Exception {
+        User user = ctx.attribute("user");
+        if (user == null) {
+            ctx.status(401).json(new ErrorResponse("需要认证", "Neo.ClientError.Security.AuthorizationFailed"));
+            return;
+        }
+        String databaseName = ctx.pathParam("database");
+        // 未打开的数据库在第一次请求时打开，请求期间不会被空闲关闭
+        DatabaseRegistry.ManagedDatabase database = DatabaseRegistry.acquire(user.getUsername(), databaseName);
+        if (database == null) {
+            ctx.status(404).json(new ErrorResponse("数据库 '" + databaseName + "' 不存在或没有在运行", "Neo.ClientError.General.DatabaseNotFound"));
+            return;
+        }
+        Tgraph.bind(database);
+        try {
+            handler.handle(ctx);
+        } finally {
+            Tgraph.unbind();
+            database.release();
+        }
+    }
+    
+    /**
+     * 按用户和路由类别限流、再经过全局准入控制后执行处理器
+     * 超出用户限额时返回 429，服务器过载时返回 503，两者都带 Retry-After
+     */
+    private static void handleLimited(Handler handler, Context ctx, String key, RoutePermission permission) throws Exception {
+        RouteClass routeClass = permission.getRouteClass();
+        RateLimiter.Bucket bucket = null;
+        if (RateLimiter.isEnabled()) {
+            bucket = RateLimiter.bucket(key, routeClass);
+            long retryAfter = bucket.tryAcquire();
+            if (retryAfter > 0) {
+                ctx.status(429)
+                   .header("Retry-After", String.valueOf(retryAfter))
+                   .json(new ErrorResponse("请求过于频繁，请稍后重试", "Neo.ClientError.Request.TooManyRequests"));
+                return;
+            }
+        }
+        try {
+            if (!AdmissionController.tryAcquire(routeClass)) {
+                ctx.status(503)
+                   .header("Retry-After", "1")
+                   .json(new ErrorResponse("服务器繁忙，请稍后重试", "Neo.TransientError.Request.ServerOverloaded"));
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                handler.handle(ctx);
+            } finally {
+                AdmissionController.release(routeClass, System.nanoTime() - start);
+            }
+        } finally {
+            if (bucket != null) {
+                bucket.release();
+            }
+        }
+    }
+
     private static String[] extractCredentials(String authHeader) {
         if (authHeader == null || !authHeader.startsWith("Basic ")) {
             return new String[] { "", "" };
@@ -765,6 +1020,15 @@ public class Application {
         }
     }
     
+    // 按编号查找备份或恢复任务，编号无效时返回null
+    private static BackupProgress.Operation parseJobId(String id) {
+        try {
+            return BackupProgress.get(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private static class ErrorResponse {
         private String message;
         private String code;
@@ -0,0 +1,25 @@
+package app;
+
+/**
+ * 请求因被取消、超过期限或客户端断开而被中止
+ */
+public class RequestAbortedException extends RuntimeException {
+
+    public enum Reason {
+        CANCELLED,
+        DEADLINE_EXCEEDED,
+        CLIENT_DISCONNECTED,
+        DATABASE_UNAVAILABLE
+    }
+
+    private final Reason reason;
+
+    public RequestAbortedException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
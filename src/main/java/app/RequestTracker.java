@@ -1,22 +1,59 @@
 package app;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.neo4j.graphdb.Transaction;
 
 public class RequestTracker {
     // 使用 ConcurrentHashMap 存储请求信息，以支持并发访问
     private static final Map<String, RequestInfo> activeRequests = new ConcurrentHashMap<>();
+    // 请求ID = 进程前缀 + 自增序号；前缀由进程号和启动时间组成，重启后不会与之前的ID重复
+    private static final String NODE_PREFIX = Long.toString(ProcessHandle.current().pid(), 36)
+        + Long.toString(System.currentTimeMillis(), 36) + "-";
+    private static final AtomicLong requestCounter = new AtomicLong();
+
+    // 当前线程正在处理的请求，用于在事务和扫描循环中取得请求的期限
+    private static final ThreadLocal<RequestInfo> currentRequest = new ThreadLocal<>();
+    // 请求的默认期限（毫秒），0 表示不限制
+    private static volatile long defaultTimeoutMs = 0;
+
+    // 生成请求ID，比 UUID.randomUUID() 便宜得多（不需要 SecureRandom）
+    public static String nextRequestId() {
+        return NODE_PREFIX + requestCounter.incrementAndGet();
+    }
 
-    // 记录请求开始
-    public static void startRequest(String requestId, String path, String method) {
-        activeRequests.put(requestId, new RequestInfo(requestId, path, method, LocalDateTime.now()));
+    // 设置请求的默认期限（秒），对应 org.neo4j.server.transaction.timeout
+    public static void setDefaultTimeout(int seconds) {
+        defaultTimeoutMs = Math.max(0, seconds) * 1000L;
+    }
+
+    /**
+     * 记录请求开始，并把请求绑定到当前线程
+     * @param timeoutMs 客户端要求的期限（毫秒），不大于0时使用默认期限；客户端要求的期限不能超过默认期限
+     * @param clientConnected 判断客户端连接是否仍然存在
+     */
+    public static void startRequest(String requestId, String path, String method, long timeoutMs, BooleanSupplier clientConnected) {
+        long timeout = defaultTimeoutMs;
+        if (timeoutMs > 0 && (timeout == 0 || timeoutMs < timeout)) {
+            timeout = timeoutMs;
+        }
+        RequestInfo info = new RequestInfo(requestId, path, method, LocalDateTime.now(), timeout, clientConnected);
+        activeRequests.put(requestId, info);
+        currentRequest.set(info);
     }
 
     // 记录请求结束
     public static void endRequest(String requestId) {
         activeRequests.remove(requestId);
+        currentRequest.remove();
     }
 
     // 获取当前活跃请求列表
@@ -24,18 +61,167 @@ public class RequestTracker {
         return Collections.unmodifiableMap(activeRequests);
     }
 
+    /**
+     * 登记当前请求开启的事务，取消请求时终止这些事务
+     */
+    public static void registerTransaction(Transaction tx) {
+        RequestInfo info = currentRequest.get();
+        if (info != null) {
+            info.transactions.add(tx);
+        }
+    }
+
+    /**
+     * 取消一个活跃请求：设置取消标记，并终止它开启的事务
+     * 请求所在线程在下一次 checkpoint 或下一次访问数据库时中止
+     * @return 请求不存在（或已结束）时返回false
+     */
+    public static boolean cancelRequest(String requestId) {
+        return cancelRequest(requestId, "请求已被管理员取消");
+    }
+
+    /**
+     * 取消一个活跃请求
+     * @param reason 返回给客户端的原因
+     * @return 请求不存在（或已结束）时返回false
+     */
+    public static boolean cancelRequest(String requestId, String reason) {
+        RequestInfo info = activeRequests.get(requestId);
+        if (info == null) {
+            return false;
+        }
+        info.cancelReason = reason;
+        info.cancelled = true;
+        for (Transaction tx : info.transactions) {
+            try {
+                tx.terminate();
+            } catch (Exception e) {
+                // 事务可能已经提交或关闭
+            }
+        }
+        System.out.println("已取消请求 " + requestId + ": " + info.method + " " + info.path);
+        return true;
+    }
+
+    // 当前线程的请求是否已被取消
+    public static boolean isCurrentRequestCancelled() {
+        RequestInfo info = currentRequest.get();
+        return info != null && info.cancelled;
+    }
+
+    // 当前线程的请求被取消的原因，未取消时返回null
+    public static String getCurrentCancelReason() {
+        RequestInfo info = currentRequest.get();
+        return info != null && info.cancelled ? info.cancelReason : null;
+    }
+
+    /**
+     * 登记当前请求使用的数据库，关闭数据库前据此等待请求结束
+     * @return 当前请求第一次使用该数据库时返回true；当前线程没有请求时返回false
+     */
+    public static boolean useDatabase(String databaseKey) {
+        RequestInfo info = currentRequest.get();
+        if (info == null || databaseKey.equals(info.databaseKey)) {
+            return false;
+        }
+        info.databaseKey = databaseKey;
+        return true;
+    }
+
+    /**
+     * 正在使用某个数据库的请求（不含当前线程的请求）
+     */
+    public static List<String> getRequestsOnDatabase(String databaseKey) {
+        RequestInfo self = currentRequest.get();
+        List<String> result = new ArrayList<>();
+        for (RequestInfo info : activeRequests.values()) {
+            if (info != self && databaseKey.equals(info.databaseKey)) {
+                result.add(info.requestId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 当前请求距离期限的剩余毫秒数
+     * @return 当前线程没有请求或请求没有期限时返回-1
+     */
+    public static long remainingMillis() {
+        RequestInfo info = currentRequest.get();
+        if (info == null || info.timeoutMs == 0) {
+            return -1;
+        }
+        return Math.max(0, (info.deadlineNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    /**
+     * 检查当前请求是否应当中止：被取消、超过期限或客户端已断开时抛出 RequestAbortedException
+     * 在扫描循环和时态范围查询回调中逐条调用，使失控的查询尽早释放线程；每次调用计为处理了一行
+     */
+    public static void checkpoint() {
+        RequestInfo info = currentRequest.get();
+        if (info == null) {
+            return;
+        }
+        // 只有请求所在线程写入，其他线程只读
+        info.rowCount++;
+        RequestAbortedException aborted = info.abortReason();
+        if (aborted != null) {
+            throw aborted;
+        }
+    }
+
+    /**
+     * 与 checkpoint 相同，但不计入处理的行数；在开启事务、提交写入等非逐行的位置调用
+     */
+    public static void checkAborted() {
+        RequestInfo info = currentRequest.get();
+        if (info == null) {
+            return;
+        }
+        RequestAbortedException aborted = info.abortReason();
+        if (aborted != null) {
+            throw aborted;
+        }
+    }
+
+    /**
+     * 当前线程的请求，供其他线程（如组提交线程）代为检查请求是否已中止
+     * @return 当前线程没有请求时返回null
+     */
+    public static RequestInfo currentRequest() {
+        return currentRequest.get();
+    }
+
     // 请求信息类
     public static class RequestInfo {
         private final String requestId;
         private final String path;
         private final String method;
         private final LocalDateTime startTime;
+        private final long timeoutMs;
+        private final long deadlineNanos;
+        private final BooleanSupplier clientConnected;
+        private final long startNanos;
+        // 请求开启的事务
+        private final List<Transaction> transactions = new CopyOnWriteArrayList<>();
+        private volatile boolean cancelled = false;
+        private volatile String cancelReason = null;
+        private volatile long rowCount = 0;
+        // 请求使用的数据库（DatabaseRegistry 的键）
+        private volatile String databaseKey = null;
 
-        public RequestInfo(String requestId, String path, String method, LocalDateTime startTime) {
+        public RequestInfo(String requestId, String path, String method, LocalDateTime startTime,
+                           long timeoutMs, BooleanSupplier clientConnected) {
             this.requestId = requestId;
             this.path = path;
             this.method = method;
             this.startTime = startTime;
+            this.timeoutMs = timeoutMs;
+            // timeoutMs 为0时没有期限，deadlineNanos 不使用
+            this.startNanos = System.nanoTime();
+            this.deadlineNanos = startNanos + timeoutMs * 1_000_000;
+            this.clientConnected = clientConnected;
         }
 
         // Getters
@@ -43,5 +229,28 @@ public class RequestTracker {
         public String getPath() { return path; }
         public String getMethod() { return method; }
         public LocalDateTime getStartTime() { return startTime; }
+        public long getTimeoutMs() { return timeoutMs; }
+        public long getElapsedMs() { return (System.nanoTime() - startNanos) / 1_000_000; }
+        public long getRowCount() { return rowCount; }
+        public boolean isCancelled() { return cancelled; }
+        public String getDatabaseKey() { return databaseKey; }
+
+        /**
+         * 请求被取消、超过期限或客户端已断开时返回对应的异常，否则返回null
+         */
+        public RequestAbortedException abortReason() {
+            if (cancelled) {
+                return new RequestAbortedException(RequestAbortedException.Reason.CANCELLED, cancelReason);
+            }
+            if (timeoutMs > 0 && System.nanoTime() - deadlineNanos > 0) {
+                return new RequestAbortedException(RequestAbortedException.Reason.DEADLINE_EXCEEDED,
+                    "请求超过 " + timeoutMs + " ms 的期限，已中止");
+            }
+            if (!clientConnected.getAsBoolean()) {
+                return new RequestAbortedException(RequestAbortedException.Reason.CLIENT_DISCONNECTED,
+                    "客户端已断开连接，请求已中止");
+            }
+            return null;
+        }
     }
-} 
\ No newline at end of file
+}
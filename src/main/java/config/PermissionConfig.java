@@ -26,6 +26,7 @@ public class PermissionConfig {
         // 创建、启动、备份等数据库管理操作
         PERMISSIONS.put("POST:/db/data/database/{databaseName}/create", setOf("admin"));
         PERMISSIONS.put("POST:/db/data/database/{databaseName}/start", setOf("admin"));
+        PERMISSIONS.put("POST:/db/data/database/{databaseName}/shutdown", setOf("admin"));
         PERMISSIONS.put("POST:/db/data/database", setOf("admin")); // 关闭数据库
         PERMISSIONS.put("POST:/db/data/database/{databaseName}/backup", setOf("admin"));
         PERMISSIONS.put("POST:/db/data/database/{databaseName}/restore", setOf("admin"));
@@ -36,6 +37,11 @@ public class PermissionConfig {
         PERMISSIONS.put("GET:/db/data/database/{databaseName}/path", setOf("admin"));
         PERMISSIONS.put("GET:/db/data/database/{databaseName}/status", setOf("admin"));
         PERMISSIONS.put("GET:/databases/{dbname}/space", setOf("admin"));
+        PERMISSIONS.put("GET:/databases/{dbname}/temporal/stats", setOf("admin"));
+        PERMISSIONS.put("POST:/databases/{dbname}/temporal/compaction", setOf("admin"));
+        PERMISSIONS.put("GET:/databases/{dbname}/temporal/compaction", setOf("admin"));
+        PERMISSIONS.put("GET:/admin/temporal/retention", setOf("admin"));
+        PERMISSIONS.put("POST:/admin/temporal/retention", setOf("admin"));
         PERMISSIONS.put("GET:/db/data/databases", setOf("reader", "writer", "admin")); // 列出数据库
 
         // ========================= 读取操作权限 =========================
@@ -107,11 +113,22 @@ public class PermissionConfig {
         PERMISSIONS.put("PUT:/db/data/relationship/{id}/temporal/{key}/{startTime}/{endTime}", setOf("writer", "admin"));
         PERMISSIONS.put("DELETE:/db/data/relationship/{id}/temporal/{key}", setOf("writer", "admin"));
 
+        // 批量时态写入
+        PERMISSIONS.put("POST:/db/data/temporal/batch", setOf("writer", "admin"));
+
         // ========================= 系统管理权限 =========================
         // 系统和用户管理
         PERMISSIONS.put("GET:/system/resources", setOf("admin")); // 可选：设为公开或限制权限
         PERMISSIONS.put("GET:/system/threads", setOf("admin"));
         PERMISSIONS.put("GET:/admin/active-requests", setOf("admin"));
+        PERMISSIONS.put("DELETE:/admin/active-requests/{id}", setOf("admin"));
+        PERMISSIONS.put("GET:/admin/sessions", setOf("admin"));
+        PERMISSIONS.put("GET:/admin/ratelimit", setOf("admin"));
+        PERMISSIONS.put("GET:/admin/databases", setOf("admin"));
+        PERMISSIONS.put("GET:/admin/databases/warmup", setOf("admin"));
+        PERMISSIONS.put("GET:/admin/backups/jobs", setOf("admin"));
+        PERMISSIONS.put("GET:/admin/backups/jobs/{id}", setOf("admin"));
+        PERMISSIONS.put("DELETE:/admin/backups/jobs/{id}", setOf("admin"));
         PERMISSIONS.put("GET:/user/logs", setOf("admin"));
         PERMISSIONS.put("GET:/user/list", setOf("admin"));
         
@@ -121,4 +138,75 @@ public class PermissionConfig {
         PERMISSIONS.put("POST:/user/{username}/password", setOf("reader", "writer", "admin")); // 只能修改自己的密码
         PERMISSIONS.put("POST:/user/logout", setOf("reader", "writer", "admin")); // 所有登录用户都可登出
     }
-} 
\ No newline at end of file
+
+    // 需要遍历全库的读路由，限流时归为 SCAN 类
+    private static final Set<String> SCAN_ROUTES = setOf(
+        "GET:/db/data/nodes",
+        "GET:/db/data/nodes/paginated",
+        "GET:/db/data/relationships/paginated",
+        "GET:/db/data/propertykeys",
+        "GET:/db/data/labels",
+        "GET:/db/data/label/{labelName}/nodes",
+        "GET:/db/data/relationship/types",
+        "GET:/db/data/nodes/count",
+        "GET:/db/data/relationships/count"
+    );
+
+    // 每个角色对应的位，启动时按角色名排序依次分配
+    private static final Map<String, Integer> ROLE_BITS = new HashMap<>();
+
+    static {
+        SortedSet<String> roles = new TreeSet<>();
+        for (Set<String> allowed : PERMISSIONS.values()) {
+            roles.addAll(allowed);
+        }
+        if (roles.size() > 31) {
+            throw new IllegalStateException("权限表中的角色过多，最多支持31个");
+        }
+        int bit = 0;
+        for (String role : roles) {
+            ROLE_BITS.put(role, 1 << bit++);
+        }
+    }
+
+    /**
+     * 把角色列表转换为位掩码，权限表中未出现的角色不占位
+     */
+    public static int roleMask(Collection<String> roles) {
+        int mask = 0;
+        for (String role : roles) {
+            Integer bit = ROLE_BITS.get(role);
+            if (bit != null) {
+                mask |= bit;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 为一条路由生成预编译的权限，注册路由时调用
+     * @param method HTTP方法
+     * @param pathTemplate 路由模板
+     */
+    public static RoutePermission compile(String method, String pathTemplate) {
+        String key = method + ":" + pathTemplate;
+        Set<String> allowedRoles = PERMISSIONS.get(key);
+        RouteClass routeClass = classify(method, pathTemplate, key, allowedRoles);
+        if (allowedRoles == null) {
+            return new RoutePermission(key, 0, false, routeClass);
+        }
+        return new RoutePermission(key, roleMask(allowedRoles), true, routeClass);
+    }
+
+    // 只允许管理员访问的路由和 /admin、/system 下的路由为 ADMIN，其余写方法为 WRITE
+    private static RouteClass classify(String method, String pathTemplate, String key, Set<String> allowedRoles) {
+        if ((allowedRoles != null && allowedRoles.size() == 1 && allowedRoles.contains("admin"))
+                || pathTemplate.startsWith("/admin") || pathTemplate.startsWith("/system")) {
+            return RouteClass.ADMIN;
+        }
+        if (!"GET".equals(method)) {
+            return RouteClass.WRITE;
+        }
+        return SCAN_ROUTES.contains(key) ? RouteClass.SCAN : RouteClass.POINT;
+    }
+}
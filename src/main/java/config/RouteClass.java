@@ -0,0 +1,15 @@
+package config;
+
+/**
+ * 路由类别，用于按类别限流
+ */
+public enum RouteClass {
+    // 全库扫描类读请求，例如列出所有节点、所有属性键
+    SCAN,
+    // 按ID访问单个实体的读请求
+    POINT,
+    // 写请求
+    WRITE,
+    // 数据库管理、系统监控等管理请求
+    ADMIN
+}
@@ -0,0 +1,55 @@
+package config;
+
+import io.javalin.core.security.RouteRole;
+
+/**
+ * 预编译的路由权限
+ * 启动时由 {@link PermissionConfig} 根据权限表生成，注册路由时挂在处理器上，
+ * 请求时 accessManager 只需把用户的角色位掩码与 allowedMask 做一次按位与。
+ */
+public class RoutePermission implements RouteRole {
+
+    // 没有通过 PermissionConfig 注册的路由，任何已认证用户都可以访问
+    public static final RoutePermission UNRESTRICTED = new RoutePermission(null, 0, false, RouteClass.POINT);
+
+    private final String key;
+    private final int allowedMask;
+    private final boolean restricted;
+    private final RouteClass routeClass;
+
+    RoutePermission(String key, int allowedMask, boolean restricted, RouteClass routeClass) {
+        this.key = key;
+        this.allowedMask = allowedMask;
+        this.restricted = restricted;
+        this.routeClass = routeClass;
+    }
+
+    /**
+     * 判断拥有 roleMask 所代表角色的用户能否访问此路由
+     */
+    public boolean permits(int roleMask) {
+        return !restricted || (roleMask & allowedMask) != 0;
+    }
+
+    /**
+     * 权限表中的键，格式为 METHOD:路由模板
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public int getAllowedMask() {
+        return allowedMask;
+    }
+
+    public boolean isRestricted() {
+        return restricted;
+    }
+
+    /**
+     * 路由类别，用于限流
+     */
+    public RouteClass getRouteClass() {
+        return routeClass;
+    }
+}
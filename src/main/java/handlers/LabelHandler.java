@@ -1,5 +1,7 @@
 package handlers;
 
+import app.RequestTracker;
+import app.RequestAbortedException;
 import io.javalin.http.Context;
 import tgraph.Tgraph;
 import util.ServerConfig;
@@ -27,7 +29,7 @@ public class LabelHandler {
         String domainName = ServerConfig.getString("org.neo4j.server.domain.name", "localhost");
         String baseUrl = "http://" + domainName + ":" + ctx.port();
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Label label = Label.label(labelName);
                 List<Map<String, Object>> nodes = new ArrayList<>();
@@ -39,6 +41,7 @@ public class LabelHandler {
                 Map<String, List<String>> queryParams = ctx.queryParamMap();
                 
                 while (labeledNodes.hasNext()) {
+                    RequestTracker.checkpoint();
                     Node node = labeledNodes.next();
                     boolean includeNode = true;
                     
@@ -97,6 +100,9 @@ public class LabelHandler {
                 tx.commit();
                 ctx.status(200).json(nodes);
                 
+            } catch (RequestAbortedException | TransactionTerminatedException e) {
+                // 交给全局异常处理返回超时
+                throw e;
             } catch (Exception e) {
                 Map<String, Object> errorResponse = new HashMap<>();
                 List<Map<String, String>> errors = new ArrayList<>();
@@ -113,12 +119,12 @@ public class LabelHandler {
     // 列出所有标签
     public void getAllLabels(Context ctx) {
         // 检查数据库是否已启动
-        if (Tgraph.graphDb == null) {
+        if (!Tgraph.isRunning()) {
             ctx.status(400).json("Database is not started");
             return;
         }
 
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             Set<String> labels = new HashSet<>();
             
             // 检查是否需要只返回正在使用的标签
@@ -127,6 +133,7 @@ public class LabelHandler {
             if (onlyInUse) {
                 // 只获取正在使用的标签
                 for (Node node : tx.getAllNodes()) {
+                    RequestTracker.checkpoint();
                     for (Label label : node.getLabels()) {
                         labels.add(label.name());
                     }
@@ -149,9 +156,10 @@ public class LabelHandler {
 
     // 获取数据库中的节点总数
     public void getNodeCount(Context ctx) {
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             long count = 0;
             for (Node node : tx.getAllNodes()) {
+                RequestTracker.checkpoint();
                 count++;
             }
             ctx.status(200).json(count);
@@ -160,9 +168,10 @@ public class LabelHandler {
 
     // 获取数据库中的关系总数
     public void getRelationshipCount(Context ctx) {
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             long count = 0;
             for (Relationship relationship : tx.getAllRelationships()) {
+                RequestTracker.checkpoint();
                 count++;
             }
             ctx.status(200).json(count);
@@ -174,10 +183,11 @@ public class LabelHandler {
         String domainName = ServerConfig.getString("org.neo4j.server.domain.name", "localhost");
         String baseUrl = "http://" + domainName + ":" + ctx.port();
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             List<Map<String, Object>> nodesList = new ArrayList<>();
             
             for (Node node : tx.getAllNodes()) {
+                RequestTracker.checkpoint();
                 Map<String, Object> nodeData = new HashMap<>();
                 long nodeId = node.getId();
                 
@@ -212,6 +222,9 @@ public class LabelHandler {
             tx.commit();
             ctx.status(200).json(nodesList);
             
+        } catch (RequestAbortedException | TransactionTerminatedException e) {
+            // 交给全局异常处理返回超时
+            throw e;
         } catch (Exception e) {
             Map<String, Object> errorResponse = new HashMap<>();
             List<Map<String, String>> errors = new ArrayList<>();
@@ -267,11 +280,12 @@ public class LabelHandler {
             return;
         }
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             List<Map<String, Object>> allNodes = new ArrayList<>();
             
             // 先将所有节点收集到列表中
             for (Node node : tx.getAllNodes()) {
+                RequestTracker.checkpoint();
                 Map<String, Object> nodeData = new HashMap<>();
                 long nodeId = node.getId();
                 
@@ -319,6 +333,9 @@ public class LabelHandler {
             tx.commit();
             ctx.status(200).json(paginatedNodes);
             
+        } catch (RequestAbortedException | TransactionTerminatedException e) {
+            // 交给全局异常处理返回超时
+            throw e;
         } catch (Exception e) {
             Map<String, Object> errorResponse = new HashMap<>();
             List<Map<String, String>> errors = new ArrayList<>();
@@ -373,11 +390,12 @@ public class LabelHandler {
             return;
         }
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             List<Map<String, Object>> allRelationships = new ArrayList<>();
             
             // 收集所有关系数据
             for (Relationship rel : tx.getAllRelationships()) {
+                RequestTracker.checkpoint();
                 Map<String, Object> relData = new HashMap<>();
                 long relId = rel.getId();
                 
@@ -422,6 +440,9 @@ public class LabelHandler {
             tx.commit();
             ctx.status(200).json(paginatedRelationships);
             
+        } catch (RequestAbortedException | TransactionTerminatedException e) {
+            // 交给全局异常处理返回超时
+            throw e;
         } catch (Exception e) {
             Map<String, Object> errorResponse = new HashMap<>();
             List<Map<String, String>> errors = new ArrayList<>();
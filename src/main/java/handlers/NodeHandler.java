@@ -1,9 +1,14 @@
 package handlers;
 
+import app.RequestTracker;
+import app.RequestAbortedException;
 import io.javalin.http.Context;
 
 import org.neo4j.graphdb.temporal.TemporalRangeQuery;
 import org.neo4j.graphdb.temporal.TimePoint;
+import service.GroupCommitBatcher;
+import service.TemporalValueCache;
+import tgraph.TemporalStoreMaintenance;
 import tgraph.Tgraph;
 import util.ServerConfig;
 
@@ -20,6 +25,7 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionTerminatedException;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
@@ -49,7 +55,7 @@ public class NodeHandler {
         long nodeid = 0;
 
         // 创建节点（并设置属性）
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             Node node = tx.createNode();
             nodeid = node.getId();
             // 设置请求中的所有属性
@@ -99,7 +105,7 @@ public class NodeHandler {
     public void getNode(Context ctx) {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             // 通过nodeid属性查找节点
             try {
                 Node node = tx.getNodeById(nodeId);
@@ -161,7 +167,7 @@ public class NodeHandler {
     public void deleteNode(Context ctx) {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 
@@ -196,6 +202,8 @@ public class NodeHandler {
             }
             tx.commit();
         }
+        // 节点ID可能被复用，提交后清掉该节点的时态缓存
+        TemporalValueCache.invalidateEntity(true, nodeId);
     }
 
     // 在节点上设置单个属性
@@ -204,29 +212,27 @@ public class NodeHandler {
         String propertyKey = ctx.pathParam("key");
         JsonElement value = new Gson().fromJson(ctx.body(), JsonElement.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        // 使用通用转换方法处理属性值
+        Object propertyValue = convertJsonElementToPropertyValue(value);
+        
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
-                
-                // 使用通用转换方法处理属性值
-                Object propertyValue = convertJsonElementToPropertyValue(value);
                 if (propertyValue != null) {
                     node.setProperty(propertyKey, propertyValue);
                 }
-                
-                tx.commit();
-                ctx.status(204);
-                
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            ctx.status(204);
+            
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -235,8 +241,17 @@ public class NodeHandler {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         JsonObject properties = new Gson().fromJson(ctx.body(), JsonObject.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        // 先转换所有属性值，再进入事务
+        Map<String, Object> newProperties = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : properties.entrySet()) {
+            Object propertyValue = convertJsonElementToPropertyValue(entry.getValue());
+            if (propertyValue != null) {
+                newProperties.put(entry.getKey(), propertyValue);
+            }
+        }
+        
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
                 
                 // 移除所有现有属性
@@ -245,26 +260,21 @@ public class NodeHandler {
                 }
                 
                 // 设置新属性
-                for (Map.Entry<String, JsonElement> entry : properties.entrySet()) {
-                    Object propertyValue = convertJsonElementToPropertyValue(entry.getValue());
-                    if (propertyValue != null) {
-                        node.setProperty(entry.getKey(), propertyValue);
-                    }
+                for (Map.Entry<String, Object> entry : newProperties.entrySet()) {
+                    node.setProperty(entry.getKey(), entry.getValue());
                 }
-                
-                tx.commit();
-                ctx.status(204);
-                
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            ctx.status(204);
+            
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -272,7 +282,7 @@ public class NodeHandler {
     public void getAllProperties(Context ctx) {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 
@@ -303,7 +313,7 @@ public class NodeHandler {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         String propertyKey = ctx.pathParam("key");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 
@@ -340,28 +350,26 @@ public class NodeHandler {
     public void deleteAllProperties(Context ctx) {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
                 
                 // 移除所有属性
                 for (String key : node.getPropertyKeys()) {
                     node.removeProperty(key);
                 }
-                
-                tx.commit();
-                ctx.status(204);
-                
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            ctx.status(204);
+            
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -369,39 +377,44 @@ public class NodeHandler {
     public void deleteProperty(Context ctx) {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         String propertyKey = ctx.pathParam("key");
+        // 组提交失败时操作会被重放，每次执行前都会重新赋值
+        boolean[] found = new boolean[1];
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
                 
                 // 检查属性是否存在
-                if (node.hasProperty(propertyKey)) {
+                found[0] = node.hasProperty(propertyKey);
+                if (found[0]) {
                     node.removeProperty(propertyKey);
-                    tx.commit();
-                    ctx.status(204);
-                } else {
-                    // 如果属性不存在，返回 404
-                    Map<String, Object> errorResponse = new HashMap<>();
-                    List<Map<String, String>> errors = new ArrayList<>();
-                    Map<String, String> error = new HashMap<>();
-                    error.put("message", String.format("Property [%s] not found for Node[%d]", propertyKey, nodeId));
-                    error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                    errors.add(error);
-                    errorResponse.put("errors", errors);
-                    ctx.status(404).json(errorResponse);
                 }
-                
-            } catch (NotFoundException e) {
-                // 如果节点不存在，返回 404
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            
+            if (found[0]) {
+                ctx.status(204);
+            } else {
+                // 如果属性不存在，返回 404
                 Map<String, Object> errorResponse = new HashMap<>();
                 List<Map<String, String>> errors = new ArrayList<>();
                 Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
+                error.put("message", String.format("Property [%s] not found for Node[%d]", propertyKey, nodeId));
                 error.put("code", "Neo.ClientError.Statement.EntityNotFound");
                 errors.add(error);
                 errorResponse.put("errors", errors);
                 ctx.status(404).json(errorResponse);
             }
+            
+        } catch (NotFoundException e) {
+            // 如果节点不存在，返回 404
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -411,35 +424,35 @@ public class NodeHandler {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         JsonElement labelElement = new Gson().fromJson(ctx.body(), JsonElement.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        List<String> labelNames = new ArrayList<>();
+        if (labelElement.isJsonArray()) {
+            // 处理多个标签
+            for (JsonElement label : labelElement.getAsJsonArray()) {
+                labelNames.add(label.getAsString());
+            }
+        } else {
+            // 处理单个标签
+            labelNames.add(labelElement.getAsString());
+        }
+        
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
-                
-                if (labelElement.isJsonArray()) {
-                    // 处理多个标签
-                    JsonArray labels = labelElement.getAsJsonArray();
-                    for (JsonElement label : labels) {
-                        addLabel(node, label.getAsString());
-                    }
-                } else {
-                    // 处理单个标签
-                    String labelName = labelElement.getAsString();
+                for (String labelName : labelNames) {
                     addLabel(node, labelName);
                 }
-                
-                tx.commit();
-                ctx.status(204);
-                
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            ctx.status(204);
+            
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -448,8 +461,31 @@ public class NodeHandler {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         JsonElement labelElement = new Gson().fromJson(ctx.body(), JsonElement.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        // 确保请求体是一个数组
+        if (!labelElement.isJsonArray()) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("message", "Labels must be supplied as an array");
+            errorResponse.put("exception", "BadInputException");
+            errorResponse.put("fullname", "org.neo4j.server.rest.repr.BadInputException");
+            
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Labels must be supplied as an array");
+            error.put("code", "Neo.ClientError.Request.InvalidFormat");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            
+            ctx.status(400).json(errorResponse);
+            return;
+        }
+        
+        List<String> labelNames = new ArrayList<>();
+        for (JsonElement label : labelElement.getAsJsonArray()) {
+            labelNames.add(label.getAsString());
+        }
+        
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
                 
                 // 移除所有现有标签 （有可能没有label，要注意）
@@ -457,43 +493,22 @@ public class NodeHandler {
                     node.removeLabel(label);
                 }
                 
-                // 确保请求体是一个数组
-                if (!labelElement.isJsonArray()) {
-                    Map<String, Object> errorResponse = new HashMap<>();
-                    errorResponse.put("message", "Labels must be supplied as an array");
-                    errorResponse.put("exception", "BadInputException");
-                    errorResponse.put("fullname", "org.neo4j.server.rest.repr.BadInputException");
-                    
-                    List<Map<String, String>> errors = new ArrayList<>();
-                    Map<String, String> error = new HashMap<>();
-                    error.put("message", "Labels must be supplied as an array");
-                    error.put("code", "Neo.ClientError.Request.InvalidFormat");
-                    errors.add(error);
-                    errorResponse.put("errors", errors);
-                    
-                    ctx.status(400).json(errorResponse);
-                    return;
-                }
-                
                 // 添加新标签
-                JsonArray labels = labelElement.getAsJsonArray();
-                for (JsonElement label : labels) {
-                    addLabel(node, label.getAsString());
+                for (String labelName : labelNames) {
+                    addLabel(node, labelName);
                 }
-                
-                tx.commit();
-                ctx.status(204);
-                
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            ctx.status(204);
+            
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -502,29 +517,27 @@ public class NodeHandler {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         String labelName = ctx.pathParam("labelName");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        // 创建标签对象
+        Label label = Label.label(labelName);
+        
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
                 
-                // 创建标签对象
-                Label label = Label.label(labelName);
-                
                 // 移除标签 (无论标签是否存在)
                 node.removeLabel(label);
-                
-                tx.commit();
-                ctx.status(204);
-                
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            ctx.status(204);
+            
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -532,7 +545,7 @@ public class NodeHandler {
     public void getAllLabels(Context ctx) {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 
@@ -576,7 +589,7 @@ public class NodeHandler {
             types = dirAndTypes[1];
         }
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 int degree = 0;
@@ -637,7 +650,18 @@ public class NodeHandler {
         String key = ctx.pathParam("key");
         String timeStr = ctx.pathParam("time");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        // time=now 时先查最新值缓存
+        boolean isNow = "now".equalsIgnoreCase(timeStr);
+        if (isNow) {
+            TemporalValueCache.Hit hit = TemporalValueCache.get(true, nodeId, key);
+            if (hit != null) {
+                ctx.status(200).json(hit.getValue());
+                return;
+            }
+        }
+        long cacheStamp = TemporalValueCache.stamp();
+        
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 
@@ -651,6 +675,9 @@ public class NodeHandler {
                 }
                 
                 Object value = node.getTemporalProperty(key, time);
+                if (isNow) {
+                    TemporalValueCache.populate(true, nodeId, key, value, cacheStamp);
+                }
                 
                 tx.commit();
                 ctx.status(200).json(value);
@@ -683,45 +710,38 @@ public class NodeHandler {
         String timeStr = ctx.pathParam("time");
         JsonElement valueElement = new Gson().fromJson(ctx.body(), JsonElement.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        try {
+            TimePoint time = TemporalHandler.parseTimePoint(timeStr);
+            
+            // 转换属性值
+            Object value = convertJsonElementToPropertyValue(valueElement);
+            
+            // 开启组提交时与其它请求的写入合并到同一个事务提交
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
-                
-                TimePoint time;
-                if ("now".equalsIgnoreCase(timeStr)) {
-                    time = TimePoint.NOW;
-                } else if ("init".equalsIgnoreCase(timeStr)) {
-                    time = new TimePoint(0);
-                } else {
-                    time = new TimePoint(Long.parseLong(timeStr));
-                }
-                
-                // 转换属性值
-                Object value = convertJsonElementToPropertyValue(valueElement);
-                
                 node.setTemporalProperty(key, time, value);
-                
-                tx.commit();
-                ctx.status(204);
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            } catch (Exception e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "设置时态属性失败: " + e.getMessage());
-                error.put("code", "Neo.ClientError.Property.Invalid");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(400).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isTemporalCoalescingEnabled());
+            TemporalValueCache.invalidate(true, nodeId, key);
+            
+            ctx.status(204);
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "设置时态属性失败: " + e.getMessage());
+            error.put("code", "Neo.ClientError.Property.Invalid");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(400).json(errorResponse);
         }
     }
 
@@ -729,7 +749,7 @@ public class NodeHandler {
     public void getAllTemporalProperties(Context ctx) {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 // 获取所有时态属性
                 List<String> temporalProperties = new ArrayList<>();
@@ -763,56 +783,40 @@ public class NodeHandler {
         String endTimeStr = ctx.pathParam("endTime");
         JsonElement valueElement = new Gson().fromJson(ctx.body(), JsonElement.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        try {
+            // 解析开始时间和结束时间
+            TimePoint startTime = TemporalHandler.parseTimePoint(startTimeStr);
+            TimePoint endTime = TemporalHandler.parseTimePoint(endTimeStr);
+            
+            // 转换属性值
+            Object value = convertJsonElementToPropertyValue(valueElement);
+            
+            // 开启组提交时与其它请求的写入合并到同一个事务提交
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Node node = tx.getNodeById(nodeId);
-                
-                // 解析开始时间
-                TimePoint startTime;
-                if ("now".equalsIgnoreCase(startTimeStr)) {
-                    startTime = TimePoint.NOW;
-                } else if ("init".equalsIgnoreCase(startTimeStr)) {
-                    startTime = new TimePoint(0);
-                } else {
-                    startTime = new TimePoint(Long.parseLong(startTimeStr));
-                }
-                
-                // 解析结束时间
-                TimePoint endTime;
-                if ("now".equalsIgnoreCase(endTimeStr)) {
-                    endTime = TimePoint.NOW;
-                } else if ("init".equalsIgnoreCase(endTimeStr)) {
-                    endTime = new TimePoint(0);
-                } else {
-                    endTime = new TimePoint(Long.parseLong(endTimeStr));
-                }
-                
-                // 转换属性值
-                Object value = convertJsonElementToPropertyValue(valueElement);
-                
                 node.setTemporalProperty(key, startTime, endTime, value);
-                
-                tx.commit();
-                ctx.status(204);
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load NODE with id " + nodeId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            } catch (Exception e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "设置时态属性范围失败: " + e.getMessage());
-                error.put("code", "Neo.ClientError.Property.Invalid");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(400).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isTemporalCoalescingEnabled());
+            TemporalValueCache.invalidate(true, nodeId, key);
+            
+            ctx.status(204);
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load NODE with id " + nodeId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "设置时态属性范围失败: " + e.getMessage());
+            error.put("code", "Neo.ClientError.Property.Invalid");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(400).json(errorResponse);
         }
     }
 
@@ -823,7 +827,7 @@ public class NodeHandler {
         String startTimeStr = ctx.pathParam("startTime");
         String endTimeStr = ctx.pathParam("endTime");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 
@@ -847,6 +851,7 @@ public class NodeHandler {
                     endTime = new TimePoint(Long.parseLong(endTimeStr));
                 }
 
+                long readStart = System.nanoTime();
                 Object value = node.getTemporalProperty(key, startTime, endTime, new TemporalRangeQuery() {
                     // Implement interface methods as required
                     // This is an anonymous implementation of the interface
@@ -854,6 +859,8 @@ public class NodeHandler {
 
                     @Override
                     public boolean onNewEntry(long entityId, int propertyId, TimePointL time, Object val) {
+                        // 范围很大时回调次数很多，逐条检查请求是否应中止
+                        RequestTracker.checkpoint();
                         // Handle new entry
                         temporalData.put(time, val);
                         return true;
@@ -865,6 +872,8 @@ public class NodeHandler {
                     }
                 });
 
+                TemporalStoreMaintenance.recordRangeRead(true, System.nanoTime() - readStart, ((Map<?, ?>) value).size());
+
                 tx.commit();
                 ctx.status(200).json(value);
             } catch (NotFoundException e) {
@@ -876,6 +885,9 @@ public class NodeHandler {
                 errors.add(error);
                 errorResponse.put("errors", errors);
                 ctx.status(404).json(errorResponse);
+            } catch (RequestAbortedException | TransactionTerminatedException e) {
+                // 交给全局异常处理返回超时
+                throw e;
             } catch (Exception e) {
                 Map<String, Object> errorResponse = new HashMap<>();
                 List<Map<String, String>> errors = new ArrayList<>();
@@ -894,11 +906,12 @@ public class NodeHandler {
         long nodeId = Long.parseLong(ctx.pathParam("id"));
         String key = ctx.pathParam("key");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 node.removeTemporalProperty(key);
                 tx.commit();
+                TemporalValueCache.invalidate(true, nodeId, key);
                 ctx.status(204);
             } catch (NotFoundException e) {
                 Map<String, Object> errorResponse = new HashMap<>();
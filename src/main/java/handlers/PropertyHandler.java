@@ -1,17 +1,18 @@
 package handlers;
 
+import app.RequestTracker;
 import com.alibaba.fastjson.JSON;
 import edu.buaa.common.transaction.*;
 import edu.buaa.common.utils.PFieldList;
 import io.javalin.http.Context;
 import org.neo4j.graphdb.Entity;
-import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.temporal.TimePoint;
+import service.TemporalValueCache;
 import tgraph.Tgraph;
 
 import java.util.*;
@@ -24,11 +25,12 @@ public class PropertyHandler {
 
     // 列出所有属性键API
     public void getAllPropertyKeys(Context ctx) {
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             Set<String> propertyKeys = new HashSet<>();
             
             // 收集节点的属性键
             for (Node node : tx.getAllNodes()) {
+                RequestTracker.checkpoint();
                 for (String key : node.getPropertyKeys()) {
                     propertyKeys.add(key);
                 }
@@ -36,6 +38,7 @@ public class PropertyHandler {
             
             // 收集关系的属性键
             for (Relationship rel : tx.getAllRelationships()) {
+                RequestTracker.checkpoint();
                 for (String key : rel.getPropertyKeys()) {
                     propertyKeys.add(key);
                 }
@@ -84,11 +87,10 @@ public class PropertyHandler {
     }
 
     private void execute(ImportStaticDataTx tx) {
-        GraphDatabaseService db = Tgraph.graphDb.database("neo4j");
         PFieldList nodesData = tx.getNodes();
         Set<String> props = nodesData.keysWithout("u_sid");
         int nSize = nodesData.size();
-        try (Transaction transaction = db.beginTx()) {
+        try (Transaction transaction = Tgraph.beginTx()) {
             for (int i = 0; i < nSize; i++) {
                 Node node = transaction.createNode(LABEL);
                 String id = nodesData.get("u_sid", i).s();
@@ -102,7 +104,7 @@ public class PropertyHandler {
         PFieldList relData = tx.getRels();
         props = relData.keysWithout("u_sid", "r_from", "r_to");
         int rSize = relData.size();
-        try (Transaction transaction = db.beginTx()) {
+        try (Transaction transaction = Tgraph.beginTx()) {
             for (int i = 0; i < rSize; i++) {
                 String fromId = relData.get("r_from", i).s();
                 String toId = relData.get("r_to", i).s();
@@ -120,10 +122,12 @@ public class PropertyHandler {
     }
 
     protected void execute(ImportTemporalDataTx tx) {
-        GraphDatabaseService db = Tgraph.graphDb.database("neo4j");
-        try(Transaction transaction = db.beginTx()) {
+        // 记录写入过的实体，提交后失效它们的时态最新值缓存
+        List<Long> touched = new ArrayList<>();
+        Set<String> props;
+        try(Transaction transaction = Tgraph.beginTx()) {
             PFieldList data = tx.getData();
-            Set<String> props = data.keysWithout("u_sid", "t");
+            props = data.keysWithout("u_sid", "t");
             int tSize = data.size();
             for (int i=0; i<tSize; i++) {
                 try {
@@ -134,6 +138,7 @@ public class PropertyHandler {
                     for (String prop : props) {
                         entity.setTemporalProperty(prop, time, data.get(prop, i).getVal());
                     }
+                    touched.add(entity.getId());
                 }
                 catch (IllegalStateException e) {
                     if (!e.getMessage().contains("not found")) throw e;
@@ -141,13 +146,16 @@ public class PropertyHandler {
             }
             transaction.commit();
         }
+        invalidateTemporalCache(tx.isNode(), touched, props);
     }
 
     protected void execute(UpdateTemporalDataTx tx) {
-        GraphDatabaseService db = Tgraph.graphDb.database("neo4j");
-        try(Transaction transaction = db.beginTx()) {
+        // 记录写入过的实体，提交后失效它们的时态最新值缓存
+        List<Long> touched = new ArrayList<>();
+        Set<String> props;
+        try(Transaction transaction = Tgraph.beginTx()) {
             PFieldList data = tx.getData();
-            Set<String> props = data.keysWithout("u_sid", "t");
+            props = data.keysWithout("u_sid", "t");
             int tSize = data.size();
             for (int i=0; i<tSize; i++) {
                 try {
@@ -159,6 +167,7 @@ public class PropertyHandler {
                     for (String prop : props) {
                         entity.setTemporalProperty(prop, start, end, data.get(prop, i).getVal());
                     }
+                    touched.add(entity.getId());
                 }
                 catch (IllegalStateException e) {
                     if (!e.getMessage().contains("not found")) throw e;
@@ -166,6 +175,16 @@ public class PropertyHandler {
             }
             transaction.commit();
         }
+        invalidateTemporalCache(tx.isNode(), touched, props);
+    }
+
+    // 批量导入的时间点无法与缓存中的最新时间比较，直接失效
+    private void invalidateTemporalCache(boolean isNode, List<Long> ids, Set<String> props) {
+        for (long id : ids) {
+            for (String prop : props) {
+                TemporalValueCache.invalidate(isNode, id, prop);
+            }
+        }
     }
 
     TimePoint time(int t){
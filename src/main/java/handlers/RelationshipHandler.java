@@ -1,5 +1,7 @@
 package handlers;
 
+import app.RequestTracker;
+import app.RequestAbortedException;
 import io.javalin.http.Context;
 
 import org.act.temporalProperty.query.TimePointL;
@@ -8,6 +10,9 @@ import java.util.*;
 
 import org.neo4j.graphdb.temporal.TemporalRangeQuery;
 import org.neo4j.graphdb.temporal.TimePoint;
+import service.GroupCommitBatcher;
+import service.TemporalValueCache;
+import tgraph.TemporalStoreMaintenance;
 import tgraph.Tgraph;
 import util.ServerConfig;
 
@@ -27,7 +32,7 @@ public class RelationshipHandler {
     public void getRelationship(Context ctx) {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 
@@ -95,7 +100,7 @@ public class RelationshipHandler {
             }
         }
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 // 获取起始和结束节点
                 Node startNode = tx.getNodeById(startNodeId);
@@ -155,12 +160,14 @@ public class RelationshipHandler {
     public void deleteRelationship(Context ctx) {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 relationship.delete();
                 ctx.status(204);
                 tx.commit();
+                // 关系ID可能被复用，提交后清掉该关系的时态缓存
+                TemporalValueCache.invalidateEntity(false, relationshipId);
             } catch (NotFoundException e) {
                 Map<String, Object> errorResponse = new HashMap<>();
                 List<Map<String, String>> errors = new ArrayList<>();
@@ -178,7 +185,7 @@ public class RelationshipHandler {
     public void getProperties(Context ctx) {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 
@@ -208,7 +215,35 @@ public class RelationshipHandler {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         JsonObject properties = new Gson().fromJson(ctx.body(), JsonObject.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        // 先转换所有属性值，再进入事务
+        Map<String, Object> newProperties = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : properties.entrySet()) {
+            try {
+                Object propertyValue = convertJsonElementToPropertyValue(entry.getValue());
+                if (propertyValue != null) {
+                    newProperties.put(entry.getKey(), propertyValue);
+                }
+            } catch (IllegalArgumentException e) {
+                // 处理不支持的属性值类型
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("message", String.format("Could not set property \"%s\", %s", 
+                    entry.getKey(), e.getMessage()));
+                errorResponse.put("exception", "PropertyValueException");
+                
+                List<Map<String, String>> errors = new ArrayList<>();
+                Map<String, String> error = new HashMap<>();
+                error.put("message", String.format("Could not set property \"%s\", %s",
+                    entry.getKey(), e.getMessage()));
+                error.put("code", "Neo.ClientError.Statement.InvalidArguments");
+                errors.add(error);
+                errorResponse.put("errors", errors);
+                
+                ctx.status(400).json(errorResponse);
+                return;
+            }
+        }
+        
+        GroupCommitBatcher.write(Tgraph.database(), tx -> {
             Relationship relationship = tx.getRelationshipById(relationshipId);
             
             // 移除所有现有属性
@@ -217,35 +252,11 @@ public class RelationshipHandler {
             }
             
             // 设置新属性
-            for (Map.Entry<String, JsonElement> entry : properties.entrySet()) {
-                try {
-                    Object propertyValue = convertJsonElementToPropertyValue(entry.getValue());
-                    if (propertyValue != null) {
-                        relationship.setProperty(entry.getKey(), propertyValue);
-                    }
-                } catch (IllegalArgumentException e) {
-                    // 处理不支持的属性值类型
-                    Map<String, Object> errorResponse = new HashMap<>();
-                    errorResponse.put("message", String.format("Could not set property \"%s\", %s", 
-                        entry.getKey(), e.getMessage()));
-                    errorResponse.put("exception", "PropertyValueException");
-                    
-                    List<Map<String, String>> errors = new ArrayList<>();
-                    Map<String, String> error = new HashMap<>();
-                    error.put("message", String.format("Could not set property \"%s\", %s",
-                        entry.getKey(), e.getMessage()));
-                    error.put("code", "Neo.ClientError.Statement.InvalidArguments");
-                    errors.add(error);
-                    errorResponse.put("errors", errors);
-                    
-                    ctx.status(400).json(errorResponse);
-                    return;
-                }
+            for (Map.Entry<String, Object> entry : newProperties.entrySet()) {
+                relationship.setProperty(entry.getKey(), entry.getValue());
             }
-            
-            tx.commit();
-            ctx.status(204);
-        }
+        }, GroupCommitBatcher.isCoalescingEnabled());
+        ctx.status(204);
     }
 
     // 获取关系上的单个属性
@@ -253,7 +264,7 @@ public class RelationshipHandler {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         String propertyKey = ctx.pathParam("key");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             Relationship relationship = tx.getRelationshipById(relationshipId);
             if (relationship.hasProperty(propertyKey)) {
                 Object value = relationship.getProperty(propertyKey);
@@ -268,16 +279,15 @@ public class RelationshipHandler {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         String propertyKey = ctx.pathParam("key");
         JsonElement value = new Gson().fromJson(ctx.body(), JsonElement.class);
+        Object propertyValue = convertJsonElementToPropertyValue(value);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        GroupCommitBatcher.write(Tgraph.database(), tx -> {
             Relationship relationship = tx.getRelationshipById(relationshipId);
-            Object propertyValue = convertJsonElementToPropertyValue(value);
-                if (propertyValue != null) {
-                    relationship.setProperty(propertyKey, propertyValue);
-                }
-            tx.commit();
-            ctx.status(204);
-        }
+            if (propertyValue != null) {
+                relationship.setProperty(propertyKey, propertyValue);
+            }
+        }, GroupCommitBatcher.isCoalescingEnabled());
+        ctx.status(204);
     }
 
     // 获取所有关系（有关系和没有关系的）
@@ -286,7 +296,7 @@ public class RelationshipHandler {
         String domainName = ServerConfig.getString("org.neo4j.server.domain.name", "localhost");
         String baseUrl = "http://" + domainName + ":" + ctx.port();
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
                 Node node = tx.getNodeById(nodeId);
                 List<Map<String, Object>> relationships = new ArrayList<>();
                 
@@ -323,7 +333,7 @@ public class RelationshipHandler {
         String domainName = ServerConfig.getString("org.neo4j.server.domain.name", "localhost");
         String baseUrl = "http://" + domainName + ":" + ctx.port();
 
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 List<Map<String, Object>> relationships = new ArrayList<>();
@@ -370,7 +380,7 @@ public class RelationshipHandler {
         String domainName = ServerConfig.getString("org.neo4j.server.domain.name", "localhost");
         String baseUrl = "http://" + domainName + ":" + ctx.port();
 
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 List<Map<String, Object>> relationships = new ArrayList<>();
@@ -419,7 +429,7 @@ public class RelationshipHandler {
         String domainName = ServerConfig.getString("org.neo4j.server.domain.name", "localhost");
         String baseUrl = "http://" + domainName + ":" + ctx.port();
     
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Node node = tx.getNodeById(nodeId);
                 List<Map<String, Object>> relationships = new ArrayList<>();
@@ -470,7 +480,7 @@ public class RelationshipHandler {
 
     // 获取关系类型
     public void getRelationshipTypes(Context ctx) {
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             // 使用 GlobalGraphOperations 获取所有关系类型
             Set<String> typeSet = new HashSet<>();
             for (RelationshipType relationshipType : tx.getAllRelationshipTypes()) {
@@ -490,28 +500,26 @@ public class RelationshipHandler {
     public void deleteAllProperties(Context ctx) {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 
                 // 移除所有属性
                 for (String key : relationship.getPropertyKeys()) {
                     relationship.removeProperty(key);
                 }
-                
-                tx.commit();
-                ctx.status(204);
-                
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load RELATIONSHIP with id " + relationshipId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            ctx.status(204);
+            
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load RELATIONSHIP with id " + relationshipId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -519,54 +527,59 @@ public class RelationshipHandler {
     public void deleteProperty(Context ctx) {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         String propertyKey = ctx.pathParam("key");
+        // 组提交失败时操作会被重放，每次执行前都会重新赋值
+        boolean[] found = new boolean[1];
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        try {
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 
                 // 检查属性是否存在
-                if (relationship.hasProperty(propertyKey)) {
+                found[0] = relationship.hasProperty(propertyKey);
+                if (found[0]) {
                     relationship.removeProperty(propertyKey);
-                    tx.commit();
-                    ctx.status(204);
-                } else {
-                    // 如果属性不存在，返回404并提供详细错误信息
-                    Map<String, Object> errorResponse = new HashMap<>();
-                    errorResponse.put("message", String.format("Relationship[%d] does not have a property \"%s\"",
-                        relationshipId, propertyKey));
-                    errorResponse.put("exception", "NoSuchPropertyException");
-                    errorResponse.put("fullname", "org.neo4j.server.rest.web.NoSuchPropertyException");
-                    
-                    // 添加堆栈跟踪
-                    List<String> stackTrace = new ArrayList<>();
-                    for (StackTraceElement element : Thread.currentThread().getStackTrace()) {
-                        stackTrace.add(element.toString());
-                    }
-                    errorResponse.put("stackTrace", stackTrace);
-                    
-                    // 添加错误详情
-                    List<Map<String, String>> errors = new ArrayList<>();
-                    Map<String, String> error = new HashMap<>();
-                    error.put("message", String.format("Relationship[%d] does not have a property \"%s\"",
-                        relationshipId, propertyKey));
-                    error.put("code", "Neo.ClientError.Statement.NoSuchProperty");
-                    errors.add(error);
-                    errorResponse.put("errors", errors);
-                    
-                    ctx.status(404).json(errorResponse);
                 }
-                
-            } catch (NotFoundException e) {
-                // 如果关系不存在，返回404
+            }, GroupCommitBatcher.isCoalescingEnabled());
+            
+            if (found[0]) {
+                ctx.status(204);
+            } else {
+                // 如果属性不存在，返回404并提供详细错误信息
                 Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("message", String.format("Relationship[%d] does not have a property \"%s\"",
+                    relationshipId, propertyKey));
+                errorResponse.put("exception", "NoSuchPropertyException");
+                errorResponse.put("fullname", "org.neo4j.server.rest.web.NoSuchPropertyException");
+                
+                // 添加堆栈跟踪
+                List<String> stackTrace = new ArrayList<>();
+                for (StackTraceElement element : Thread.currentThread().getStackTrace()) {
+                    stackTrace.add(element.toString());
+                }
+                errorResponse.put("stackTrace", stackTrace);
+                
+                // 添加错误详情
                 List<Map<String, String>> errors = new ArrayList<>();
                 Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load RELATIONSHIP with id " + relationshipId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+                error.put("message", String.format("Relationship[%d] does not have a property \"%s\"",
+                    relationshipId, propertyKey));
+                error.put("code", "Neo.ClientError.Statement.NoSuchProperty");
                 errors.add(error);
                 errorResponse.put("errors", errors);
+                
                 ctx.status(404).json(errorResponse);
             }
+            
+        } catch (NotFoundException e) {
+            // 如果关系不存在，返回404
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load RELATIONSHIP with id " + relationshipId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
         }
     }
 
@@ -576,7 +589,18 @@ public class RelationshipHandler {
         String key = ctx.pathParam("key");
         String timeStr = ctx.pathParam("time");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        // time=now 时先查最新值缓存
+        boolean isNow = "now".equalsIgnoreCase(timeStr);
+        if (isNow) {
+            TemporalValueCache.Hit hit = TemporalValueCache.get(false, relationshipId, key);
+            if (hit != null) {
+                ctx.status(200).json(hit.getValue());
+                return;
+            }
+        }
+        long cacheStamp = TemporalValueCache.stamp();
+        
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 
@@ -590,6 +614,9 @@ public class RelationshipHandler {
                 }
                 
                 Object value = relationship.getTemporalProperty(key, time);
+                if (isNow) {
+                    TemporalValueCache.populate(false, relationshipId, key, value, cacheStamp);
+                }
                 
                 tx.commit();
                 ctx.status(200).json(value);
@@ -622,45 +649,38 @@ public class RelationshipHandler {
         String timeStr = ctx.pathParam("time");
         JsonElement valueElement = new Gson().fromJson(ctx.body(), JsonElement.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        try {
+            TimePoint time = TemporalHandler.parseTimePoint(timeStr);
+            
+            // 转换属性值
+            Object value = convertJsonElementToPropertyValue(valueElement);
+            
+            // 开启组提交时与其它请求的写入合并到同一个事务提交
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
-                
-                TimePoint time;
-                if ("now".equalsIgnoreCase(timeStr)) {
-                    time = TimePoint.NOW;
-                } else if ("init".equalsIgnoreCase(timeStr)) {
-                    time = new TimePoint(0);
-                } else {
-                    time = new TimePoint(Long.parseLong(timeStr));
-                }
-                
-                // 转换属性值
-                Object value = convertJsonElementToPropertyValue(valueElement);
-                
                 relationship.setTemporalProperty(key, time, value);
-                
-                tx.commit();
-                ctx.status(204);
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load RELATIONSHIP with id " + relationshipId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            } catch (Exception e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "设置时态属性失败: " + e.getMessage());
-                error.put("code", "Neo.ClientError.Property.Invalid");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(400).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isTemporalCoalescingEnabled());
+            TemporalValueCache.invalidate(false, relationshipId, key);
+            
+            ctx.status(204);
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load RELATIONSHIP with id " + relationshipId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "设置时态属性失败: " + e.getMessage());
+            error.put("code", "Neo.ClientError.Property.Invalid");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(400).json(errorResponse);
         }
     }
 
@@ -668,7 +688,7 @@ public class RelationshipHandler {
     public void getAllTemporalProperties(Context ctx) {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 List<String> temporalProperties = new ArrayList<>();
@@ -701,56 +721,40 @@ public class RelationshipHandler {
         String endTimeStr = ctx.pathParam("endTime");
         JsonElement valueElement = new Gson().fromJson(ctx.body(), JsonElement.class);
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
-            try {
+        try {
+            // 解析开始时间和结束时间
+            TimePoint startTime = TemporalHandler.parseTimePoint(startTimeStr);
+            TimePoint endTime = TemporalHandler.parseTimePoint(endTimeStr);
+            
+            // 转换属性值
+            Object value = convertJsonElementToPropertyValue(valueElement);
+            
+            // 开启组提交时与其它请求的写入合并到同一个事务提交
+            GroupCommitBatcher.write(Tgraph.database(), tx -> {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
-                
-                // 解析开始时间
-                TimePoint startTime;
-                if ("now".equalsIgnoreCase(startTimeStr)) {
-                    startTime = TimePoint.NOW;
-                } else if ("init".equalsIgnoreCase(startTimeStr)) {
-                    startTime = new TimePoint(0);
-                } else {
-                    startTime = new TimePoint(Long.parseLong(startTimeStr));
-                }
-                
-                // 解析结束时间
-                TimePoint endTime;
-                if ("now".equalsIgnoreCase(endTimeStr)) {
-                    endTime = TimePoint.NOW;
-                } else if ("init".equalsIgnoreCase(endTimeStr)) {
-                    endTime = new TimePoint(0);
-                } else {
-                    endTime = new TimePoint(Long.parseLong(endTimeStr));
-                }
-                
-                // 转换属性值
-                Object value = convertJsonElementToPropertyValue(valueElement);
-                
                 relationship.setTemporalProperty(key, startTime, endTime, value);
-                
-                tx.commit();
-                ctx.status(204);
-            } catch (NotFoundException e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "Unable to load RELATIONSHIP with id " + relationshipId + ".");
-                error.put("code", "Neo.ClientError.Statement.EntityNotFound");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(404).json(errorResponse);
-            } catch (Exception e) {
-                Map<String, Object> errorResponse = new HashMap<>();
-                List<Map<String, String>> errors = new ArrayList<>();
-                Map<String, String> error = new HashMap<>();
-                error.put("message", "设置时态属性范围失败: " + e.getMessage());
-                error.put("code", "Neo.ClientError.Property.Invalid");
-                errors.add(error);
-                errorResponse.put("errors", errors);
-                ctx.status(400).json(errorResponse);
-            }
+            }, GroupCommitBatcher.isTemporalCoalescingEnabled());
+            TemporalValueCache.invalidate(false, relationshipId, key);
+            
+            ctx.status(204);
+        } catch (NotFoundException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "Unable to load RELATIONSHIP with id " + relationshipId + ".");
+            error.put("code", "Neo.ClientError.Statement.EntityNotFound");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(404).json(errorResponse);
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            List<Map<String, String>> errors = new ArrayList<>();
+            Map<String, String> error = new HashMap<>();
+            error.put("message", "设置时态属性范围失败: " + e.getMessage());
+            error.put("code", "Neo.ClientError.Property.Invalid");
+            errors.add(error);
+            errorResponse.put("errors", errors);
+            ctx.status(400).json(errorResponse);
         }
     }
 
@@ -761,7 +765,7 @@ public class RelationshipHandler {
         String startTimeStr = ctx.pathParam("startTime");
         String endTimeStr = ctx.pathParam("endTime");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 
@@ -785,6 +789,7 @@ public class RelationshipHandler {
                     endTime = new TimePoint(Long.parseLong(endTimeStr));
                 }
                 
+                long readStart = System.nanoTime();
                 Object value = relationship.getTemporalProperty(key, startTime, endTime, new TemporalRangeQuery(){
                     // Implement interface methods as required
                     // This is an anonymous implementation of the interface
@@ -793,6 +798,8 @@ public class RelationshipHandler {
 
                     @Override
                     public boolean onNewEntry(long entityId, int propertyId, TimePointL time, Object val) {
+                        // 范围很大时回调次数很多，逐条检查请求是否应中止
+                        RequestTracker.checkpoint();
                         // 存储时间点和值
                         timePoints.add(time);
                         temporalData.put(time.toString(), val);
@@ -814,6 +821,8 @@ public class RelationshipHandler {
                     }
                 });
                 
+                TemporalStoreMaintenance.recordRangeRead(false, System.nanoTime() - readStart, ((Map<?, ?>) value).size());
+
                 tx.commit();
                 ctx.status(200).json(value);
             } catch (NotFoundException e) {
@@ -825,6 +834,9 @@ public class RelationshipHandler {
                 errors.add(error);
                 errorResponse.put("errors", errors);
                 ctx.status(404).json(errorResponse);
+            } catch (RequestAbortedException | TransactionTerminatedException e) {
+                // 交给全局异常处理返回超时
+                throw e;
             } catch (Exception e) {
                 Map<String, Object> errorResponse = new HashMap<>();
                 List<Map<String, String>> errors = new ArrayList<>();
@@ -843,7 +855,7 @@ public class RelationshipHandler {
         long relationshipId = Long.parseLong(ctx.pathParam("id"));
         String key = ctx.pathParam("key");
         
-        try (Transaction tx = Tgraph.graphDb.database("neo4j").beginTx()) {
+        try (Transaction tx = Tgraph.beginTx()) {
             try {
                 Relationship relationship = tx.getRelationshipById(relationshipId);
                 
@@ -851,6 +863,7 @@ public class RelationshipHandler {
                 relationship.removeProperty(key); // 确保同时删除普通属性
                 
                 tx.commit();
+                TemporalValueCache.invalidate(false, relationshipId, key);
                 ctx.status(204);
             } catch (NotFoundException e) {
                 Map<String, Object> errorResponse = new HashMap<>();
@@ -911,7 +924,7 @@ public class RelationshipHandler {
      * - 布尔值
      * - 以上类型的数组
      */
-    private static Object convertJsonElementToPropertyValue(JsonElement element) {
+    static Object convertJsonElementToPropertyValue(JsonElement element) {
         // 检查 null 值
         if (element == null || element.isJsonNull()) {
             throw new IllegalArgumentException("Property values cannot be null");
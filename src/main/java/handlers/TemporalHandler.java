@@ -0,0 +1,279 @@
+package handlers;
+
+import io.javalin.http.Context;
+
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.temporal.TimePoint;
+import service.GroupCommitBatcher;
+import service.TemporalValueCache;
+import service.User;
+import tgraph.TemporalRetention;
+import tgraph.TemporalStoreMaintenance;
+import tgraph.Tgraph;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+public class TemporalHandler {
+
+    public TemporalHandler() {
+    }
+
+    // 批量写入时态属性API
+    // 请求体为数组，每个元素形如：
+    // {"entity": "node", "id": 1, "key": "temp_speed", "time": "100", "value": 3}
+    // {"entity": "relationship", "id": 2, "key": "temp_flow", "start": "100", "end": "200", "value": 5}
+    // 时间取值与单值接口一致，支持 now / init / 数字
+    public void bulkSetTemporalProperties(Context ctx) {
+        JsonArray entries;
+        try {
+            entries = new Gson().fromJson(ctx.body(), JsonArray.class);
+        } catch (Exception e) {
+            entries = null;
+        }
+        if (entries == null) {
+            ctx.status(400).json(createErrorResponse("请求体必须是时态写入条目组成的数组", "Neo.ClientError.Request.InvalidFormat"));
+            return;
+        }
+
+        // 先在请求线程中完成解析和校验，避免无效数据进入共享事务
+        List<TemporalWrite> writes = new ArrayList<>(entries.size());
+        List<Map<String, Object>> errors = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                writes.add(parseEntry(i, entries.get(i)));
+            } catch (Exception e) {
+                errors.add(createEntryError(i, "无效的时态写入条目: " + e.getMessage(), "Neo.ClientError.Request.InvalidFormat"));
+            }
+        }
+
+        // 按组提交的批大小切分，每块作为一个写操作进入组提交队列
+        GraphDatabaseService db = Tgraph.database();
+        int chunkSize = GroupCommitBatcher.getMaxBatchSize();
+        List<BulkChunk> chunks = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < writes.size(); from += chunkSize) {
+            BulkChunk chunk = new BulkChunk(writes.subList(from, Math.min(from + chunkSize, writes.size())));
+            chunks.add(chunk);
+            futures.add(GroupCommitBatcher.submit(db, chunk, chunk.writes.size()));
+        }
+
+        int written = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            BulkChunk chunk = chunks.get(i);
+            try {
+                GroupCommitBatcher.await(futures.get(i));
+                written += chunk.applied.size();
+                errors.addAll(chunk.errors);
+                // 提交成功后再失效最新值缓存
+                for (TemporalWrite write : chunk.applied) {
+                    TemporalValueCache.invalidate(write.isNode, write.id, write.key);
+                }
+            } catch (Exception e) {
+                // 整块提交失败，块内所有条目都未写入
+                for (TemporalWrite write : chunk.writes) {
+                    errors.add(createEntryError(write.index, "写入时态属性失败: " + e.getMessage(), "Neo.ClientError.Property.Invalid"));
+                }
+            }
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("written", written);
+        response.put("failed", errors.size());
+        response.put("errors", errors);
+        ctx.status(200).json(response);
+    }
+
+    // 在后台触发时态存储合并API，只能合并当前运行的数据库
+    public void startCompaction(Context ctx) {
+        File dbDir = getUserDbDir(ctx);
+        if (dbDir == null) {
+            ctx.status(401).json(createErrorResponse("未授权或会话已过期", "Neo.ClientError.Security.Unauthorized"));
+            return;
+        }
+        String reason = TemporalStoreMaintenance.startCompaction(dbDir.getPath());
+        if (reason != null) {
+            ctx.status(409).json(createErrorResponse(reason, "Neo.ClientError.General.DatabaseError"));
+            return;
+        }
+        ctx.status(202).json(TemporalStoreMaintenance.getCompactionStatus());
+    }
+
+    // 查询时态存储合并状态API
+    public void getCompactionStatus(Context ctx) {
+        ctx.status(200).json(TemporalStoreMaintenance.getCompactionStatus());
+    }
+
+    // 时态存储统计API：各层文件数和大小，以及读放大情况
+    public void getStoreStats(Context ctx) {
+        File dbDir = getUserDbDir(ctx);
+        if (dbDir == null) {
+            ctx.status(401).json(createErrorResponse("未授权或会话已过期", "Neo.ClientError.Security.Unauthorized"));
+            return;
+        }
+        if (!dbDir.exists()) {
+            ctx.status(404).json(createErrorResponse("数据库 '" + ctx.pathParam("dbname") + "' 不存在", "Neo.ClientError.General.DatabaseNotFound"));
+            return;
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("db_path", dbDir.getPath());
+        response.put("levels", TemporalStoreMaintenance.getLevelStats(dbDir));
+        response.put("read_amplification", TemporalStoreMaintenance.getReadAmplificationStats(dbDir));
+        ctx.status(200).json(response);
+    }
+
+    // 查询时态保留策略和最近一次执行情况API
+    public void getRetentionStatus(Context ctx) {
+        ctx.status(200).json(TemporalRetention.getStatus());
+    }
+
+    // 立即在后台执行一轮时态保留任务API
+    public void runRetention(Context ctx) {
+        String reason = TemporalRetention.trigger();
+        if (reason != null) {
+            ctx.status(409).json(createErrorResponse(reason, "Neo.ClientError.General.DatabaseError"));
+            return;
+        }
+        ctx.status(202);
+    }
+
+    // 根据当前用户和路径中的数据库名得到数据库目录，未登录时返回null
+    private static File getUserDbDir(Context ctx) {
+        Object userObj = ctx.attribute("user");
+        if (!(userObj instanceof User)) {
+            return null;
+        }
+        return Tgraph.getDbDir(((User) userObj).getUsername(), ctx.pathParam("dbname"));
+    }
+
+    // 解析单个写入条目
+    private static TemporalWrite parseEntry(int index, JsonElement element) {
+        JsonObject entry = element.getAsJsonObject();
+        String entity = entry.has("entity") ? entry.get("entity").getAsString() : "node";
+        boolean isNode;
+        if ("node".equalsIgnoreCase(entity)) {
+            isNode = true;
+        } else if ("relationship".equalsIgnoreCase(entity)) {
+            isNode = false;
+        } else {
+            throw new IllegalArgumentException("entity 只能是 node 或 relationship");
+        }
+        if (!entry.has("id") || !entry.has("key")) {
+            throw new IllegalArgumentException("缺少 id 或 key");
+        }
+        long id = entry.get("id").getAsLong();
+        String key = entry.get("key").getAsString();
+        Object value = RelationshipHandler.convertJsonElementToPropertyValue(entry.get("value"));
+        if (entry.has("time")) {
+            String time = entry.get("time").getAsString();
+            return new TemporalWrite(index, isNode, id, key, time, null, value);
+        }
+        if (entry.has("start") && entry.has("end")) {
+            String start = entry.get("start").getAsString();
+            String end = entry.get("end").getAsString();
+            return new TemporalWrite(index, isNode, id, key, start, end, value);
+        }
+        throw new IllegalArgumentException("需要提供 time，或同时提供 start 和 end");
+    }
+
+    // 解析时间参数，now 表示当前时间，init 表示 0
+    static TimePoint parseTimePoint(String timeStr) {
+        if ("now".equalsIgnoreCase(timeStr)) {
+            return TimePoint.NOW;
+        } else if ("init".equalsIgnoreCase(timeStr)) {
+            return new TimePoint(0);
+        } else {
+            return new TimePoint(Long.parseLong(timeStr));
+        }
+    }
+
+
+    // 辅助方法：创建单个条目的错误信息
+    private static Map<String, Object> createEntryError(int index, String message, String code) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("index", index);
+        error.put("message", message);
+        error.put("code", code);
+        return error;
+    }
+
+    // 辅助方法：创建错误响应
+    private Map<String, Object> createErrorResponse(String message, String code) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        List<Map<String, String>> errors = new ArrayList<>();
+        Map<String, String> error = new HashMap<>();
+        error.put("message", message);
+        error.put("code", code);
+        errors.add(error);
+        errorResponse.put("errors", errors);
+        return errorResponse;
+    }
+
+    // 一条已解析的时态写入，end 为 null 时表示单时间点写入
+    private static class TemporalWrite {
+        final int index;
+        final boolean isNode;
+        final long id;
+        final String key;
+        final TimePoint start;
+        final TimePoint end;
+        final Object value;
+
+        TemporalWrite(int index, boolean isNode, long id, String key, String start, String end, Object value) {
+            this.index = index;
+            this.isNode = isNode;
+            this.id = id;
+            this.key = key;
+            this.start = parseTimePoint(start);
+            this.end = end == null ? null : parseTimePoint(end);
+            this.value = value;
+        }
+    }
+
+    // 一块批量写入，实体不存在的条目单独记录错误，不影响同块其它条目
+    private static class BulkChunk implements GroupCommitBatcher.WriteOperation {
+        final List<TemporalWrite> writes;
+        final List<TemporalWrite> applied = new ArrayList<>();
+        final List<Map<String, Object>> errors = new ArrayList<>();
+
+        BulkChunk(List<TemporalWrite> writes) {
+            this.writes = writes;
+        }
+
+        @Override
+        public void apply(Transaction tx) {
+            // 共享事务失败后会逐个重放，重放前清掉上一次记录的错误
+            applied.clear();
+            errors.clear();
+            for (TemporalWrite write : writes) {
+                Entity entity;
+                try {
+                    entity = write.isNode ? tx.getNodeById(write.id) : tx.getRelationshipById(write.id);
+                } catch (NotFoundException e) {
+                    errors.add(createEntryError(write.index,
+                        "Unable to load " + (write.isNode ? "NODE" : "RELATIONSHIP") + " with id " + write.id + ".",
+                        "Neo.ClientError.Statement.EntityNotFound"));
+                    continue;
+                }
+                if (write.end == null) {
+                    entity.setTemporalProperty(write.key, write.start, write.value);
+                } else {
+                    entity.setTemporalProperty(write.key, write.start, write.end, write.value);
+                }
+                applied.add(write);
+            }
+        }
+    }
+}
@@ -9,23 +9,29 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
 import org.neo4j.graphdb.GraphDatabaseService;
 
 import io.javalin.http.Context;
+import tgraph.BackupProgress;
+import tgraph.DatabaseRegistry;
 import tgraph.Tgraph;
 import service.User;
 
 public class TgraphHandler {
     // 声明并初始化 databasePaths，现在键为 "username:databaseName"
-    private static final Map<String, String> databasePaths = new HashMap<>();
+    // 懒加载时也在请求线程中读取，恢复任务在后台线程中写入
+    private static final Map<String, String> databasePaths = new ConcurrentHashMap<>();
     private static final String PATHS_FILE = "config/database-paths.properties";
     
     // 静态初始化块，加载数据库路径
     static {
         loadDatabasePaths();
+        // 只有登记过的数据库才会被懒加载打开
+        DatabaseRegistry.setKnownDatabases((username, databaseName) -> databasePaths.containsKey(username + ":" + databaseName));
     }
     
     public TgraphHandler() {
@@ -93,9 +99,13 @@ public class TgraphHandler {
             ctx.status(401).json(createErrorResponse("未授权或会话已过期", "Neo.ClientError.Security.Unauthorized"));
             return;
         }
+        if (!Tgraph.isValidDbName(databaseName)) {
+            ctx.status(400).json(createErrorResponse("数据库名只能包含字母、数字、下划线和连字符", "Neo.ClientError.General.InvalidArguments"));
+            return;
+        }
         
         try {
-            Tgraph.graphDb = Tgraph.createDb(username, databaseName);
+            Tgraph.createDb(username, databaseName);
             
             // 记录数据库路径并持久化
             String pathKey = createPathKey(username, databaseName);
@@ -111,6 +121,7 @@ public class TgraphHandler {
     }
 
     // 启动数据库 - 确保也记录路径
+    // 多个数据库可以同时运行，/db/{database}/data/... 访问指定数据库，/db/data/... 访问第一个启动的数据库
     public void startDatabase(Context ctx) {
         String databaseName = ctx.pathParam("databaseName");
         String username = getCurrentUsername(ctx);
@@ -119,13 +130,17 @@ public class TgraphHandler {
             return;
         }
         
-        if (Tgraph.graphDb != null) {
-            ctx.status(409).json(createErrorResponse("已有数据库在运行，请先关闭当前数据库", "Neo.ClientError.General.DatabaseError"));
+        if (!Tgraph.isValidDbName(databaseName)) {
+            ctx.status(400).json(createErrorResponse("数据库名只能包含字母、数字、下划线和连字符", "Neo.ClientError.General.InvalidArguments"));
+            return;
+        }
+        if (!Tgraph.getDbDir(username, databaseName).exists()) {
+            ctx.status(404).json(createErrorResponse("数据库 '" + databaseName + "' 不存在", "Neo.ClientError.General.DatabaseNotFound"));
             return;
         }
         
         try {
-            Tgraph.graphDb = Tgraph.startDb(username, databaseName);
+            Tgraph.startDb(username, databaseName);
             
             // 如果数据库路径尚未记录，则记录并持久化
             String pathKey = createPathKey(username, databaseName);
@@ -175,18 +190,32 @@ public class TgraphHandler {
         return errorResponse;
     }
     
-    // 关闭数据库
+    // 关闭默认数据库
     public void shutdownDatabase(Context ctx) {
-        if (Tgraph.graphDb != null) {
-            Tgraph.shutDown();
-            Tgraph.graphDb = null;
+        if (Tgraph.shutDown()) {
             ctx.status(200);
         } else {
             ctx.status(404).json(createErrorResponse("没有正在运行的数据库", "Neo.ClientError.General.DatabaseNotFound"));
         }
     }
+
+    // 关闭指定数据库
+    public void shutdownNamedDatabase(Context ctx) {
+        String databaseName = ctx.pathParam("databaseName");
+        String username = getCurrentUsername(ctx);
+        if (username == null) {
+            ctx.status(401).json(createErrorResponse("未授权或会话已过期", "Neo.ClientError.Security.Unauthorized"));
+            return;
+        }
+        
+        if (Tgraph.shutDown(username, databaseName)) {
+            ctx.status(200);
+        } else {
+            ctx.status(404).json(createErrorResponse("数据库 '" + databaseName + "' 没有在运行", "Neo.ClientError.General.DatabaseNotFound"));
+        }
+    }
     
-    // 备份数据库API
+    // 备份数据库API：提交后台任务，返回任务编号，进度通过 /admin/backups/jobs/{id} 查询
     public void backupDatabase(Context ctx) {
         String databaseName = ctx.pathParam("databaseName");
         String username = getCurrentUsername(ctx);
@@ -196,20 +225,21 @@ public class TgraphHandler {
         }
         
         try {
-            Tgraph.backupDatabase(username, databaseName);
-            Map<String, String> response = new HashMap<>();
-            response.put("message", "数据库备份成功");
-            ctx.status(200).json(response);
+            boolean incremental = "true".equalsIgnoreCase(ctx.queryParam("incremental"));
+            BackupProgress.Operation operation = Tgraph.backupDatabase(username, databaseName, incremental);
+            Map<String, Object> response = new HashMap<>();
+            response.put("message", "数据库备份任务已提交");
+            response.put("job_id", operation.getId());
+            response.put("state", operation.getState());
+            ctx.status(202).json(response);
         } catch (IllegalArgumentException e) {
             ctx.status(404).json(createErrorResponse(e.getMessage(), "Neo.ClientError.General.DatabaseNotFound"));
         } catch (IllegalStateException e) {
             ctx.status(409).json(createErrorResponse(e.getMessage(), "Neo.ClientError.General.DatabaseError"));
-        } catch (IOException e) {
-            ctx.status(500).json(createErrorResponse("备份数据库失败: " + e.getMessage(), "Neo.DatabaseError.General.UnknownError"));
         }
     }
     
-    // 恢复数据库API
+    // 恢复数据库API：提交后台任务，恢复成功后更新路径记录
     public void restoreDatabase(Context ctx) {
         String backupFileName = ctx.pathParam("databaseName");
         String username = getCurrentUsername(ctx);
@@ -219,31 +249,24 @@ public class TgraphHandler {
         }
         
         try {
-            Tgraph.restoreDatabase(username, backupFileName);
-            
-            // 从备份文件名中解析数据库名
-            String fileNameWithoutExt = backupFileName.substring(0, backupFileName.lastIndexOf('.'));
-            String[] parts = fileNameWithoutExt.split("_");
-            String dbName = parts[1];
-            for (int i = 2; i < parts.length - 2; i++) {
-                dbName += "_" + parts[i];
-            }
-            
-            // 更新路径记录
-            String pathKey = createPathKey(username, dbName);
-            String dbPath = Tgraph.TARGET_DIR + File.separator + username + File.separator + dbName;
-            databasePaths.put(pathKey, dbPath);
-            saveDatabasePaths();
+            BackupProgress.Operation operation = Tgraph.restoreDatabase(username, backupFileName, () -> {
+                // 更新路径记录
+                String dbName = Tgraph.databaseNameOfBackup(username, backupFileName);
+                String pathKey = createPathKey(username, dbName);
+                String dbPath = Tgraph.TARGET_DIR + File.separator + username + File.separator + dbName;
+                databasePaths.put(pathKey, dbPath);
+                saveDatabasePaths();
+            });
             
-            Map<String, String> response = new HashMap<>();
-            response.put("message", "数据库恢复成功");
-            ctx.status(200).json(response);
+            Map<String, Object> response = new HashMap<>();
+            response.put("message", "数据库恢复任务已提交");
+            response.put("job_id", operation.getId());
+            response.put("state", operation.getState());
+            ctx.status(202).json(response);
         } catch (IllegalArgumentException e) {
             ctx.status(400).json(createErrorResponse(e.getMessage(), "Neo.ClientError.General.InvalidArguments"));
         } catch (IllegalStateException e) {
             ctx.status(409).json(createErrorResponse(e.getMessage(), "Neo.ClientError.General.DatabaseError"));
-        } catch (IOException e) {
-            ctx.status(500).json(createErrorResponse("恢复数据库失败: " + e.getMessage(), "Neo.DatabaseError.General.UnknownError"));
         }
     }
     
@@ -281,6 +304,13 @@ public class TgraphHandler {
         String dbDir = Tgraph.TARGET_DIR + File.separator + username + File.separator + databaseName;
         Map<String, Object> response = new HashMap<>();
         
+        // 本进程已打开的数据库直接返回运行状态
+        if (DatabaseRegistry.get(username, databaseName) != null) {
+            response.put("status", "running");
+            ctx.status(200).json(response);
+            return;
+        }
+        
         try {
             // 尝试打开数据库
             DatabaseManagementService graphDb = new DatabaseManagementServiceBuilder(new File(dbDir).toPath()).build();
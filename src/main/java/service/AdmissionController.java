@@ -0,0 +1,181 @@
+package service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import config.RouteClass;
+
+/**
+ * 自适应并发限制（准入控制）
+ * 线程池满载时请求会在 Jetty 队列中无限排队，最终全部超时。这里在处理器之前限制同时执行的请求数，
+ * 超出部分立即返回 503，让已接收的请求能在正常时间内完成。
+ *
+ * 并发上限按观测到的延迟用梯度算法调整：短期平均延迟接近长期基线时逐步放大上限，
+ * 延迟明显升高（说明在排队或争抢资源）时按比例收缩。只用点查和写请求的延迟调整上限，
+ * 全库扫描的耗时本身差别很大，不作为拥塞信号。
+ *
+ * 优先级：扫描请求只能使用上限的一部分，Jetty 队列中已有积压时直接拒绝扫描；
+ * 管理请求不受限制，保证过载时仍能查看状态和取消请求。
+ */
+public class AdmissionController {
+
+    // 长期基线的平滑窗口（样本数）
+    private static final double LONG_WINDOW = 600;
+    // 每个短期窗口的样本数
+    private static final int SHORT_WINDOW = 20;
+    // 延迟容忍度：短期延迟不超过基线的该倍数时不收缩
+    private static final double TOLERANCE = 1.5;
+    // 新上限的平滑系数
+    private static final double SMOOTHING = 0.2;
+
+    private static volatile boolean enabled = false;
+    private static int minLimit = 8;
+    private static int maxLimit = 200;
+    private static int scanPercent = 50;
+    private static volatile IntSupplier queueDepth = () -> 0;
+
+    // 以下状态由 synchronized 方法保护
+    private static double limit = 50;
+    private static int inFlight = 0;
+    private static int scanInFlight = 0;
+    private static double longRttNanos = 0;
+    private static long windowTotalNanos = 0;
+    private static int windowSamples = 0;
+
+    private static final AtomicLong admittedCount = new AtomicLong();
+    private static final AtomicLong rejectedCount = new AtomicLong();
+    private static final AtomicLong rejectedScanCount = new AtomicLong();
+
+    private AdmissionController() {
+    }
+
+    /**
+     * 初始化并发限制
+     * @param enable 是否启用
+     * @param initial 初始并发上限
+     * @param min 上限的下界
+     * @param max 上限的上界，应小于 Jetty 最大线程数
+     * @param scanLimitPercent 扫描请求可使用的上限比例（百分比）
+     */
+    public static synchronized void init(boolean enable, int initial, int min, int max, int scanLimitPercent) {
+        enabled = enable;
+        minLimit = Math.max(1, min);
+        maxLimit = Math.max(minLimit, max);
+        limit = Math.max(minLimit, Math.min(maxLimit, initial));
+        scanPercent = Math.max(1, Math.min(100, scanLimitPercent));
+        longRttNanos = 0;
+        windowTotalNanos = 0;
+        windowSamples = 0;
+    }
+
+    /**
+     * 设置 Jetty 线程池队列长度的来源
+     */
+    public static void setQueueDepthSource(IntSupplier source) {
+        queueDepth = source;
+    }
+
+    /**
+     * 尝试准入一个请求
+     * @return 准入返回true，调用方在请求结束后必须调用 release
+     */
+    public static boolean tryAcquire(RouteClass routeClass) {
+        if (!enabled || routeClass == RouteClass.ADMIN) {
+            return true;
+        }
+        // 队列长度在锁外读取
+        boolean backlogged = routeClass == RouteClass.SCAN && queueDepth.getAsInt() > 0;
+        synchronized (AdmissionController.class) {
+            if (routeClass == RouteClass.SCAN) {
+                if (backlogged || scanInFlight + 1 > Math.max(1, (int) (limit * scanPercent / 100))
+                        || inFlight + 1 > (int) limit) {
+                    rejectedScanCount.incrementAndGet();
+                    rejectedCount.incrementAndGet();
+                    return false;
+                }
+                scanInFlight++;
+            } else if (inFlight + 1 > (int) limit) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            inFlight++;
+        }
+        admittedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 请求结束，归还名额并用本次延迟调整上限
+     * @param elapsedNanos 请求处理耗时
+     */
+    public static synchronized void release(RouteClass routeClass, long elapsedNanos) {
+        if (!enabled || routeClass == RouteClass.ADMIN) {
+            return;
+        }
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        if (routeClass == RouteClass.SCAN) {
+            if (scanInFlight > 0) {
+                scanInFlight--;
+            }
+            return;
+        }
+
+        windowTotalNanos += elapsedNanos;
+        windowSamples++;
+        if (windowSamples < SHORT_WINDOW) {
+            return;
+        }
+        double shortRtt = (double) windowTotalNanos / windowSamples;
+        windowTotalNanos = 0;
+        windowSamples = 0;
+
+        if (longRttNanos == 0) {
+            longRttNanos = shortRtt;
+        } else {
+            longRttNanos += (shortRtt - longRttNanos) * (SHORT_WINDOW / LONG_WINDOW);
+            // 负载下降后延迟明显低于基线时，让基线更快跟上，避免上限长期偏高
+            if (longRttNanos > shortRtt * 2) {
+                longRttNanos *= 0.95;
+            }
+        }
+
+        // 并发远低于上限时延迟不反映容量，不放大上限
+        if (inFlight < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    /**
+     * 获取当前的并发上限
+     */
+    public static synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 获取准入控制统计信息
+     */
+    public static synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("limit", (int) limit);
+        stats.put("min_limit", minLimit);
+        stats.put("max_limit", maxLimit);
+        stats.put("scan_limit", Math.max(1, (int) (limit * scanPercent / 100)));
+        stats.put("in_flight", inFlight);
+        stats.put("scan_in_flight", scanInFlight);
+        stats.put("queue_depth", queueDepth.getAsInt());
+        stats.put("baseline_latency_ms", longRttNanos / 1e6);
+        stats.put("admitted_total", admittedCount.get());
+        stats.put("rejected_total", rejectedCount.get());
+        stats.put("rejected_scan_total", rejectedScanCount.get());
+        return stats;
+    }
+}
@@ -0,0 +1,127 @@
+package service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 已验证凭据缓存
+ * Basic Auth 每个请求都带用户名和密码，逐个请求做 bcrypt 校验代价很高。
+ * 这里缓存校验成功的 (用户名, HMAC(密码))，在有效期内相同凭据只需一次 HMAC 和一次哈希查找。
+ *
+ * HMAC 密钥在进程启动时随机生成且不落盘，内存中不保存明文密码，也不保存可离线爆破的无盐摘要。
+ * 每个条目同时记录校验时的密码哈希，密码修改后旧条目自然失效；只缓存成功的校验，失败仍走 bcrypt。
+ */
+public class CredentialCache {
+
+    private static final SecureRandom secureRandom = new SecureRandom();
+    private static final byte[] hmacKey = new byte[32];
+
+    static {
+        secureRandom.nextBytes(hmacKey);
+    }
+
+    // 条目有效期（毫秒），0 表示关闭缓存
+    private static volatile long ttlMs = 5 * 60 * 1000L;
+    private static int maxEntries = 10000;
+
+    private static final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private CredentialCache() {
+    }
+
+    /**
+     * 设置缓存有效期和容量
+     * @param ttlSeconds 有效期（秒），0 表示关闭缓存
+     * @param size 最大条目数
+     */
+    public static synchronized void init(int ttlSeconds, int size) {
+        ttlMs = Math.max(0, ttlSeconds) * 1000L;
+        maxEntries = Math.max(1, size);
+        entries.clear();
+    }
+
+    /**
+     * 判断凭据是否在有效期内校验成功过
+     * @param passwordHash 用户当前的密码哈希
+     */
+    public static boolean isVerified(String username, String password, String passwordHash) {
+        if (ttlMs == 0) {
+            return false;
+        }
+        // HMAC 在锁外计算
+        String key = cacheKey(username, password);
+        synchronized (CredentialCache.class) {
+            CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.expiryTime < System.currentTimeMillis() || !entry.passwordHash.equals(passwordHash)) {
+                entries.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 记录一次成功的 bcrypt 校验
+     */
+    public static void markVerified(String username, String password, String passwordHash) {
+        if (ttlMs == 0) {
+            return;
+        }
+        String key = cacheKey(username, password);
+        synchronized (CredentialCache.class) {
+            entries.put(key, new CacheEntry(username, passwordHash, System.currentTimeMillis() + ttlMs));
+        }
+    }
+
+    /**
+     * 清除某个用户的所有缓存凭据（修改密码时调用）
+     */
+    public static synchronized void invalidateUser(String username) {
+        Iterator<CacheEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().username.equals(username)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String cacheKey(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(hmacKey, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            byte[] digest = mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+            return username + ":" + Base64.getEncoder().encodeToString(digest);
+        } catch (Exception e) {
+            throw new IllegalStateException("无法计算凭据摘要", e);
+        }
+    }
+
+    private static class CacheEntry {
+        final String username;
+        final String passwordHash;
+        final long expiryTime;
+
+        CacheEntry(String username, String passwordHash, long expiryTime) {
+            this.username = username;
+            this.passwordHash = passwordHash;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+
+import app.RequestAbortedException;
+import app.RequestTracker;
+import tgraph.Tgraph;
+
+/**
+ * 组提交批处理器
+ * 将并发请求提交的小写操作排队，每 maxLatencyMs 毫秒或攒满 maxBatchSize 个操作时合并到同一个事务中提交，
+ * 提交完成后再逐个唤醒等待的请求线程，从而把每个请求一次提交（一次日志刷盘）的开销摊薄到整批操作上。
+ */
+public class GroupCommitBatcher {
+
+    /**
+     * 在事务中执行的写操作
+     * 实体不存在时应在修改任何数据之前抛出 NotFoundException，合并提交时只有该操作失败，同批其它操作照常提交
+     */
+    public interface WriteOperation {
+        void apply(Transaction tx);
+    }
+
+    // 单批事务最多合并的写入条数
+    private static int maxBatchSize = 1000;
+    // 第一个操作入队后最多等待多久提交（毫秒）
+    private static long maxLatencyMs = 5;
+    // 属性、标签等单实体写入是否走组提交
+    private static boolean coalescingEnabled = false;
+    // 单值时态写入是否走组提交
+    private static boolean temporalCoalescingEnabled = false;
+
+    private static BlockingQueue<PendingWrite> queue;
+    private static Thread worker;
+
+    private GroupCommitBatcher() {
+    }
+
+    /**
+     * 启动组提交工作线程
+     * @param batchSize 单批最大操作数
+     * @param latencyMs 最大等待延迟（毫秒）
+     * @param coalescing 属性、标签等单实体写入是否合并提交
+     * @param temporalCoalescing 单值时态写入是否合并提交
+     */
+    public static synchronized void start(int batchSize, long latencyMs, boolean coalescing, boolean temporalCoalescing) {
+        if (worker != null) {
+            return;
+        }
+        maxBatchSize = Math.max(1, batchSize);
+        maxLatencyMs = Math.max(0, latencyMs);
+        coalescingEnabled = coalescing;
+        temporalCoalescingEnabled = temporalCoalescing;
+        // 队列容量有上限，写入过快时调用方会在入队处阻塞，形成背压
+        queue = new LinkedBlockingQueue<>(maxBatchSize * 16);
+        worker = new Thread(GroupCommitBatcher::runLoop, "group-commit");
+        worker.setDaemon(true);
+        worker.start();
+        System.out.println("组提交已启动: maxBatchSize=" + maxBatchSize + ", maxLatencyMs=" + maxLatencyMs
+            + ", properties=" + coalescingEnabled + ", temporal=" + temporalCoalescingEnabled);
+    }
+
+    public static boolean isCoalescingEnabled() {
+        return coalescingEnabled && worker != null;
+    }
+
+    public static boolean isTemporalCoalescingEnabled() {
+        return temporalCoalescingEnabled && worker != null;
+    }
+
+    public static int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * 执行写操作
+     * 单独提交时事务带有请求的期限并登记到请求上；合并提交时入队前检查请求是否已中止，
+     * 排队期间被取消或超过期限的请求在提交前被跳过
+     * @param db 目标数据库
+     * @param op 写操作
+     * @param coalesce 为true时进入组提交队列并等待共享事务提交，否则单独开启事务立即提交
+     */
+    public static void write(GraphDatabaseService db, WriteOperation op, boolean coalesce) {
+        if (!coalesce || worker == null) {
+            try (Transaction tx = Tgraph.beginTx(db)) {
+                op.apply(tx);
+                tx.commit();
+            }
+            return;
+        }
+        RequestTracker.checkAborted();
+        await(submit(db, op, 1));
+    }
+
+    /**
+     * 异步提交写操作到组提交队列
+     * @param db 目标数据库
+     * @param op 写操作
+     * @param weight 操作包含的写入条数，用于控制单批事务的大小
+     * @return 共享事务提交后完成的future
+     */
+    public static CompletableFuture<Void> submit(GraphDatabaseService db, WriteOperation op, int weight) {
+        if (worker == null) {
+            throw new IllegalStateException("组提交未启动");
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            queue.put(new PendingWrite(db, op, Math.max(1, weight), RequestTracker.currentRequest(), future));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待写入队列时被中断", e);
+        }
+        return future;
+    }
+
+    /**
+     * 等待写操作提交完成，并把失败原因原样抛出
+     */
+    public static void await(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static void runLoop() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            try {
+                PendingWrite first = queue.take();
+                batch.add(first);
+                int weight = first.weight;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+                while (weight < maxBatchSize) {
+                    // 先取走已经排队的操作，再在剩余延迟内等待新的操作
+                    PendingWrite next = queue.poll();
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                    weight += next.weight;
+                }
+                commitBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable t) {
+                // 工作线程不能退出，否则所有等待者都会被挂起
+                for (PendingWrite pending : batch) {
+                    pending.future.completeExceptionally(t);
+                }
+                t.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void commitBatch(List<PendingWrite> batch) {
+        // 同一批中可能包含不同数据库的写操作，按数据库分组各自提交
+        Map<GraphDatabaseService, List<PendingWrite>> byDatabase = new LinkedHashMap<>();
+        for (PendingWrite pending : batch) {
+            byDatabase.computeIfAbsent(pending.db, db -> new ArrayList<>()).add(pending);
+        }
+        for (Map.Entry<GraphDatabaseService, List<PendingWrite>> entry : byDatabase.entrySet()) {
+            commitGroup(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void commitGroup(GraphDatabaseService db, List<PendingWrite> queued) {
+        // 排队期间已被取消或超过期限的请求不再写入
+        List<PendingWrite> group = new ArrayList<>(queued.size());
+        for (PendingWrite pending : queued) {
+            RequestAbortedException aborted = pending.request == null ? null : pending.request.abortReason();
+            if (aborted != null) {
+                pending.future.completeExceptionally(aborted);
+            } else {
+                group.add(pending);
+            }
+        }
+        if (group.size() > 1) {
+            try (Transaction tx = db.beginTx()) {
+                for (PendingWrite pending : group) {
+                    try {
+                        pending.op.apply(tx);
+                    } catch (NotFoundException e) {
+                        // 实体不存在的操作没有修改数据，单独记录结果，不回滚共享事务
+                        pending.notFound = e;
+                    }
+                }
+                tx.commit();
+                for (PendingWrite pending : group) {
+                    if (pending.notFound != null) {
+                        pending.future.completeExceptionally(pending.notFound);
+                    } else {
+                        pending.future.complete(null);
+                    }
+                }
+                return;
+            } catch (Exception e) {
+                // 共享事务已回滚，退回到逐个提交，让每个请求拿到自己的结果
+                for (PendingWrite pending : group) {
+                    pending.notFound = null;
+                }
+            }
+        }
+        for (PendingWrite pending : group) {
+            try (Transaction tx = db.beginTx()) {
+                pending.op.apply(tx);
+                tx.commit();
+                pending.future.complete(null);
+            } catch (Throwable t) {
+                pending.future.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        final GraphDatabaseService db;
+        final WriteOperation op;
+        final int weight;
+        // 提交该操作的请求，不在请求线程中提交时为null
+        final RequestTracker.RequestInfo request;
+        final CompletableFuture<Void> future;
+        // 合并提交时实体不存在的结果，只由工作线程读写
+        NotFoundException notFound = null;
+
+        PendingWrite(GraphDatabaseService db, WriteOperation op, int weight, RequestTracker.RequestInfo request,
+                     CompletableFuture<Void> future) {
+            this.db = db;
+            this.op = op;
+            this.weight = weight;
+            this.request = request;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import config.RouteClass;
+
+/**
+ * 按用户和路由类别限流
+ * 每个用户在每个路由类别（扫描、点查、写、管理）上各有一个令牌桶和一个并发上限：
+ * 令牌桶限制平均速率并允许一定突发，并发上限限制同时在执行的请求数，
+ * 避免单个用户的大量全库扫描占满线程池、拖慢其他用户的点查。
+ *
+ * 长时间没有请求的用户的桶会被定期清理。
+ */
+public class RateLimiter {
+
+    // 空闲多久后清理用户的桶
+    private static final long IDLE_EVICT_MS = 10 * 60 * 1000L;
+
+    private static volatile boolean enabled = false;
+    private static final Limit[] limits = new Limit[RouteClass.values().length];
+    private static final Map<String, Bucket[]> buckets = new ConcurrentHashMap<>();
+    private static final AtomicLong[] rejectedCounts = new AtomicLong[RouteClass.values().length];
+
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "rate-limiter-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // 默认值：扫描代价高，速率和并发都较低；点查最宽松
+        limits[RouteClass.SCAN.ordinal()] = new Limit(5, 10, 2);
+        limits[RouteClass.POINT.ordinal()] = new Limit(200, 400, 32);
+        limits[RouteClass.WRITE.ordinal()] = new Limit(100, 200, 16);
+        limits[RouteClass.ADMIN.ordinal()] = new Limit(10, 20, 4);
+        for (int i = 0; i < rejectedCounts.length; i++) {
+            rejectedCounts[i] = new AtomicLong();
+        }
+        sweeper.scheduleAtFixedRate(RateLimiter::evictIdle, 10, 10, TimeUnit.MINUTES);
+    }
+
+    private RateLimiter() {
+    }
+
+    /**
+     * 开启或关闭限流
+     */
+    public static void init(boolean enable) {
+        enabled = enable;
+        buckets.clear();
+    }
+
+    /**
+     * 设置某个路由类别的限额
+     * @param rate 每秒补充的令牌数
+     * @param burst 令牌桶容量，即允许的突发请求数
+     * @param maxInFlight 同一用户同时在执行的最大请求数，0 表示不限制
+     */
+    public static void configure(RouteClass routeClass, int rate, int burst, int maxInFlight) {
+        limits[routeClass.ordinal()] = new Limit(Math.max(1, rate), Math.max(1, burst), Math.max(0, maxInFlight));
+        buckets.clear();
+    }
+
+    /**
+     * 获取某个路由类别当前的限额
+     */
+    public static Limit getLimit(RouteClass routeClass) {
+        return limits[routeClass.ordinal()];
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取用户在某个路由类别上的桶
+     * 调用方先 tryAcquire，获得许可后在请求结束时 release 同一个桶
+     * @param key 用户名，未认证的请求使用客户端地址
+     */
+    public static Bucket bucket(String key, RouteClass routeClass) {
+        Bucket[] userBuckets = buckets.computeIfAbsent(key, k -> {
+            Bucket[] created = new Bucket[limits.length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new Bucket(limits[i], rejectedCounts[i]);
+            }
+            return created;
+        });
+        return userBuckets[routeClass.ordinal()];
+    }
+
+    private static void evictIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_EVICT_MS;
+        buckets.entrySet().removeIf(entry -> {
+            for (Bucket bucket : entry.getValue()) {
+                if (!bucket.isIdleSince(cutoff)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * 获取限流统计信息
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("tracked_users", buckets.size());
+        Map<String, Object> classes = new LinkedHashMap<>();
+        for (RouteClass routeClass : RouteClass.values()) {
+            Limit limit = limits[routeClass.ordinal()];
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("rate", limit.rate);
+            item.put("burst", limit.burst);
+            item.put("max_in_flight", limit.maxInFlight);
+            item.put("rejected_total", rejectedCounts[routeClass.ordinal()].get());
+            classes.put(routeClass.name().toLowerCase(), item);
+        }
+        stats.put("classes", classes);
+        return stats;
+    }
+
+    /**
+     * 路由类别的限额
+     */
+    public static class Limit {
+        public final int rate;
+        public final int burst;
+        public final int maxInFlight;
+
+        Limit(int rate, int burst, int maxInFlight) {
+            this.rate = rate;
+            this.burst = burst;
+            this.maxInFlight = maxInFlight;
+        }
+    }
+
+    /**
+     * 单个用户在单个路由类别上的令牌桶和并发计数
+     */
+    public static class Bucket {
+        private final Limit limit;
+        private final AtomicLong rejected;
+        private double tokens;
+        private long lastRefillNanos;
+        private int inFlight = 0;
+        private long lastUsed;
+
+        Bucket(Limit limit, AtomicLong rejected) {
+            this.limit = limit;
+            this.rejected = rejected;
+            this.tokens = limit.burst;
+            this.lastRefillNanos = System.nanoTime();
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * 尝试获取一次许可
+         * @return 获得许可返回0，否则返回建议的重试等待秒数
+         */
+        public synchronized long tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(limit.burst, tokens + (now - lastRefillNanos) / 1e9 * limit.rate);
+            lastRefillNanos = now;
+            lastUsed = System.currentTimeMillis();
+
+            if (limit.maxInFlight > 0 && inFlight >= limit.maxInFlight) {
+                rejected.incrementAndGet();
+                return 1;
+            }
+            if (tokens < 1) {
+                rejected.incrementAndGet();
+                return Math.max(1, (long) Math.ceil((1 - tokens) / limit.rate));
+            }
+            tokens -= 1;
+            inFlight++;
+            return 0;
+        }
+
+        /**
+         * 请求结束时归还并发名额
+         */
+        public synchronized void release() {
+            if (inFlight > 0) {
+                inFlight--;
+            }
+            lastUsed = System.currentTimeMillis();
+        }
+
+        synchronized boolean isIdleSince(long cutoff) {
+            return inFlight == 0 && lastUsed < cutoff;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 会话过期时间轮
+ * 每个槽对应一秒，会话按过期时间挂到对应的槽上，每秒只处理当前槽中的会话，
+ * 工作量与到期的会话数成正比，而不是每次扫描全部会话。
+ *
+ * 滑动过期时不移动会话在轮上的位置：到达槽时如果会话已经续期，再按新的过期时间重新挂到后面的槽上（惰性重排）。
+ * 过期时间超出一圈的会话（如"记住我"）每转一圈被访问一次并重新挂回。
+ */
+class SessionExpiryWheel {
+
+    private static final long TICK_MS = 1000;
+
+    private final List<Entry>[] slots;
+    // 已处理到的刻度（从1970年起的秒数）
+    private long currentTick;
+
+    @SuppressWarnings("unchecked")
+    SessionExpiryWheel(int slotCount) {
+        slots = new List[Math.max(60, slotCount)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        currentTick = System.currentTimeMillis() / TICK_MS;
+    }
+
+    /**
+     * 按会话当前的过期时间挂到时间轮上
+     */
+    synchronized void schedule(String key, SessionManager.SessionInfo info) {
+        long tick = Math.max(info.expiryTime / TICK_MS, currentTick + 1);
+        // 超出一圈的只挂到一圈内，到达时会重新计算
+        tick = Math.min(tick, currentTick + slots.length);
+        slots[(int) (tick % slots.length)].add(new Entry(key, info));
+    }
+
+    /**
+     * 推进到当前时间，移除到期的会话
+     * @param sessions 会话存储
+     * @return 本次移除的会话数
+     */
+    int advance(long now, Map<String, SessionManager.SessionInfo> sessions) {
+        long targetTick = now / TICK_MS;
+        int expired = 0;
+        while (true) {
+            List<Entry> due;
+            synchronized (this) {
+                if (currentTick >= targetTick) {
+                    break;
+                }
+                currentTick++;
+                int index = (int) (currentTick % slots.length);
+                due = slots[index];
+                if (due.isEmpty()) {
+                    continue;
+                }
+                slots[index] = new ArrayList<>();
+            }
+            for (Entry entry : due) {
+                // 会话已登出或被替换，直接丢弃
+                if (sessions.get(entry.key) != entry.info) {
+                    continue;
+                }
+                if (entry.info.expiryTime > now) {
+                    // 已续期，按新的过期时间重新挂上
+                    schedule(entry.key, entry.info);
+                } else if (sessions.remove(entry.key, entry.info)) {
+                    expired++;
+                }
+            }
+        }
+        return expired;
+    }
+
+    private static class Entry {
+        final String key;
+        final SessionManager.SessionInfo info;
+
+        Entry(String key, SessionManager.SessionInfo info) {
+            this.key = key;
+            this.info = info;
+        }
+    }
+}
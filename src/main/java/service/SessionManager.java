@@ -1,15 +1,31 @@
 package service;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * 会话管理器，管理用户会话
+ *
+ * 支持两种模式（org.neo4j.server.session.mode）：
+ *   memory - 默认，会话保存在进程内的Map中，重启后失效
+ *   token  - 无状态模式，sessionId 本身是带 HMAC 签名和过期时间的令牌，
+ *            任何持有相同密钥（org.neo4j.server.session.token_secret）的实例都能校验，
+ *            可在负载均衡后部署多个实例，重启也不会让用户重新登录
+ *   persistent - 与 memory 相同，但会话变更经 {@link SessionStore} 批量写入本地文件，重启后恢复
  */
 public class SessionManager {
     // 会话超时时间（30分钟）
@@ -17,24 +33,64 @@ public class SessionManager {
     // 最大会话存活时间（7天），适用于"记住我"功能
     private static final long MAX_SESSION_LIFETIME_MS = 7 * 24 * 60 * 60 * 1000;
     
+    public static final String MODE_MEMORY = "memory";
+    public static final String MODE_TOKEN = "token";
+    public static final String MODE_PERSISTENT = "persistent";
+    
+    // 令牌格式版本，改变令牌内容时递增
+    private static final String TOKEN_VERSION = "v2";
+    
+    // 会话模式
+    private static volatile String mode = MODE_MEMORY;
+    // 令牌签名密钥
+    private static volatile byte[] tokenSecret;
+    
     // 会话存储
     private static final Map<String, SessionInfo> sessions = new ConcurrentHashMap<>();
+    // persistent 模式下的文件存储，其它模式为null
+    private static volatile SessionStore store;
+    // 已登出但尚未过期的令牌签名及其过期时间（仅token模式，只在本实例内生效）
+    private static final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    // 被删除的用户及删除时间，此前签发的令牌全部无效（仅token模式，只在本实例内生效）
+    private static final Map<String, Long> revokedUsers = new ConcurrentHashMap<>();
     // 安全随机数生成器
     private static final SecureRandom secureRandom = new SecureRandom();
     // 调度器，用于清理过期会话
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // 过期时间轮，一圈一小时，精度一秒
+    private static final SessionExpiryWheel expiryWheel = new SessionExpiryWheel(3600);
+    
+    // 会话统计
+    private static final AtomicLong createdCount = new AtomicLong();
+    private static final AtomicLong expiredCount = new AtomicLong();
+    private static final AtomicLong loggedOutCount = new AtomicLong();
     
     static {
-        // 启动定期清理过期会话的任务（每10分钟执行一次）
+        // 每秒推进时间轮，只处理这一秒到期的会话
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                expiredCount.addAndGet(expiryWheel.advance(System.currentTimeMillis(), sessions));
+            } catch (Exception e) {
+                System.err.println("清理过期会话失败: " + e.getMessage());
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        
+        // 已吊销令牌数量很少，仍按10分钟清理一次
         scheduler.scheduleAtFixedRate(() -> {
             long now = System.currentTimeMillis();
-            sessions.entrySet().removeIf(entry -> 
-                entry.getValue().expiryTime < now);
+            revokedTokens.entrySet().removeIf(entry -> entry.getValue() < now);
+            // 超过最长会话时间后，删除前签发的令牌都已过期
+            revokedUsers.entrySet().removeIf(entry -> entry.getValue() + MAX_SESSION_LIFETIME_MS < now);
         }, 10, 10, TimeUnit.MINUTES);
         
         // 添加JVM关闭钩子，确保调度器正确关闭
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             scheduler.shutdown();
+            SessionStore currentStore = store;
+            if (currentStore != null) {
+                // 写出尚未落盘的会话变更
+                currentStore.close();
+            }
             try {
                 if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
                     scheduler.shutdownNow();
@@ -45,6 +101,43 @@ public class SessionManager {
         }));
     }
     
+    /**
+     * 设置会话模式
+     * @param sessionMode memory、token 或 persistent
+     * @param secret token 模式的签名密钥
+     * @param storeDir persistent 模式的存储目录
+     * @param flushIntervalMs persistent 模式批量写入的间隔（毫秒）
+     * @param snapshotThreshold persistent 模式日志记录数超过该值时写快照
+     */
+    public static void init(String sessionMode, String secret, String storeDir, int flushIntervalMs, int snapshotThreshold) {
+        if (MODE_PERSISTENT.equalsIgnoreCase(sessionMode) && storeDir != null) {
+            SessionStore sessionStore = new SessionStore(new File(storeDir), snapshotThreshold, sessions);
+            try {
+                sessionStore.load();
+                store = sessionStore;
+                sessions.forEach(expiryWheel::schedule);
+                scheduler.scheduleWithFixedDelay(sessionStore::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+                mode = MODE_PERSISTENT;
+            } catch (IOException e) {
+                System.err.println("无法加载会话存储，退回到内存模式: " + e.getMessage());
+                mode = MODE_MEMORY;
+            }
+        } else if (MODE_TOKEN.equalsIgnoreCase(sessionMode)) {
+            if (secret == null || secret.isEmpty()) {
+                byte[] randomSecret = new byte[32];
+                secureRandom.nextBytes(randomSecret);
+                tokenSecret = randomSecret;
+                System.err.println("警告: 未配置 org.neo4j.server.session.token_secret，使用随机密钥，重启后会话令牌将失效");
+            } else {
+                tokenSecret = secret.getBytes(StandardCharsets.UTF_8);
+            }
+            mode = MODE_TOKEN;
+        } else {
+            mode = MODE_MEMORY;
+        }
+        System.out.println("会话模式: " + mode);
+    }
+    
     /**
      * 创建新会话
      * @param username 用户名
@@ -52,6 +145,13 @@ public class SessionManager {
      * @return 会话ID
      */
     public static String createSession(String username, boolean rememberMe) {
+        if (MODE_TOKEN.equals(mode)) {
+            long expiryTime = System.currentTimeMillis() + 
+                (rememberMe ? MAX_SESSION_LIFETIME_MS : SESSION_TIMEOUT_MS);
+            createdCount.incrementAndGet();
+            return issueToken(new TokenInfo(username, expiryTime, rememberMe));
+        }
+        
         // 生成随机会话ID
         byte[] randomBytes = new byte[32];
         secureRandom.nextBytes(randomBytes);
@@ -62,7 +162,14 @@ public class SessionManager {
             (rememberMe ? MAX_SESSION_LIFETIME_MS : SESSION_TIMEOUT_MS);
         
         // 保存会话信息
-        sessions.put(sessionId, new SessionInfo(username, expiryTime, rememberMe));
+        SessionInfo sessionInfo = new SessionInfo(username, expiryTime, rememberMe);
+        String key = sessionKey(sessionId);
+        sessions.put(key, sessionInfo);
+        expiryWheel.schedule(key, sessionInfo);
+        createdCount.incrementAndGet();
+        if (store != null) {
+            store.recordPut(key, sessionInfo);
+        }
         
         return sessionId;
     }
@@ -73,16 +180,32 @@ public class SessionManager {
      * @return 如果会话有效，返回用户名；否则返回null
      */
     public static String validateSession(String sessionId) {
+        Validation validation = validate(sessionId);
+        return validation == null ? null : validation.username;
+    }
+    
+    /**
+     * 验证会话，token 模式下同时判断是否需要滑动续期，令牌只校验一次
+     * @param sessionId 会话ID
+     * @return 会话无效时返回null
+     */
+    public static Validation validate(String sessionId) {
         if (sessionId == null) {
             return null;
         }
         
-        SessionInfo sessionInfo = sessions.get(sessionId);
+        if (MODE_TOKEN.equals(mode)) {
+            TokenInfo token = verifyToken(sessionId);
+            return token == null ? null : new Validation(token.username, refresh(token));
+        }
+        
+        String key = sessionKey(sessionId);
+        SessionInfo sessionInfo = sessions.get(key);
         if (sessionInfo == null || sessionInfo.expiryTime < System.currentTimeMillis()) {
             // 会话不存在或已过期
-            if (sessionInfo != null) {
-                // 如果会话已过期，从会话存储中移除
-                sessions.remove(sessionId);
+            if (sessionInfo != null && sessions.remove(key, sessionInfo)) {
+                // 如果会话已过期，从会话存储中移除（过期会话重启加载时也会被丢弃，无需写日志）
+                expiredCount.incrementAndGet();
             }
             return null;
         }
@@ -90,9 +213,13 @@ public class SessionManager {
         // 如果不是"记住我"会话，更新过期时间（滑动会话）
         if (!sessionInfo.rememberMe) {
             sessionInfo.expiryTime = System.currentTimeMillis() + SESSION_TIMEOUT_MS;
+            if (store != null) {
+                // 只记入待写表，同一会话的多次续期在下一次批量写入时合并为一条
+                store.recordPut(key, sessionInfo);
+            }
         }
         
-        return sessionInfo.username;
+        return new Validation(sessionInfo.username, null);
     }
     
     /**
@@ -100,23 +227,193 @@ public class SessionManager {
      * @param sessionId 会话ID
      */
     public static void invalidateSession(String sessionId) {
-        if (sessionId != null) {
-            sessions.remove(sessionId);
+        if (sessionId == null) {
+            return;
+        }
+        if (MODE_TOKEN.equals(mode)) {
+            // 令牌无法收回，在过期前记入吊销列表
+            TokenInfo token = verifyToken(sessionId);
+            if (token != null) {
+                revokedTokens.put(signatureOf(sessionId), token.expiryTime);
+                loggedOutCount.incrementAndGet();
+            }
+            return;
+        }
+        String key = sessionKey(sessionId);
+        if (sessions.remove(key) != null) {
+            loggedOutCount.incrementAndGet();
+        }
+        if (store != null) {
+            store.recordRemove(key);
+        }
+    }
+    
+    /**
+     * 吊销某个用户的所有会话（用户被删除时调用）
+     * @param username 用户名
+     */
+    public static void invalidateUser(String username) {
+        if (MODE_TOKEN.equals(mode)) {
+            // 令牌无法逐个收回，记下删除时间，拒绝此前签发的令牌
+            revokedUsers.put(username, System.currentTimeMillis());
+            return;
+        }
+        for (Map.Entry<String, SessionInfo> entry : sessions.entrySet()) {
+            if (entry.getValue().username.equals(username) && sessions.remove(entry.getKey(), entry.getValue())) {
+                loggedOutCount.incrementAndGet();
+                if (store != null) {
+                    store.recordRemove(entry.getKey());
+                }
+            }
+        }
+    }
+    
+    /**
+     * 获取会话统计信息
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode);
+        stats.put("active_sessions", MODE_TOKEN.equals(mode) ? null : sessions.size());
+        stats.put("created_total", createdCount.get());
+        stats.put("expired_total", expiredCount.get());
+        stats.put("logged_out_total", loggedOutCount.get());
+        stats.put("revoked_tokens", revokedTokens.size());
+        return stats;
+    }
+    
+    // persistent 模式下以会话ID的摘要作为键，文件中不出现可直接使用的会话ID
+    private static String sessionKey(String sessionId) {
+        if (store == null) {
+            return sessionId;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sessionId.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (Exception e) {
+            throw new IllegalStateException("无法计算会话ID摘要", e);
+        }
+    }
+    
+    /**
+     * 滑动续期（仅token模式）
+     * 令牌无法在服务端修改过期时间，剩余有效期不足一半时签发新令牌，由调用方写回cookie
+     * @param token 已校验的令牌
+     * @return 需要续期时返回新的会话ID，否则返回null
+     */
+    private static String refresh(TokenInfo token) {
+        if (token.rememberMe) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (token.expiryTime - now > SESSION_TIMEOUT_MS / 2) {
+            return null;
+        }
+        // 旧令牌不吊销，让并发中仍携带旧cookie的请求正常完成，它会在原过期时间自然失效
+        return issueToken(new TokenInfo(token.username, now + SESSION_TIMEOUT_MS, false));
+    }
+    
+    // 令牌格式: base64url(版本|用户名|过期时间|记住我) + "." + base64url(HMAC-SHA256)
+    // 角色不写入令牌，授权时按用户名从 UserService 读取
+    private static String issueToken(TokenInfo token) {
+        String payload = String.join("|", TOKEN_VERSION, token.username,
+            String.valueOf(token.expiryTime), token.rememberMe ? "1" : "0");
+        String encoded = Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return encoded + "." + sign(encoded);
+    }
+    
+    // 校验签名、过期时间和吊销列表，失败返回null
+    private static TokenInfo verifyToken(String sessionId) {
+        int dot = sessionId.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String encoded = sessionId.substring(0, dot);
+        String signature = sessionId.substring(dot + 1);
+        if (!MessageDigest.isEqual(sign(encoded).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8).split("\\|", -1);
+            if (parts.length != 4 || !TOKEN_VERSION.equals(parts[0])) {
+                return null;
+            }
+            TokenInfo token = new TokenInfo(parts[1], Long.parseLong(parts[2]), "1".equals(parts[3]));
+            if (token.expiryTime < System.currentTimeMillis() || revokedTokens.containsKey(signature)) {
+                return null;
+            }
+            // 令牌的签发时间由过期时间减去有效期得到，用户删除前签发的令牌无效
+            Long revokedAt = revokedUsers.get(token.username);
+            long issuedAt = token.expiryTime - (token.rememberMe ? MAX_SESSION_LIFETIME_MS : SESSION_TIMEOUT_MS);
+            if (revokedAt != null && issuedAt <= revokedAt) {
+                return null;
+            }
+            return token;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private static String signatureOf(String sessionId) {
+        return sessionId.substring(sessionId.indexOf('.') + 1);
+    }
+    
+    private static String sign(String encodedPayload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(tokenSecret, "HmacSHA256"));
+            byte[] digest = mac.doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (Exception e) {
+            throw new IllegalStateException("无法计算会话令牌签名", e);
         }
     }
     
     /**
      * 会话信息类
      */
-    private static class SessionInfo {
+    static class SessionInfo {
+        final String username;
+        volatile long expiryTime;
+        final boolean rememberMe;
+        
+        SessionInfo(String username, long expiryTime, boolean rememberMe) {
+            this.username = username;
+            this.expiryTime = expiryTime;
+            this.rememberMe = rememberMe;
+        }
+    }
+    
+    /**
+     * 会话令牌内容
+     */
+    private static class TokenInfo {
         final String username;
-        long expiryTime;
+        final long expiryTime;
         final boolean rememberMe;
         
-        public SessionInfo(String username, long expiryTime, boolean rememberMe) {
+        TokenInfo(String username, long expiryTime, boolean rememberMe) {
             this.username = username;
             this.expiryTime = expiryTime;
             this.rememberMe = rememberMe;
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 会话验证结果
+     */
+    public static class Validation {
+        private final String username;
+        private final String refreshedSessionId;
+        
+        Validation(String username, String refreshedSessionId) {
+            this.username = username;
+            this.refreshedSessionId = refreshedSessionId;
+        }
+        
+        public String getUsername() { return username; }
+        // token 模式下需要续期时为新的会话ID，否则为null
+        public String getRefreshedSessionId() { return refreshedSessionId; }
+    }
+}
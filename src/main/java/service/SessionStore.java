@@ -0,0 +1,171 @@
+package service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 会话持久化存储（追加日志 + 定期快照）
+ * 会话的创建、续期和删除先记入待写表，由后台线程按固定间隔批量追加到日志；
+ * 同一会话在一个间隔内的多次续期只写最后一次，因此滑动过期不会让每个请求都写一次磁盘。
+ * 日志记录数超过阈值时把当前全部会话写成快照并清空日志。启动时先读快照再重放日志。
+ *
+ * 文件中只保存会话ID的SHA-256摘要，不保存可直接使用的会话ID。
+ */
+class SessionStore {
+
+    private static final String SNAPSHOT_FILE = "sessions.snapshot";
+    private static final String LOG_FILE = "sessions.log";
+
+    // 待写表中表示"已删除"的标记
+    private static final SessionManager.SessionInfo REMOVED = new SessionManager.SessionInfo("", 0, false);
+
+    private final File dir;
+    private final int snapshotThreshold;
+    private final Map<String, SessionManager.SessionInfo> sessions;
+    private final Map<String, SessionManager.SessionInfo> pending = new ConcurrentHashMap<>();
+
+    private BufferedWriter logWriter;
+    private int logRecords = 0;
+
+    SessionStore(File dir, int snapshotThreshold, Map<String, SessionManager.SessionInfo> sessions) {
+        this.dir = dir;
+        this.snapshotThreshold = Math.max(1, snapshotThreshold);
+        this.sessions = sessions;
+    }
+
+    /**
+     * 从快照和日志恢复会话，并打开日志用于追加
+     */
+    synchronized void load() throws IOException {
+        dir.mkdirs();
+        long now = System.currentTimeMillis();
+        int snapshotCount = replay(new File(dir, SNAPSHOT_FILE));
+        logRecords = replay(new File(dir, LOG_FILE));
+        sessions.values().removeIf(info -> info.expiryTime < now);
+        logWriter = openLog(true);
+        System.out.println("已恢复 " + sessions.size() + " 个会话（快照 " + snapshotCount + " 条，日志 " + logRecords + " 条）");
+    }
+
+    private int replay(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                try {
+                    if ("P".equals(parts[0]) && parts.length == 5) {
+                        sessions.put(parts[1], new SessionManager.SessionInfo(parts[2],
+                            Long.parseLong(parts[3]), "1".equals(parts[4])));
+                    } else if ("R".equals(parts[0]) && parts.length == 2) {
+                        sessions.remove(parts[1]);
+                    } else {
+                        continue;
+                    }
+                    count++;
+                } catch (NumberFormatException e) {
+                    // 进程异常退出时最后一行可能不完整，跳过
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 记录会话创建或续期
+     */
+    void recordPut(String key, SessionManager.SessionInfo info) {
+        pending.put(key, info);
+    }
+
+    /**
+     * 记录会话删除
+     */
+    void recordRemove(String key) {
+        pending.put(key, REMOVED);
+    }
+
+    /**
+     * 把待写记录追加到日志，必要时写快照
+     */
+    synchronized void flush() {
+        if (logWriter == null || pending.isEmpty()) {
+            return;
+        }
+        try {
+            Iterator<Map.Entry<String, SessionManager.SessionInfo>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, SessionManager.SessionInfo> entry = it.next();
+                SessionManager.SessionInfo info = entry.getValue();
+                if (info == REMOVED) {
+                    logWriter.write("R\t" + entry.getKey());
+                } else {
+                    writePut(logWriter, entry.getKey(), info);
+                }
+                logWriter.newLine();
+                logRecords++;
+                // 写出后如果又被更新，保留新的记录到下一轮
+                pending.remove(entry.getKey(), info);
+            }
+            logWriter.flush();
+            if (logRecords >= snapshotThreshold) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            System.err.println("写入会话日志失败: " + e.getMessage());
+        }
+    }
+
+    // 把当前所有会话写入快照文件，然后清空日志
+    private void snapshot() throws IOException {
+        File tmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+        long now = System.currentTimeMillis();
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, SessionManager.SessionInfo> entry : sessions.entrySet()) {
+                if (entry.getValue().expiryTime >= now) {
+                    writePut(writer, entry.getKey(), entry.getValue());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(tmp.toPath(), new File(dir, SNAPSHOT_FILE).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logWriter.close();
+        logWriter = openLog(false);
+        logRecords = 0;
+    }
+
+    synchronized void close() {
+        flush();
+        if (logWriter != null) {
+            try {
+                logWriter.close();
+            } catch (IOException e) {
+                System.err.println("关闭会话日志失败: " + e.getMessage());
+            }
+            logWriter = null;
+        }
+    }
+
+    private BufferedWriter openLog(boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, LOG_FILE), append), StandardCharsets.UTF_8));
+    }
+
+    private static void writePut(BufferedWriter writer, String key, SessionManager.SessionInfo info) throws IOException {
+        writer.write("P\t" + key + "\t" + info.username + "\t" + info.expiryTime + "\t" + (info.rememberMe ? "1" : "0"));
+    }
+}
@@ -0,0 +1,331 @@
+package service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tgraph.Tgraph;
+
+/**
+ * 时态属性最新值缓存
+ * 以 (数据库, 实体类型, 实体ID, 属性名) 为键缓存 time=now 时读到的值，使最常见的"读当前值"只需一次哈希查找。
+ * 数据库取当前线程使用的数据库（见 Tgraph.current），多个数据库同时打开时互不影响。
+ * 所有经过本服务的时态写入在提交后都会失效对应条目，由之后的读请求重新填充；容量有上限，按LRU淘汰。
+ * 缓存按实体分成多段，每段有自己的锁和LRU顺序，读写不同实体的请求互不阻塞；
+ * 段内按实体索引条目，删除实体时只需失效该实体的条目。
+ *
+ * 读请求在访问存储前先取一个版本号，写入时在按哈希分槽的版本表中记录写入版本，
+ * 这样在写入提交前读到旧值的请求不会把旧值重新放回缓存。
+ * 写入不直接把新值放入缓存：多个写入的提交后回调顺序不一定与提交顺序相同，直接写入可能留下较早提交的值。
+ */
+public class TemporalValueCache {
+
+    // 最近写入版本表的槽位数（2的幂），哈希冲突只会让个别填充被跳过
+    private static final int WRITE_SLOTS = 4096;
+    // 分段数（2的幂），同一实体的属性在同一段中
+    private static final int SEGMENTS = 64;
+
+    private static volatile int maxEntries = 0;
+    private static final AtomicLong clock = new AtomicLong();
+    private static final AtomicLongArray lastWriteVersion = new AtomicLongArray(WRITE_SLOTS);
+    private static final Segment[] segments = new Segment[SEGMENTS];
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // 缓存命中时的返回值包装，用于区分"缓存的null"和"未命中"
+    public static class Hit {
+        private final Object value;
+
+        Hit(Object value) {
+            this.value = value;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    private TemporalValueCache() {
+    }
+
+    /**
+     * 设置缓存容量，0 表示关闭缓存
+     */
+    public static synchronized void init(int size) {
+        maxEntries = Math.max(0, size);
+        // 容量平均分到各段，每段各自按LRU淘汰
+        int segmentCapacity = (maxEntries + SEGMENTS - 1) / SEGMENTS;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.capacity = segmentCapacity;
+                segment.clear();
+            }
+        }
+        System.out.println("时态最新值缓存容量: " + maxEntries);
+    }
+
+    public static boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * 查找当前值
+     * @return 命中时返回包装后的值，未命中返回null
+     */
+    public static Hit get(boolean isNode, long id, String key) {
+        if (maxEntries == 0) {
+            return null;
+        }
+        CacheKey cacheKey = new CacheKey(Tgraph.currentDatabaseId(), isNode, id, key);
+        Segment segment = segmentFor(cacheKey.dbId, isNode, id);
+        CacheEntry entry;
+        synchronized (segment) {
+            entry = segment.entries.get(cacheKey);
+        }
+        return entry == null ? null : new Hit(entry.value);
+    }
+
+    /**
+     * 读取存储前获取版本号，之后用于 {@link #populate}
+     */
+    public static long stamp() {
+        return clock.get();
+    }
+
+    /**
+     * 用从存储读到的当前值填充缓存
+     * @param stamp 读取存储前获取的版本号，期间有写入时放弃填充
+     */
+    public static void populate(boolean isNode, long id, String key, Object value, long stamp) {
+        if (maxEntries == 0) {
+            return;
+        }
+        CacheKey cacheKey = new CacheKey(Tgraph.currentDatabaseId(), isNode, id, key);
+        Segment segment = segmentFor(cacheKey.dbId, isNode, id);
+        synchronized (segment) {
+            if (lastWriteVersion.get(slot(cacheKey)) > stamp || segment.entries.containsKey(cacheKey)) {
+                return;
+            }
+            segment.put(cacheKey, new CacheEntry(value));
+        }
+    }
+
+    /**
+     * 失效单个属性（写入或删除时态属性提交后调用）
+     */
+    public static void invalidate(boolean isNode, long id, String key) {
+        if (maxEntries == 0) {
+            return;
+        }
+        CacheKey cacheKey = new CacheKey(Tgraph.currentDatabaseId(), isNode, id, key);
+        Segment segment = segmentFor(cacheKey.dbId, isNode, id);
+        synchronized (segment) {
+            recordWrite(cacheKey, clock.incrementAndGet());
+            segment.remove(cacheKey);
+        }
+    }
+
+    /**
+     * 失效某个实体的所有属性（删除实体时调用，实体ID可能被复用）
+     * 通过段内的实体索引找到该实体的条目，不扫描整个缓存
+     */
+    public static void invalidateEntity(boolean isNode, long id) {
+        if (maxEntries == 0) {
+            return;
+        }
+        int dbId = Tgraph.currentDatabaseId();
+        Segment segment = segmentFor(dbId, isNode, id);
+        synchronized (segment) {
+            long version = clock.incrementAndGet();
+            Set<CacheKey> keys = segment.byEntity.remove(new EntityKey(dbId, isNode, id));
+            if (keys == null) {
+                return;
+            }
+            for (CacheKey cacheKey : keys) {
+                recordWrite(cacheKey, version);
+                segment.entries.remove(cacheKey);
+            }
+        }
+    }
+
+    /**
+     * 清除某个数据库的所有条目（关闭数据库时调用）
+     */
+    public static void clearDatabase(int dbId) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.keySet().removeIf(cacheKey -> cacheKey.dbId == dbId);
+                segment.byEntity.keySet().removeIf(entityKey -> entityKey.dbId == dbId);
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public static void clear() {
+        // 让清空前开始的读请求都无法填充
+        long version = clock.incrementAndGet();
+        for (int i = 0; i < WRITE_SLOTS; i++) {
+            lastWriteVersion.accumulateAndGet(i, version, Math::max);
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public static Map<String, Object> getStats() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", maxEntries);
+        stats.put("entries", size);
+        stats.put("segments", SEGMENTS);
+        return stats;
+    }
+
+    private static Segment segmentFor(int dbId, boolean isNode, long id) {
+        int h = EntityKey.hash(dbId, isNode, id);
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static int slot(CacheKey cacheKey) {
+        return cacheKey.hashCode() & (WRITE_SLOTS - 1);
+    }
+
+    // 记录写入版本，不同段可能同时写入同一个槽，只保留较大的版本
+    private static void recordWrite(CacheKey cacheKey, long version) {
+        lastWriteVersion.accumulateAndGet(slot(cacheKey), version, Math::max);
+    }
+
+    /**
+     * 缓存的一段：按访问顺序排列的条目，以及每个实体在本段中的条目
+     * 所有操作都在持有段的锁时进行
+     */
+    private static class Segment {
+        int capacity = 0;
+        final Map<EntityKey, Set<CacheKey>> byEntity = new HashMap<>();
+        final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                unindex(eldest.getKey());
+                return true;
+            }
+        };
+
+        void put(CacheKey cacheKey, CacheEntry entry) {
+            if (entries.put(cacheKey, entry) == null) {
+                byEntity.computeIfAbsent(cacheKey.entity(), k -> new HashSet<>()).add(cacheKey);
+            }
+        }
+
+        void remove(CacheKey cacheKey) {
+            if (entries.remove(cacheKey) != null) {
+                unindex(cacheKey);
+            }
+        }
+
+        void unindex(CacheKey cacheKey) {
+            EntityKey entityKey = cacheKey.entity();
+            Set<CacheKey> keys = byEntity.get(entityKey);
+            if (keys != null && keys.remove(cacheKey) && keys.isEmpty()) {
+                byEntity.remove(entityKey);
+            }
+        }
+
+        void clear() {
+            entries.clear();
+            byEntity.clear();
+        }
+    }
+
+    private static class EntityKey {
+        final int dbId;
+        final boolean isNode;
+        final long id;
+
+        EntityKey(int dbId, boolean isNode, long id) {
+            this.dbId = dbId;
+            this.isNode = isNode;
+            this.id = id;
+        }
+
+        static int hash(int dbId, boolean isNode, long id) {
+            return (31 * dbId + (isNode ? 1 : 0)) * 31 + Long.hashCode(id * 0x9E3779B97F4A7C15L);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EntityKey)) return false;
+            EntityKey other = (EntityKey) o;
+            return dbId == other.dbId && isNode == other.isNode && id == other.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash(dbId, isNode, id);
+        }
+    }
+
+    private static class CacheKey {
+        final int dbId;
+        final boolean isNode;
+        final long id;
+        final String key;
+
+        CacheKey(int dbId, boolean isNode, long id, String key) {
+            this.dbId = dbId;
+            this.isNode = isNode;
+            this.id = id;
+            this.key = key;
+        }
+
+        EntityKey entity() {
+            return new EntityKey(dbId, isNode, id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return dbId == other.dbId && isNode == other.isNode && id == other.id && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = Objects.hash(dbId, isNode, id, key);
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private static class CacheEntry {
+        final Object value;
+
+        CacheEntry(Object value) {
+            this.value = value;
+        }
+    }
+}
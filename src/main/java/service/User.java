@@ -1,17 +1,31 @@
 package service;
 
+import java.util.Collections;
+import java.util.List;
+
+import config.PermissionConfig;
+
 // auth.enabled做持久化存储需要记录是哪个user或者是哪个database
 
 public class User { // 每个user的数据库放在target/{username}/{databaseName}下
     private String username;
     private String passwordHash;
     private boolean passwordChangeRequired;
+    // 角色列表，随用户信息一起从配置文件加载
+    private volatile List<String> roles = Collections.emptyList();
+    // 角色对应的位掩码，用于与路由权限做按位与
+    private volatile int roleMask = 0;
     
     public User(String username, String passwordHash, boolean passwordChangeRequired) {
         this.username = username;
         this.passwordHash = passwordHash;
         this.passwordChangeRequired = passwordChangeRequired;
     }
+
+    public User(String username, String passwordHash, boolean passwordChangeRequired, List<String> roles) {
+        this(username, passwordHash, passwordChangeRequired);
+        setRoles(roles);
+    }
     
     // Getters and setters
     public String getUsername() { return username; }
@@ -20,4 +34,10 @@ public class User { // 每个user的数据库放在target/{username}/{databaseNa
     public void setPasswordHash(String passwordHash) { this.passwordHash = passwordHash; }
     public boolean isPasswordChangeRequired() { return passwordChangeRequired; }
     public void setPasswordChangeRequired(boolean required) { this.passwordChangeRequired = required; }
+    public List<String> getRoles() { return roles; }
+    public int getRoleMask() { return roleMask; }
+    public void setRoles(List<String> roles) {
+        this.roles = roles;
+        this.roleMask = PermissionConfig.roleMask(roles);
+    }
 } 
\ No newline at end of file
@@ -7,15 +7,28 @@ import util.PasswordUtil;
 import util.ConfigFileStore;
 import util.ServerConfig;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 
 public class UserService {
     private static final Map<String, User> users = new ConcurrentHashMap<>();
+    // 用户配置文件监听线程
+    private static Thread watcher;
     
     public UserService() { // 构造函数
         // 从配置文件加载用户
         loadUsers();
+        startWatcher();
         
         // 如果没有用户，创建默认用户
         if (users.isEmpty()) {
@@ -24,29 +37,134 @@ public class UserService {
         }
     }
     
-    private void loadUsers() {
+    // 从配置文件加载用户及其角色；重新加载时原地更新已有的User对象，并移除文件中已删除的用户
+    private static synchronized void loadUsers() {
         Properties props = ConfigFileStore.loadUserCredentials();
-        props.stringPropertyNames().stream()
+        Set<String> usernames = props.stringPropertyNames().stream()
             .filter(key -> key.endsWith(".password"))
             .map(key -> key.substring(0, key.length() - 9))
-            .forEach(username -> {
-                String passwordHash = props.getProperty(username + ".password");
-                boolean passwordChangeRequired = Boolean.parseBoolean(
-                    props.getProperty(username + ".passwordChangeRequired", "false")
-                );
-                users.put(username, new User(username, passwordHash, passwordChangeRequired));
-            });
+            .collect(Collectors.toSet());
+        for (String username : usernames) {
+            String passwordHash = props.getProperty(username + ".password");
+            boolean passwordChangeRequired = Boolean.parseBoolean(
+                props.getProperty(username + ".passwordChangeRequired", "false")
+            );
+            List<String> roles = parseRoles(props.getProperty(username + ".roles", ""));
+            User user = users.get(username);
+            if (user == null) {
+                users.put(username, new User(username, passwordHash, passwordChangeRequired, roles));
+            } else {
+                user.setPasswordHash(passwordHash);
+                user.setPasswordChangeRequired(passwordChangeRequired);
+                user.setRoles(roles);
+            }
+        }
+        // 文件读不到任何用户时多半是正在写入或读取失败，不据此删除用户
+        if (usernames.isEmpty()) {
+            return;
+        }
+        for (String username : new ArrayList<>(users.keySet())) {
+            if (!usernames.contains(username)) {
+                removeUser(username);
+            }
+        }
+    }
+    
+    // 移除用户：清除缓存的凭据并吊销该用户的所有会话，已登录的请求随即失去身份
+    private static void removeUser(String username) {
+        users.remove(username);
+        CredentialCache.invalidateUser(username);
+        SessionManager.invalidateUser(username);
+        System.out.println("用户 " + username + " 已从配置文件中删除，已吊销其会话");
+    }
+    
+    private static List<String> parseRoles(String rolesValue) {
+        if (rolesValue.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> roles = new ArrayList<>();
+        for (String role : rolesValue.split(",")) {
+            if (!role.trim().isEmpty()) {
+                roles.add(role.trim());
+            }
+        }
+        return Collections.unmodifiableList(roles);
+    }
+    
+    // 监听配置目录，用户配置文件被修改（例如手工调整角色）后重新加载
+    private static synchronized void startWatcher() {
+        if (watcher != null) {
+            return;
+        }
+        File file = ConfigFileStore.getUserCredentialsFile();
+        Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        String fileName = file.getName();
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watcher = new Thread(() -> {
+                while (true) {
+                    WatchKey key;
+                    try {
+                        key = watchService.take();
+                        // 等待写入完成，并合并同一次保存产生的多个事件
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() != null && fileName.equals(event.context().toString())) {
+                            changed = true;
+                        }
+                    }
+                    key.reset();
+                    if (changed) {
+                        loadUsers();
+                        System.out.println("用户配置文件已变更，重新加载 " + users.size() + " 个用户");
+                    }
+                }
+            }, "user-config-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException e) {
+            System.err.println("无法监听用户配置文件，角色修改需重启后生效: " + e.getMessage());
+        }
     }
     
     private void createUser(String username, String passwordHash, boolean passwordChangeRequired) {
-        users.put(username, new User(username, passwordHash, passwordChangeRequired));
-        ConfigFileStore.saveUserCredentials(username, passwordHash, passwordChangeRequired);
+        // 与重新加载互斥，避免已加入内存但尚未写入文件的用户被当作已删除
+        synchronized (UserService.class) {
+            users.put(username, new User(username, passwordHash, passwordChangeRequired));
+            ConfigFileStore.saveUserCredentials(username, passwordHash, passwordChangeRequired);
+        }
     }
     
     public User getUserStatus(String username) {
         return users.get(username);
     }
     
+    /**
+     * 校验用户名和密码（Basic Auth 使用）
+     * 有效期内校验成功过的凭据直接命中缓存，不再重复 bcrypt 计算
+     * @return 校验成功返回用户，否则返回null
+     */
+    public User authenticate(String username, String password) {
+        User user = users.get(username);
+        if (user == null) {
+            return null;
+        }
+        String passwordHash = user.getPasswordHash();
+        if (CredentialCache.isVerified(username, password, passwordHash)) {
+            return user;
+        }
+        if (!PasswordUtil.checkPassword(password, passwordHash)) {
+            return null;
+        }
+        CredentialCache.markVerified(username, password, passwordHash);
+        return user;
+    }
+    
     public boolean changePassword(String username, String currentPassword, String newPassword) {
         User user = users.get(username);
         if (user == null) return false;
@@ -60,11 +178,15 @@ public class UserService {
         }
         
         String newHash = PasswordUtil.hashPassword(newPassword);
-        user.setPasswordHash(newHash);
-        user.setPasswordChangeRequired(false);
-        
-        // 保存到配置文件
-        ConfigFileStore.saveUserCredentials(username, newHash, false);
+        synchronized (UserService.class) {
+            user.setPasswordHash(newHash);
+            user.setPasswordChangeRequired(false);
+            // 旧密码的缓存凭据立即失效
+            CredentialCache.invalidateUser(username);
+            
+            // 保存到配置文件
+            ConfigFileStore.saveUserCredentials(username, newHash, false);
+        }
         return true;
     }
     
@@ -92,11 +214,16 @@ public class UserService {
         // 对密码进行哈希处理
         String passwordHash = PasswordUtil.hashPassword(password);
         
-        // 创建用户
-        users.put(username, new User(username, passwordHash, false));
-        
-        // 保存用户信息到配置文件
-        ConfigFileStore.saveUserCredentials(username, passwordHash, false);
+        synchronized (UserService.class) {
+            if (users.containsKey(username)) {
+                return "用户名已存在";
+            }
+            // 创建用户
+            users.put(username, new User(username, passwordHash, false));
+            
+            // 保存用户信息到配置文件
+            ConfigFileStore.saveUserCredentials(username, passwordHash, false);
+        }
         
         return null; // 返回null表示成功
     }
@@ -126,16 +253,8 @@ public class UserService {
             return Collections.emptyList();
         }
         
-        // 从配置文件加载所有用户配置
-        Properties props = ConfigFileStore.loadUserCredentials();
-        
-        // 获取指定用户的角色配置
-        String rolesValue = props.getProperty(username + ".roles", "");
-        if (rolesValue.isEmpty()) {
-            return Collections.emptyList();
-        }
-        
-        // 分割并返回角色列表
-        return Arrays.asList(rolesValue.split(","));
+        // 角色随用户信息常驻内存，配置文件变更时由监听线程刷新
+        User user = users.get(username);
+        return user == null ? Collections.emptyList() : user.getRoles();
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package tgraph;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台执行备份和恢复任务
+ * 请求提交任务后立即返回任务编号，任务在固定大小的线程池中排队执行，进度和结果通过 BackupProgress 查询。
+ * 排队中被取消的任务不再执行，执行中被取消的任务在下一次汇报进度时中止。
+ */
+public class BackupJobs {
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "backup-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private BackupJobs() {
+    }
+
+    /**
+     * 设置同时执行的任务数，其余任务排队
+     */
+    public static synchronized void init(int maxConcurrentJobs) {
+        int count = Math.max(1, maxConcurrentJobs);
+        if (count > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(count);
+            executor.setCorePoolSize(count);
+        } else {
+            executor.setCorePoolSize(count);
+            executor.setMaximumPoolSize(count);
+        }
+    }
+
+    /**
+     * 任务的执行内容
+     */
+    @FunctionalInterface
+    interface Task {
+        void run(BackupProgress.Operation operation) throws Exception;
+    }
+
+    /**
+     * 提交一个任务
+     * @param type backup 或 restore
+     * @param database 数据库（DatabaseRegistry 的键）
+     * @param file 备份文件名
+     * @throws IllegalStateException 同一个数据库已有备份或恢复任务排队或进行时。
+     *         恢复会关闭并替换数据库，不能与同一个数据库的备份同时进行
+     */
+    static synchronized BackupProgress.Operation submit(String type, String database, String file, Task task) {
+        BackupProgress.Operation existing = BackupProgress.findActive(database);
+        if (existing != null) {
+            throw new IllegalStateException("数据库 " + database + " 已有" + ("backup".equals(existing.getType()) ? "备份" : "恢复")
+                + "任务在进行（任务 " + existing.getId() + "）");
+        }
+        BackupProgress.Operation operation = BackupProgress.start(type, database, file);
+        executor.execute(() -> run(operation, task));
+        return operation;
+    }
+
+    private static void run(BackupProgress.Operation operation, Task task) {
+        if (operation.isCancelRequested()) {
+            operation.markCancelled();
+            BackupProgress.finish(operation, null);
+            return;
+        }
+        BackupProgress.markRunning(operation);
+        String error = null;
+        try {
+            task.run(operation);
+        } catch (CancellationException e) {
+            operation.markCancelled();
+            System.out.println("任务 " + operation.getId() + " 已取消");
+        } catch (Exception e) {
+            error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            System.err.println("任务 " + operation.getId() + " 失败: " + error);
+        } finally {
+            BackupProgress.finish(operation, error);
+        }
+    }
+}
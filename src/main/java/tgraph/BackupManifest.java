@@ -0,0 +1,208 @@
+package tgraph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 备份清单
+ * 每个备份在备份目录下的 .manifests 中有一个同名清单，记录备份时每个文件的大小、修改时间和 CRC32，
+ * 以及该文件在本备份中的存放方式：
+ * full 为完整文件，append 为从 offset 开始追加的部分（时态存储文件大多只追加），same 为与上一个备份相同、不在本备份中。
+ * 增量备份通过 parent 指向上一个备份，恢复时从完整备份开始依次应用。
+ *
+ * 旧的备份没有清单，只能作为完整备份恢复，不能作为增量备份的基础。
+ */
+public class BackupManifest {
+
+    public static final String FULL = "full";
+    public static final String INCREMENTAL = "incremental";
+    // 文件的存放方式，完整文件同样使用 FULL
+    static final String APPEND = "append";
+    static final String SAME = "same";
+
+    private static final String MANIFEST_DIR = ".manifests";
+    private static final String SUFFIX = ".manifest";
+    // 备份链的最大长度，防止清单中的 parent 形成环
+    private static final int MAX_CHAIN_LENGTH = 10000;
+
+    String name;
+    String type = FULL;
+    String parent = "";
+    String username = "";
+    String database = "";
+    // zip 中的根目录
+    String root = "";
+    long createdAt = 0;
+    final Map<String, FileRecord> files = new LinkedHashMap<>();
+
+    BackupManifest(String name) {
+        this.name = name;
+    }
+
+    public String getName() { return name; }
+    public String getType() { return type; }
+    public String getParent() { return parent; }
+    public boolean isIncremental() { return INCREMENTAL.equals(type); }
+
+    /**
+     * 清单文件的位置
+     * @param backupFile 备份文件
+     */
+    static File manifestFile(File backupFile) {
+        return new File(new File(backupFile.getParentFile(), MANIFEST_DIR), backupFile.getName() + SUFFIX);
+    }
+
+    /**
+     * 读取备份的清单
+     * @return 备份没有清单时返回null
+     */
+    static BackupManifest load(File backupFile) throws IOException {
+        File file = manifestFile(backupFile);
+        if (!file.exists()) {
+            return null;
+        }
+        BackupManifest manifest = new BackupManifest(backupFile.getName());
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("file\t")) {
+                    String[] parts = line.split("\t", 7);
+                    if (parts.length != 7) {
+                        throw new IOException("备份清单格式错误: " + file.getName());
+                    }
+                    FileRecord record = new FileRecord(parts[6], Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                        Long.parseLong(parts[3]), parts[4], Long.parseLong(parts[5]));
+                    manifest.files.put(record.path, record);
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                String value = line.substring(eq + 1);
+                switch (line.substring(0, eq)) {
+                    case "type": manifest.type = value; break;
+                    case "parent": manifest.parent = value; break;
+                    case "username": manifest.username = value; break;
+                    case "database": manifest.database = value; break;
+                    case "root": manifest.root = value; break;
+                    case "created_at": manifest.createdAt = Long.parseLong(value); break;
+                    default: break;
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * 写入清单，先写临时文件再改名
+     */
+    void save(File backupFile) throws IOException {
+        File file = manifestFile(backupFile);
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("type=" + type + "\n");
+            writer.write("parent=" + parent + "\n");
+            writer.write("username=" + username + "\n");
+            writer.write("database=" + database + "\n");
+            writer.write("root=" + root + "\n");
+            writer.write("created_at=" + createdAt + "\n");
+            for (FileRecord record : files.values()) {
+                writer.write("file\t" + record.size + "\t" + record.mtime + "\t" + record.crc + "\t"
+                    + record.kind + "\t" + record.offset + "\t" + record.path + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 从完整备份开始到该备份的整条备份链，链上每个备份文件和清单都必须存在
+     * @return 依次应用的备份，第一个为完整备份；备份没有清单时返回null
+     * @throws IOException 链不完整时
+     */
+    static LinkedList<BackupManifest> chain(File backupFile) throws IOException {
+        BackupManifest current = load(backupFile);
+        if (current == null) {
+            return null;
+        }
+        LinkedList<BackupManifest> chain = new LinkedList<>();
+        while (true) {
+            chain.addFirst(current);
+            if (!current.isIncremental()) {
+                return chain;
+            }
+            File parentFile = new File(backupFile.getParentFile(), current.parent);
+            BackupManifest parent = parentFile.exists() ? load(parentFile) : null;
+            if (parent == null || chain.size() > MAX_CHAIN_LENGTH) {
+                throw new IOException("增量备份链不完整，缺少备份 " + current.parent);
+            }
+            current = parent;
+        }
+    }
+
+    /**
+     * 查找同一个数据库最近一次可以完整恢复的备份清单，其整条备份链都必须存在
+     * @return 没有可用的备份时返回null
+     */
+    static BackupManifest latest(File backupDir, String username, String dbName) throws IOException {
+        File[] manifestFiles = new File(backupDir, MANIFEST_DIR).listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (manifestFiles == null) {
+            return null;
+        }
+        List<BackupManifest> candidates = new ArrayList<>();
+        for (File file : manifestFiles) {
+            String backupName = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+            File backupFile = new File(backupDir, backupName);
+            if (!backupFile.exists()) {
+                continue;
+            }
+            BackupManifest manifest = load(backupFile);
+            if (manifest != null && username.equals(manifest.username) && dbName.equals(manifest.database)) {
+                candidates.add(manifest);
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(b.createdAt, a.createdAt));
+        for (BackupManifest candidate : candidates) {
+            try {
+                chain(new File(backupDir, candidate.name));
+                return candidate;
+            } catch (IOException e) {
+                // 链上有备份被删除，不能作为增量备份的基础
+                System.out.println("备份 " + candidate.name + " 的备份链不完整，不作为增量备份的基础: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 清单中的一个文件
+     */
+    static class FileRecord {
+        final String path;
+        final long size;
+        final long mtime;
+        final long crc;
+        final String kind;
+        final long offset;
+
+        FileRecord(String path, long size, long mtime, long crc, String kind, long offset) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+            this.crc = crc;
+            this.kind = kind;
+            this.offset = offset;
+        }
+    }
+}
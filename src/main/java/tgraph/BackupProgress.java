@@ -0,0 +1,258 @@
+package tgraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 备份和恢复任务的进度
+ * 记录排队中、正在进行和最近完成的任务：已处理的字节数和文件数、备份文件的字节数、吞吐量和预计剩余时间。
+ * 任务可以被取消，取消在下一次汇报进度时生效。
+ */
+public class BackupProgress {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    // 保留最近完成的任务数
+    private static final int HISTORY_SIZE = 100;
+
+    private static final AtomicLong idGenerator = new AtomicLong();
+    private static final Map<Long, Operation> active = new ConcurrentHashMap<>();
+    private static final Deque<Operation> recent = new ArrayDeque<>();
+
+    private BackupProgress() {
+    }
+
+    /**
+     * 登记一个排队中的任务
+     * @param type backup 或 restore
+     */
+    public static Operation start(String type, String database, String file) {
+        Operation operation = new Operation(idGenerator.incrementAndGet(), type, database, file);
+        active.put(operation.id, operation);
+        return operation;
+    }
+
+    /**
+     * 任务开始执行
+     */
+    static void markRunning(Operation operation) {
+        operation.startedAt = System.currentTimeMillis();
+        operation.state = RUNNING;
+    }
+
+    /**
+     * 记录任务结束
+     * 只有任务确实因取消而中止时才记为 cancelled，请求取消后任务仍然执行完成的记为 succeeded
+     * @param error 失败原因，成功时为null
+     */
+    public static void finish(Operation operation, String error) {
+        operation.error = error;
+        operation.endedAt = System.currentTimeMillis();
+        operation.state = operation.cancelled ? CANCELLED : (error == null ? SUCCEEDED : FAILED);
+        active.remove(operation.id);
+        synchronized (recent) {
+            recent.addFirst(operation);
+            while (recent.size() > HISTORY_SIZE) {
+                recent.removeLast();
+            }
+        }
+    }
+
+    /**
+     * 按编号查找任务
+     * @return 不存在（或已不在历史中）时返回null
+     */
+    public static Operation get(long id) {
+        Operation operation = active.get(id);
+        if (operation != null) {
+            return operation;
+        }
+        synchronized (recent) {
+            for (Operation finished : recent) {
+                if (finished.id == id) {
+                    return finished;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找同一个数据库排队中或正在进行的任务（备份或恢复）
+     * @return 没有时返回null
+     */
+    static Operation findActive(String database) {
+        for (Operation operation : active.values()) {
+            if (operation.database.equals(database)) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 取消任务
+     * @return 未能取消时返回原因，成功返回null
+     */
+    public static String cancel(long id) {
+        Operation operation = active.get(id);
+        if (operation == null) {
+            return get(id) == null ? "任务不存在" : "任务已结束";
+        }
+        operation.cancelRequested = true;
+        System.out.println("已请求取消" + ("backup".equals(operation.type) ? "备份" : "恢复") + "任务 " + id);
+        return null;
+    }
+
+    /**
+     * 获取排队中、正在进行和最近完成的任务
+     */
+    public static Map<String, Object> getStatus() {
+        List<Map<String, Object>> running = new ArrayList<>();
+        for (Operation operation : active.values()) {
+            running.add(operation.toMap());
+        }
+        List<Map<String, Object>> finished = new ArrayList<>();
+        synchronized (recent) {
+            for (Operation operation : recent) {
+                finished.add(operation.toMap());
+            }
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("active", running);
+        status.put("history", finished);
+        return status;
+    }
+
+    /**
+     * 一次备份或恢复任务
+     */
+    public static class Operation {
+        private final long id;
+        private final String type;
+        private final String database;
+        private volatile String file;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long startedAt = 0;
+        private volatile long endedAt = 0;
+        private volatile String state = QUEUED;
+        private volatile String error = null;
+        private volatile boolean cancelRequested = false;
+        // 任务是否因取消而中止
+        private volatile boolean cancelled = false;
+        // 需要处理的数据库文件字节数和文件数，开始复制前确定
+        private final AtomicLong totalBytes = new AtomicLong();
+        private final AtomicInteger totalFiles = new AtomicInteger();
+        // 已处理的字节数（读取或写入的数据库文件），以及增量备份中未变化而跳过的字节数
+        private final AtomicLong rawBytes = new AtomicLong();
+        private final AtomicLong skippedBytes = new AtomicLong();
+        private final AtomicInteger processedFiles = new AtomicInteger();
+        // 写入或读取的备份文件字节数
+        private final AtomicLong archiveBytes = new AtomicLong();
+
+        Operation(long id, String type, String database, String file) {
+            this.id = id;
+            this.type = type;
+            this.database = database;
+            this.file = file;
+        }
+
+        public long getId() { return id; }
+        public String getType() { return type; }
+        public String getState() { return state; }
+        public String getFile() { return file; }
+
+        void setFile(String file) {
+            this.file = file;
+        }
+
+        void addTotal(long bytes, int files) {
+            totalBytes.addAndGet(bytes);
+            totalFiles.addAndGet(files);
+        }
+
+        void addRawBytes(long bytes) {
+            checkCancelled();
+            rawBytes.addAndGet(bytes);
+        }
+
+        void addSkippedBytes(long bytes) {
+            skippedBytes.addAndGet(bytes);
+        }
+
+        void addArchiveBytes(long bytes) {
+            checkCancelled();
+            archiveBytes.addAndGet(bytes);
+        }
+
+        void fileProcessed() {
+            processedFiles.incrementAndGet();
+        }
+
+        /**
+         * 任务已被取消时抛出 CancellationException，中止复制或解压
+         */
+        void checkCancelled() {
+            if (cancelRequested) {
+                throw new CancellationException("任务已取消");
+            }
+        }
+
+        boolean isCancelRequested() {
+            return cancelRequested;
+        }
+
+        /**
+         * 任务因取消而中止（排队中被跳过，或执行中抛出了 CancellationException）
+         */
+        void markCancelled() {
+            cancelled = true;
+        }
+
+        public Map<String, Object> toMap() {
+            long end = endedAt == 0 ? System.currentTimeMillis() : endedAt;
+            long elapsed = startedAt == 0 ? 0 : Math.max(1, end - startedAt);
+            long processed = rawBytes.get();
+            long done = processed + skippedBytes.get();
+            long total = Math.max(totalBytes.get(), done);
+            double throughput = elapsed == 0 ? 0 : processed / 1048576.0 / (elapsed / 1000.0);
+
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", id);
+            item.put("type", type);
+            item.put("database", database);
+            item.put("file", file);
+            item.put("state", state);
+            item.put("created_at", createdAt);
+            item.put("started_at", startedAt);
+            item.put("ended_at", endedAt);
+            item.put("elapsed_ms", elapsed);
+            item.put("total_bytes", total);
+            item.put("processed_bytes", processed);
+            item.put("skipped_bytes", skippedBytes.get());
+            item.put("total_files", totalFiles.get());
+            item.put("processed_files", processedFiles.get());
+            item.put("archive_bytes", archiveBytes.get());
+            item.put("progress", total == 0 ? (endedAt == 0 ? 0.0 : 1.0) : (double) done / total);
+            item.put("throughput_mb_per_second", throughput);
+            // 按当前吞吐量估算剩余秒数，尚无数据时为-1
+            long remaining = total - done;
+            item.put("eta_seconds", endedAt != 0 ? 0 : (processed == 0 || total == 0 ? -1
+                : (long) Math.ceil(remaining / (processed / (elapsed / 1000.0)))));
+            item.put("error", error);
+            return item;
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package tgraph;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 分块压缩的备份文件（.tgbk）
+ * 文件内容被切成固定大小的块，每块单独 deflate，因此备份时可以多线程并行压缩并按顺序直接写入目标文件，
+ * 恢复时也可以多线程并行解压并按偏移直接写入各个文件。块之间没有共享字典，压缩率比 zip 略低。
+ *
+ * 文件格式（整数均为大端）：
+ *   魔数 "TGBA"，版本号 int
+ *   记录序列，每条记录以类型字节开头：
+ *     'E' 条目：条目编号 int，名称长度 int，名称（UTF-8），起始偏移 long
+ *         起始偏移大于0表示追加，恢复时文件先截断到该偏移
+ *     'B' 块：条目编号 int，文件内偏移 long，原始长度 int，压缩方法 byte（0 不压缩，1 deflate），
+ *         存储长度 int，原始数据的 CRC32 int，存储的数据
+ *     'Z' 结束，没有结束记录的文件视为不完整
+ */
+public class BlockArchive {
+
+    public static final String EXTENSION = ".tgbk";
+
+    private static final int MAGIC = 0x54474241;
+    private static final int VERSION = 1;
+    static final int BLOCK_SIZE = 4 << 20;
+    private static final int BLOCK_HEADER_SIZE = 1 + 4 + 8 + 4 + 1 + 4 + 4;
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+
+    private static volatile int level = Deflater.BEST_SPEED;
+    private static volatile int threads = Runtime.getRuntime().availableProcessors();
+    private static volatile ExecutorService pool = newPool(threads);
+
+    // 压缩和解压线程各自复用的缓冲区
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<ByteBuffer> readBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BLOCK_SIZE));
+    private static final ThreadLocal<ByteBuffer> inflateBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BLOCK_SIZE));
+
+    private BlockArchive() {
+    }
+
+    /**
+     * 设置压缩线程数和压缩级别
+     * @param threadCount 压缩和解压的线程数，不大于0时使用 CPU 核数
+     * @param compressionLevel deflate 压缩级别（1-9）
+     */
+    public static synchronized void init(int threadCount, int compressionLevel) {
+        int count = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
+        if (count != threads) {
+            ExecutorService old = pool;
+            threads = count;
+            pool = newPool(count);
+            old.shutdown();
+        }
+    }
+
+    private static ExecutorService newPool(int count) {
+        return Executors.newFixedThreadPool(count, r -> {
+            Thread thread = new Thread(r, "backup-compression");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 顺序写入条目和数据，压缩在线程池中并行进行，写出保持原顺序
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+        private final int maxPending;
+        private final LongConsumer onWritten;
+        private int entryCount = 0;
+        private int currentEntry = -1;
+        private long entryOffset = 0;
+        private byte[] block = new byte[BLOCK_SIZE];
+        private int blockLength = 0;
+
+        /**
+         * @param onWritten 每写出一条记录时以写出的字节数回调
+         */
+        public Writer(File file, LongConsumer onWritten) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.maxPending = threads * 2;
+            this.onWritten = onWritten;
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(header);
+        }
+
+        /**
+         * 开始一个条目
+         * @param name 条目名称，即相对于恢复目录的路径
+         * @param startOffset 数据在文件中的起始偏移，追加时为原文件长度
+         */
+        public void beginEntry(String name, long startOffset) throws IOException {
+            flushBlock();
+            currentEntry = entryCount++;
+            entryOffset = startOffset;
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(1 + 4 + 4 + nameBytes.length + 8);
+            record.put((byte) 'E').putInt(currentEntry).putInt(nameBytes.length).put(nameBytes).putLong(startOffset).flip();
+            enqueue(CompletableFuture.completedFuture(record));
+        }
+
+        public void write(byte[] data, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, BLOCK_SIZE - blockLength);
+                System.arraycopy(data, off, block, blockLength, n);
+                blockLength += n;
+                off += n;
+                len -= n;
+                if (blockLength == BLOCK_SIZE) {
+                    flushBlock();
+                }
+            }
+        }
+
+        /**
+         * 写入结束记录并等待所有块写出
+         */
+        public void finish() throws IOException {
+            flushBlock();
+            ByteBuffer end = ByteBuffer.allocate(1);
+            end.put((byte) 'Z').flip();
+            enqueue(CompletableFuture.completedFuture(end));
+            while (!pending.isEmpty()) {
+                drainOne();
+            }
+            channel.force(false);
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockLength == 0) {
+                return;
+            }
+            byte[] raw = block;
+            int length = blockLength;
+            int entry = currentEntry;
+            long offset = entryOffset;
+            entryOffset += length;
+            block = new byte[BLOCK_SIZE];
+            blockLength = 0;
+            enqueue(pool.submit(() -> encodeBlock(entry, offset, raw, length)));
+        }
+
+        // 限制排队的块数，控制内存占用
+        private void enqueue(Future<ByteBuffer> record) throws IOException {
+            pending.add(record);
+            while (pending.size() > maxPending) {
+                drainOne();
+            }
+        }
+
+        private void drainOne() throws IOException {
+            ByteBuffer record = await(pending.poll());
+            int length = record.remaining();
+            writeFully(record);
+            onWritten.accept(length);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Future<ByteBuffer> record : pending) {
+                record.cancel(true);
+            }
+            pending.clear();
+            channel.close();
+        }
+    }
+
+    private static ByteBuffer encodeBlock(int entry, long offset, byte[] raw, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, length);
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        byte[] compressed = new byte[length];
+        int compressedLength = 0;
+        while (!deflater.finished() && compressedLength < compressed.length) {
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        // 压缩后不更小（已压缩的数据）时原样存储
+        boolean stored = !deflater.finished() || compressedLength >= length;
+        byte[] data = stored ? raw : compressed;
+        int dataLength = stored ? length : compressedLength;
+
+        ByteBuffer record = ByteBuffer.allocate(BLOCK_HEADER_SIZE + dataLength);
+        record.put((byte) 'B').putInt(entry).putLong(offset).putInt(length)
+            .put(stored ? STORED : DEFLATED).putInt(dataLength).putInt((int) crc.getValue())
+            .put(data, 0, dataLength).flip();
+        return record;
+    }
+
+    /**
+     * 把备份文件解压到目录中，各块并行解压
+     * @param onRestored 每恢复一块时以原始字节数回调，可能在多个线程中调用
+     * @return 恢复的原始字节数
+     */
+    public static long extract(File archive, File targetDir, LongConsumer onRestored) throws IOException {
+        try (FileChannel in = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readAt(in, 0, 8);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("不是分块备份文件: " + archive.getName());
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的备份文件版本: " + version);
+            }
+
+            // 先顺序扫描记录头，得到所有条目和块的位置
+            Path root = targetDir.toPath().toAbsolutePath().normalize();
+            Map<Integer, Path> entries = new HashMap<>();
+            List<Block> blocks = new ArrayList<>();
+            try (OutputChannels outputs = new OutputChannels(entries)) {
+                long position = 8;
+                boolean complete = false;
+                while (!complete) {
+                    byte type = readAt(in, position, 1).get();
+                    if (type == 'Z') {
+                        complete = true;
+                    } else if (type == 'E') {
+                        ByteBuffer entry = readAt(in, position + 1, 8);
+                        int index = entry.getInt();
+                        int nameLength = entry.getInt();
+                        if (nameLength < 0 || nameLength > 65536) {
+                            throw new IOException("备份文件已损坏: " + archive.getName());
+                        }
+                        ByteBuffer rest = readAt(in, position + 9, nameLength + 8);
+                        byte[] nameBytes = new byte[nameLength];
+                        rest.get(nameBytes);
+                        long startOffset = rest.getLong();
+                        String name = new String(nameBytes, StandardCharsets.UTF_8);
+                        Path file = root.resolve(name).normalize();
+                        // 条目不能写到恢复目录之外
+                        if (!file.startsWith(root) || file.equals(root)) {
+                            throw new IOException("备份文件中的条目路径不合法: " + name);
+                        }
+                        Files.createDirectories(file.getParent());
+                        // 完整文件从头写，追加的文件截断到原长度
+                        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                            out.truncate(startOffset);
+                        }
+                        entries.put(index, file);
+                        position += 9 + nameLength + 8;
+                    } else if (type == 'B') {
+                        ByteBuffer blockHeader = readAt(in, position + 1, BLOCK_HEADER_SIZE - 1);
+                        Block block = new Block(blockHeader.getInt(), blockHeader.getLong(), blockHeader.getInt(),
+                            blockHeader.get(), blockHeader.getInt(), blockHeader.getInt(), position + BLOCK_HEADER_SIZE);
+                        if (!entries.containsKey(block.entry) || block.rawLength > BLOCK_SIZE || block.storedLength > BLOCK_SIZE) {
+                            throw new IOException("备份文件已损坏: " + archive.getName());
+                        }
+                        blocks.add(block);
+                        position = block.dataPosition + block.storedLength;
+                    } else {
+                        throw new IOException("备份文件已损坏: " + archive.getName());
+                    }
+                }
+
+                List<Future<?>> futures = new ArrayList<>(blocks.size());
+                for (Block block : blocks) {
+                    futures.add(pool.submit(() -> {
+                        OutputChannels.Handle out = outputs.acquire(block.entry);
+                        try {
+                            decodeBlock(in, block, out.channel);
+                        } finally {
+                            outputs.release(out);
+                        }
+                        onRestored.accept(block.rawLength);
+                        return null;
+                    }));
+                }
+                long total = 0;
+                try {
+                    for (int i = 0; i < futures.size(); i++) {
+                        await(futures.get(i));
+                        total += blocks.get(i).rawLength;
+                    }
+                } finally {
+                    for (Future<?> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+                return total;
+            }
+        }
+    }
+
+    /**
+     * 解压时各条目的输出文件
+     * 按需打开，最多同时保持 MAX_OPEN_FILES 个，超过时关闭最久未用且没有线程在写的文件，
+     * 避免时态存储文件很多时耗尽文件句柄
+     */
+    private static class OutputChannels implements Closeable {
+        private static final int MAX_OPEN_FILES = 64;
+
+        private final Map<Integer, Path> entries;
+        // 按访问顺序排列，最久未用的在前
+        private final LinkedHashMap<Integer, Handle> open = new LinkedHashMap<>(16, 0.75f, true);
+
+        OutputChannels(Map<Integer, Path> entries) {
+            this.entries = entries;
+        }
+
+        synchronized Handle acquire(int entry) throws IOException {
+            Handle handle = open.get(entry);
+            if (handle == null) {
+                handle = new Handle(FileChannel.open(entries.get(entry), StandardOpenOption.WRITE));
+                open.put(entry, handle);
+            }
+            handle.users++;
+            evict();
+            return handle;
+        }
+
+        synchronized void release(Handle handle) throws IOException {
+            handle.users--;
+            evict();
+        }
+
+        private void evict() throws IOException {
+            Iterator<Handle> iterator = open.values().iterator();
+            while (open.size() > MAX_OPEN_FILES && iterator.hasNext()) {
+                Handle handle = iterator.next();
+                if (handle.users == 0) {
+                    iterator.remove();
+                    handle.channel.close();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            IOException error = null;
+            for (Handle handle : open.values()) {
+                try {
+                    handle.channel.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            open.clear();
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        static class Handle {
+            final FileChannel channel;
+            int users = 0;
+
+            Handle(FileChannel channel) {
+                this.channel = channel;
+            }
+        }
+    }
+
+    private static void decodeBlock(FileChannel in, Block block, FileChannel out) throws IOException, DataFormatException {
+        ByteBuffer stored = readBuffers.get();
+        stored.clear().limit(block.storedLength);
+        readFully(in, stored, block.dataPosition);
+        stored.flip();
+
+        ByteBuffer raw;
+        if (block.method == STORED) {
+            raw = stored;
+        } else {
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(stored);
+            raw = inflateBuffers.get();
+            raw.clear().limit(block.rawLength);
+            while (raw.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(raw) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            raw.flip();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw.duplicate());
+        if (raw.remaining() != block.rawLength || (int) crc.getValue() != block.crc) {
+            throw new IOException("备份文件数据块校验失败");
+        }
+        long position = block.offset;
+        while (raw.hasRemaining()) {
+            position += out.write(raw, position);
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("备份文件不完整");
+            }
+            position += n;
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("备份被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof CancellationException) {
+                // 任务被取消，原样抛出
+                throw (CancellationException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    // 扫描得到的一个数据块
+    private static class Block {
+        final int entry;
+        final long offset;
+        final int rawLength;
+        final byte method;
+        final int storedLength;
+        final int crc;
+        final long dataPosition;
+
+        Block(int entry, long offset, int rawLength, byte method, int storedLength, int crc, long dataPosition) {
+            this.entry = entry;
+            this.offset = offset;
+            this.rawLength = rawLength;
+            this.method = method;
+            this.storedLength = storedLength;
+            this.crc = crc;
+            this.dataPosition = dataPosition;
+        }
+    }
+}
@@ -1,23 +1,76 @@
 package tgraph;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 数据库空间统计工具
  * 用于统计TGraph数据库的存储空间使用情况
+ *
+ * 每个数据库目录只遍历一次，按路径把文件归入 Neo4j 数据、Neo4j 索引和时态节点/关系的数据与索引。
+ * 结果缓存在内存中，请求时直接返回；查询过的数据库由后台线程定期重新统计，
+ * 每次统计记录一个样本，用于计算各部分的增长速度。
  */
 public class DBSpace {
-    
+
     private static final String TARGET_DIR = "target"; // 目标目录
-    private static final Gson gson = new Gson();
-    
+
+    // 统计的各部分，顺序即返回的顺序
+    private static final String NEO_DATA = "neo_data";
+    private static final String NEO_INDEX = "neo_index";
+    private static final String TP_NODE_DATA = "tp_node_data";
+    private static final String TP_NODE_INDEX = "tp_node_index";
+    private static final String TP_REL_DATA = "tp_rel_data";
+    private static final String TP_REL_INDEX = "tp_rel_index";
+    private static final String[] COMPONENTS = {NEO_DATA, NEO_INDEX, TP_NODE_DATA, TP_NODE_INDEX, TP_REL_DATA, TP_REL_INDEX};
+
+    private static final String TP_NODE_DIR = "temporal.node.properties";
+    private static final String TP_REL_DIR = "temporal.relationship.properties";
+
+    // 保留的历史样本数，按默认间隔约为一天
+    private static final int HISTORY_SIZE = 288;
+
+    private static volatile long refreshMillis = TimeUnit.MINUTES.toMillis(5);
+    private static final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "db-space-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static ScheduledFuture<?> refreshTask = null;
+
+    private DBSpace() {
+    }
+
+    /**
+     * 设置后台重新统计的间隔
+     * @param refreshSeconds 统计结果的有效期和重新统计的间隔（秒）
+     */
+    public static synchronized void init(int refreshSeconds) {
+        refreshMillis = TimeUnit.SECONDS.toMillis(Math.max(1, refreshSeconds));
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+        refreshTask = refresher.scheduleWithFixedDelay(DBSpace::refreshAll, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * 获取数据库空间使用情况的API响应
      * @param username 用户名
@@ -26,43 +79,49 @@ public class DBSpace {
      */
     public static Map<String, Object> getSpaceStatsResponse(String username, String dbName) {
         String dbPath = TARGET_DIR + File.separator + username + File.separator + dbName;
-        String statsJson = tgraphSize(new File(dbPath));
         Map<String, Object> response = new HashMap<>();
-        
+
         try {
-            // 解析为Map并添加日志文件大小
-            Map<String, Object> statsMap = gson.fromJson(statsJson, new TypeToken<Map<String, Object>>(){}.getType());
-            
+            Entry entry = cache.get(dbPath);
+            if (entry == null) {
+                entry = new Entry(dbPath);
+                // 只缓存存在的数据库，不存在时统计结果均为0
+                if (new File(dbPath).isDirectory()) {
+                    Entry existing = cache.putIfAbsent(dbPath, entry);
+                    entry = existing == null ? entry : existing;
+                }
+            }
+            Sample sample = entry.get();
+
             // 获取日志文件大小
-            File logFile = new File(dbPath, "messages.log");
-            long logSize = logFile.exists() ? logFile.length() : 0;
             File httpLogFile = new File(TARGET_DIR, "logs" + File.separator + username +  ".log");
             long httpLogSize = httpLogFile.exists() ? httpLogFile.length() : 0;
 
             // 为统计结果添加单位
             Map<String, Object> formattedStatsMap = new HashMap<>();
-            for (Map.Entry<String, Object> entry : statsMap.entrySet()) {
-                if (entry.getValue() instanceof Number) {
-                    double size = ((Number) entry.getValue()).doubleValue();
-                    formattedStatsMap.put(entry.getKey(), formatFileSize(size));
-                } else {
-                    formattedStatsMap.put(entry.getKey(), entry.getValue());
-                }
+            for (int i = 0; i < COMPONENTS.length; i++) {
+                formattedStatsMap.put(COMPONENTS[i], formatFileSize(sample.sizes[i]));
             }
-            
+
             // 添加日志文件大小（带单位）
-            formattedStatsMap.put("tgrapg_log", formatFileSize(logSize));
+            formattedStatsMap.put("tgrapg_log", formatFileSize(sample.logSize));
             formattedStatsMap.put("http_log", formatFileSize(httpLogSize));
-            
+
             response.put("space_statistics", formattedStatsMap);
+            response.put("space_bytes", sample.toMap());
+            response.put("file_count", sample.fileCount);
+            response.put("scanned_at", sample.time);
+            response.put("scan_ms", sample.scanMillis);
+            response.put("growth_bytes_per_hour", entry.growthPerHour());
+            response.put("history", entry.history());
             response.put("db_path", dbPath);
         } catch (Exception e) {
             response.put("error", "无法获取空间统计信息: " + e.getMessage());
         }
-        
+
         return response;
     }
-    
+
     /**
      * 格式化文件大小为人类可读格式
      * @param size 文件大小（字节）
@@ -71,73 +130,195 @@ public class DBSpace {
     private static String formatFileSize(double size) {
         final String[] units = {"B", "KB", "MB", "GB", "TB"};
         int unitIndex = 0;
-        
+
         while (size >= 1024 && unitIndex < units.length - 1) {
             size /= 1024;
             unitIndex++;
         }
-        
+
         // 保留两位小数
         return String.format("%.2f %s", size, units[unitIndex]);
     }
-    
+
+    // 重新统计所有查询过的数据库，目录已不存在的从缓存中移除
+    private static void refreshAll() {
+        for (Entry entry : cache.values()) {
+            if (!new File(entry.dbPath).isDirectory()) {
+                cache.remove(entry.dbPath, entry);
+                continue;
+            }
+            try {
+                entry.refresh();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("统计数据库空间失败: " + entry.dbPath + " - " + e.getMessage());
+            }
+        }
+    }
+
     /**
-     * 计算目录大小
-     * @param file 目录或文件
-     * @param filter 文件过滤器
-     * @param level 当前递归级别
-     * @return 总大小（字节）
+     * 文件属于哪一部分
+     * @param relative 相对数据库目录的路径
+     * @return COMPONENTS 中的下标，不属于任何部分时返回-1
      */
-    private static long size(final File file, FilenameFilter filter, int level) {
-        if (file.isFile()) return file.length();
-        final File[] children = file.listFiles(filter);
-        long total = 0;
-        if (children != null)
-            for (final File child : children){
-                StringBuilder sb = new StringBuilder();
-                for(int i=0;i<level;i++) sb.append("|--");
-                sb.append(child.getName()).append('\t').append(child.isFile()?child.length()+"":"");
-                System.out.println(sb);
-                total += size(child, filter, level+1);
+    private static int classify(Path relative) {
+        String first = relative.getName(0).toString();
+        int count = relative.getNameCount();
+        if (first.equals("schema") || first.equals("index")) {
+            return 1;
+        }
+        if (first.equals(TP_NODE_DIR) || first.equals(TP_REL_DIR)) {
+            boolean node = first.equals(TP_NODE_DIR);
+            // 时态存储目录下的 index 子目录为索引，其余为数据
+            if (count > 1 && relative.getName(1).toString().equals("index")) {
+                return node ? 3 : 5;
+            }
+            for (int i = 1; i < count; i++) {
+                if (relative.getName(i).toString().equals("index")) {
+                    return -1;
+                }
             }
-        return total;
+            return node ? 2 : 4;
+        }
+        // 其余文件中，路径上有以 index、temporal 开头或名为 schema 的不计入 Neo4j 数据
+        for (int i = 0; i < count; i++) {
+            String name = relative.getName(i).toString();
+            if (name.startsWith("index") || name.equals("schema") || name.startsWith("temporal")) {
+                return -1;
+            }
+        }
+        return 0;
     }
 
     /**
-     * 计算目录大小
-     * @param file 目录或文件
-     * @param filter 文件过滤器
-     * @return 总大小（字节）
+     * 遍历一次数据库目录，统计各部分的大小
      */
-    private static long size(final File file, FilenameFilter filter) {
-        System.out.println("------------------"+ file.getAbsolutePath()+"------------------");
-        return size(file, filter, 0);
+    private static Sample scan(Path root) throws IOException {
+        long start = System.nanoTime();
+        Sample sample = new Sample(System.currentTimeMillis());
+        if (Files.isDirectory(root)) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Path relative = root.relativize(file);
+                    int component = classify(relative);
+                    if (component >= 0) {
+                        sample.sizes[component] += attrs.size();
+                    }
+                    if (relative.getNameCount() == 1 && relative.toString().equals("messages.log")) {
+                        sample.logSize = attrs.size();
+                    }
+                    sample.fileCount++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // 统计期间被删除的文件（如合并后的时态文件）忽略
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        sample.scanMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return sample;
     }
 
     /**
-     * 接受所有文件的过滤器
+     * 一个数据库的统计结果和历史样本
      */
-    private static final FilenameFilter noFilter = (d, name) -> true;
-    
+    private static class Entry {
+        final String dbPath;
+        private final Deque<Sample> samples = new ArrayDeque<>();
+        private volatile Sample latest = null;
+
+        Entry(String dbPath) {
+            this.dbPath = dbPath;
+        }
+
+        // 结果未过期时直接返回，否则重新统计
+        Sample get() throws IOException {
+            Sample sample = latest;
+            if (sample != null && System.currentTimeMillis() - sample.time < refreshMillis) {
+                return sample;
+            }
+            synchronized (this) {
+                sample = latest;
+                if (sample != null && System.currentTimeMillis() - sample.time < refreshMillis) {
+                    return sample;
+                }
+                return refresh();
+            }
+        }
+
+        synchronized Sample refresh() throws IOException {
+            Sample sample = scan(new File(dbPath).toPath());
+            samples.addLast(sample);
+            while (samples.size() > HISTORY_SIZE) {
+                samples.removeFirst();
+            }
+            latest = sample;
+            return sample;
+        }
+
+        // 按最早和最新的样本计算各部分每小时的增长字节数，样本不足时为0
+        synchronized Map<String, Object> growthPerHour() {
+            Map<String, Object> growth = new LinkedHashMap<>();
+            Sample first = samples.peekFirst();
+            Sample last = samples.peekLast();
+            double hours = first == null || last == first ? 0 : (last.time - first.time) / 3600000.0;
+            long total = 0;
+            for (int i = 0; i < COMPONENTS.length; i++) {
+                long delta = hours == 0 ? 0 : last.sizes[i] - first.sizes[i];
+                total += delta;
+                growth.put(COMPONENTS[i], hours == 0 ? 0L : Math.round(delta / hours));
+            }
+            growth.put("total", hours == 0 ? 0L : Math.round(total / hours));
+            return growth;
+        }
+
+        synchronized List<Map<String, Object>> history() {
+            List<Map<String, Object>> history = new ArrayList<>(samples.size());
+            for (Sample sample : samples) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("time", sample.time);
+                item.put("total", sample.total());
+                history.add(item);
+            }
+            return history;
+        }
+    }
+
     /**
-     * 计算TGraph数据库大小统计
-     * @param path 数据库路径
-     * @return 包含各部分大小信息的JSON字符串
+     * 一次统计的结果
      */
-    private static String tgraphSize(File path) {
-        long neoData = size(path, (d, name) -> !name.startsWith("index") && !name.equals("schema") && !name.startsWith("temporal"));
-        long neoIndex = size(new File(path,"schema"), noFilter)+size(new File(path, "index"), noFilter);
-        long tpNodeData = size(new File(path,"temporal.node.properties"), (d, name) -> !name.equals("index"));
-        long tpNodeIndex = size(new File(path, "temporal.node.properties/index"), noFilter);
-        long tpRelData = size(new File(path,"temporal.relationship.properties"), (d, name) -> !name.equals("index"));
-        long tpRelIndex = size(new File(path, "temporal.relationship.properties/index"), noFilter);
-        JsonObject obj = new JsonObject();
-        obj.addProperty("neo_data", neoData);
-        obj.addProperty("neo_index", neoIndex);
-        obj.addProperty("tp_node_data", tpNodeData);
-        obj.addProperty("tp_node_index", tpNodeIndex);
-        obj.addProperty("tp_rel_data", tpRelData);
-        obj.addProperty("tp_rel_index", tpRelIndex);
-        return gson.toJson(obj);
+    private static class Sample {
+        final long time;
+        final long[] sizes = new long[COMPONENTS.length];
+        long logSize = 0;
+        long fileCount = 0;
+        long scanMillis = 0;
+
+        Sample(long time) {
+            this.time = time;
+        }
+
+        long total() {
+            long total = 0;
+            for (long size : sizes) {
+                total += size;
+            }
+            return total;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < COMPONENTS.length; i++) {
+                map.put(COMPONENTS[i], sizes[i]);
+            }
+            map.put("total", total());
+            return map;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,133 @@
+package tgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import app.RequestTracker;
+
+/**
+ * 数据库的关闭流程
+ * 关闭数据库（包括切换数据库和进程退出）时先排空请求：不再接受新的请求（返回 503），
+ * 等待正在使用它的请求结束；超过排空期限仍未结束的请求通过 RequestTracker 取消，其事务被终止。
+ *
+ * 进程退出时只注册一个关闭钩子，并行关闭所有打开的数据库，整体不超过关闭期限，
+ * 避免逐个关闭时一个卡住的数据库拖住整个进程。
+ */
+public class DatabaseLifecycle {
+
+    // 并行关闭数据库的最大线程数
+    private static final int MAX_SHUTDOWN_THREADS = 8;
+
+    private static volatile long drainTimeoutMs = 30 * 1000L;
+    private static volatile long shutdownTimeoutMs = 60 * 1000L;
+    private static final AtomicBoolean hookRegistered = new AtomicBoolean(false);
+
+    private DatabaseLifecycle() {
+    }
+
+    /**
+     * 初始化并注册进程退出时的关闭钩子（只注册一次）
+     * @param drainTimeoutSeconds 关闭数据库前等待请求结束的最长时间
+     * @param shutdownTimeoutSeconds 进程退出时关闭所有数据库的最长时间
+     */
+    public static void init(int drainTimeoutSeconds, int shutdownTimeoutSeconds) {
+        drainTimeoutMs = Math.max(0, drainTimeoutSeconds) * 1000L;
+        shutdownTimeoutMs = Math.max(1, shutdownTimeoutSeconds) * 1000L;
+        if (hookRegistered.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(DatabaseLifecycle::shutdownAll, "database-shutdown"));
+        }
+    }
+
+    /**
+     * 排空请求后关闭数据库
+     * @return 数据库未打开时返回false
+     */
+    public static boolean close(String username, String dbName) {
+        DatabaseRegistry.ManagedDatabase database = DatabaseRegistry.get(username, dbName);
+        if (database == null) {
+            return false;
+        }
+        drain(database, drainTimeoutMs);
+        return DatabaseRegistry.close(username, dbName);
+    }
+
+    /**
+     * 停止接受新的请求并等待正在使用数据库的请求结束，超时后取消剩余请求
+     */
+    private static void drain(DatabaseRegistry.ManagedDatabase database, long timeoutMs) {
+        database.startDraining();
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMs;
+        while (!isIdle(database)) {
+            if (System.currentTimeMillis() >= deadline) {
+                List<String> remaining = RequestTracker.getRequestsOnDatabase(database.getKey());
+                for (String requestId : remaining) {
+                    RequestTracker.cancelRequest(requestId, "数据库 '" + database.getName() + "' 正在关闭，请求已终止");
+                }
+                System.err.println("数据库 " + database.getKey() + " 排空超时，已取消 " + remaining.size() + " 个请求");
+                return;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (elapsed > 0) {
+            System.out.println("数据库 " + database.getKey() + " 已排空请求，等待 " + elapsed + " ms");
+        }
+    }
+
+    private static boolean isIdle(DatabaseRegistry.ManagedDatabase database) {
+        return database.getActiveUsers() == 0 && RequestTracker.getRequestsOnDatabase(database.getKey()).isEmpty();
+    }
+
+    /**
+     * 并行排空并关闭所有打开的数据库，由关闭钩子调用
+     */
+    static void shutdownAll() {
+        DatabaseRegistry.beginShutdown();
+        List<DatabaseRegistry.ManagedDatabase> databases = DatabaseRegistry.openDatabases();
+        if (databases.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(databases.size(), MAX_SHUTDOWN_THREADS), r -> {
+            Thread thread = new Thread(r, "database-shutdown-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 排空期限不超过整体关闭期限的一半，留出时间执行检查点
+        long drainTimeout = Math.min(drainTimeoutMs, shutdownTimeoutMs / 2);
+        for (DatabaseRegistry.ManagedDatabase database : databases) {
+            executor.submit(() -> {
+                try {
+                    drain(database, drainTimeout);
+                    DatabaseRegistry.close(database.getUsername(), database.getName());
+                } catch (Exception e) {
+                    System.err.println("关闭数据库 " + database.getKey() + " 失败: " + e.getMessage());
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+                List<String> remaining = new ArrayList<>();
+                for (DatabaseRegistry.ManagedDatabase database : DatabaseRegistry.openDatabases()) {
+                    remaining.add(database.getKey());
+                }
+                System.err.println("以下数据库未能在 " + (shutdownTimeoutMs / 1000) + " 秒内关闭: " + remaining);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("已关闭 " + databases.size() + " 个数据库，耗时 " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
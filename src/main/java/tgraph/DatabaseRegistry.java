@@ -0,0 +1,645 @@
+package tgraph;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import app.RequestAbortedException;
+import service.TemporalValueCache;
+
+/**
+ * 已打开数据库的注册表（连接池）
+ * 键与 TgraphHandler 记录数据库路径时使用的一致，为 "username:databaseName"。
+ * 每个数据库有自己的 DatabaseManagementService 和页缓存，多个数据库可以同时打开并同时提供服务。
+ *
+ * 数据库在第一次被请求时打开，空闲超过阈值后关闭。配置了页缓存总预算时，新打开的数据库按最近访问频率
+ * 分得预算中的一份（介于最小值和最大值之间）；剩余预算不足时先关闭访问频率最低的空闲数据库。
+ * 页缓存大小在打开时确定，访问频率变化后在下一次打开时生效。
+ *
+ * 正在被请求使用的数据库不会被关闭：使用前 tryAcquire，使用后 release；关闭时把使用计数置为-1，
+ * 之后的 tryAcquire 都会失败并等待关闭完成后重新打开。默认数据库（旧的 /db/data 接口使用）不会被自动关闭。
+ * 主动关闭数据库由 DatabaseLifecycle 先排空请求再调用 close。
+ */
+public class DatabaseRegistry {
+
+    // 访问频率的半衰期
+    private static final double RATE_HALF_LIFE_MS = 10 * 60 * 1000.0;
+
+    private static final Map<String, ManagedDatabase> databases = new ConcurrentHashMap<>();
+    // 正在离线复制（备份未打开的数据库）的数据库，复制期间不能打开
+    private static final Set<String> offlineCopies = ConcurrentHashMap.newKeySet();
+    // 每个数据库一把锁，打开和关闭同一个数据库互斥，不同数据库互不阻塞
+    private static final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    // 所有访问过的数据库的访问频率，关闭后保留，用于下一次打开时分配预算
+    private static final Map<String, AccessRate> accessRates = new ConcurrentHashMap<>();
+    // 每次打开分配新的编号，缓存等按编号区分不同数据库，关闭后重新打开不会读到旧数据
+    private static final AtomicInteger idGenerator = new AtomicInteger();
+
+    // 未配置总预算时每个数据库的固定页缓存大小（如 512m），为空时使用 Neo4j 的默认值
+    private static volatile String pageCacheMemory = "";
+    // 关闭时等待使用计数归零的最长时间，超时后强制关闭
+    private static final long FORCE_CLOSE_WAIT_MS = 5000;
+
+    // 页缓存总预算及单个数据库的上下限（字节），总预算为0时不按预算分配
+    private static long pageCacheBudget = 0;
+    private static long minPageCache = 32L << 20;
+    private static long maxPageCache = 512L << 20;
+    // 已分配的页缓存，由 synchronized 方法保护
+    private static long allocatedPageCache = 0;
+
+    private static volatile boolean lazyOpen = true;
+    // 懒加载只打开已登记的数据库（创建或启动过的），不打开用户目录下其他的目录
+    private static volatile BiPredicate<String, String> knownDatabases = (username, dbName) -> false;
+    // 进程正在退出，不再打开数据库
+    private static volatile boolean shuttingDown = false;
+    private static volatile long idleTimeoutMs = 10 * 60 * 1000L;
+
+    private static final AtomicLong openedCount = new AtomicLong();
+    private static final AtomicLong evictedCount = new AtomicLong();
+
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "database-idle-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        sweeper.scheduleAtFixedRate(() -> {
+            closeIdle();
+            pruneUnregistered();
+        }, 30, 30, TimeUnit.SECONDS);
+    }
+
+    private DatabaseRegistry() {
+    }
+
+    /**
+     * 设置每个数据库的固定页缓存大小，只在未配置总预算时使用
+     */
+    public static void setPageCacheMemory(String size) {
+        pageCacheMemory = size == null ? "" : size.trim();
+    }
+
+    /**
+     * 设置页缓存总预算
+     * @param budget 总预算（如 4g），为空或0时不按预算分配
+     * @param min 单个数据库最少分得的页缓存
+     * @param max 单个数据库最多分得的页缓存
+     */
+    public static synchronized void setPageCacheBudget(String budget, String min, String max) {
+        pageCacheBudget = parseSize(budget);
+        minPageCache = Math.max(1L << 20, parseSize(min));
+        maxPageCache = Math.max(minPageCache, parseSize(max));
+    }
+
+    /**
+     * 设置懒加载和空闲关闭
+     * @param lazy 请求访问未打开的数据库时是否自动打开
+     * @param idleTimeoutSeconds 空闲多久后关闭，0 表示不自动关闭
+     */
+    public static void setPoolOptions(boolean lazy, int idleTimeoutSeconds) {
+        lazyOpen = lazy;
+        idleTimeoutMs = Math.max(0, idleTimeoutSeconds) * 1000L;
+    }
+
+    /**
+     * 设置懒加载时判断数据库是否已登记的方法
+     */
+    public static void setKnownDatabases(BiPredicate<String, String> known) {
+        knownDatabases = known;
+    }
+
+    public static String key(String username, String dbName) {
+        return username + ":" + dbName;
+    }
+
+    /**
+     * 进程退出时调用，之后不再打开数据库
+     */
+    public static void beginShutdown() {
+        shuttingDown = true;
+    }
+
+    /**
+     * 获取数据库供一次请求使用，未打开且开启了懒加载时先打开
+     * 返回非null时调用方必须在使用完后调用 release
+     * @return 数据库名不合法、数据库不存在或未登记、未打开且未开启懒加载时返回null
+     * @throws RequestAbortedException 数据库正在关闭或进程正在退出时
+     */
+    public static ManagedDatabase acquire(String username, String dbName) {
+        if (!Tgraph.isValidDbName(dbName)) {
+            return null;
+        }
+        String key = key(username, dbName);
+        while (true) {
+            if (shuttingDown) {
+                throw new RequestAbortedException(RequestAbortedException.Reason.DATABASE_UNAVAILABLE, "服务器正在关闭");
+            }
+            ManagedDatabase database = databases.get(key);
+            if (database != null) {
+                if (database.tryAcquire()) {
+                    // 只记录存在的数据库的访问，不存在的名字不会留下统计
+                    recordAccess(key);
+                    database.touch();
+                    return database;
+                }
+                if (database.draining) {
+                    throw new RequestAbortedException(RequestAbortedException.Reason.DATABASE_UNAVAILABLE,
+                        "数据库 '" + dbName + "' 正在关闭");
+                }
+                // 正在关闭，等关闭完成后重试
+                ReentrantLock lock = lockFor(key);
+                lock.lock();
+                lock.unlock();
+                continue;
+            }
+            if (!lazyOpen || !knownDatabases.test(username, dbName) || !Tgraph.getDbDir(username, dbName).exists()) {
+                return null;
+            }
+            open(username, dbName);
+        }
+    }
+
+    /**
+     * 打开数据库，已打开时直接返回
+     * @throws IllegalArgumentException 数据库名不合法时
+     */
+    public static ManagedDatabase open(String username, String dbName) {
+        if (!Tgraph.isValidDbName(dbName)) {
+            throw new IllegalArgumentException("数据库名 '" + dbName + "' 不合法，只能包含字母、数字、下划线和连字符");
+        }
+        String key = key(username, dbName);
+        if (shuttingDown) {
+            throw new IllegalStateException("服务器正在关闭，不能打开数据库");
+        }
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            ManagedDatabase existing = databases.get(key);
+            if (existing != null) {
+                existing.touch();
+                return existing;
+            }
+            if (offlineCopies.contains(key)) {
+                throw new RequestAbortedException(RequestAbortedException.Reason.DATABASE_UNAVAILABLE,
+                    "数据库 '" + dbName + "' 正在备份，暂时不能打开");
+            }
+            long pageCacheBytes = reservePageCache(key);
+            String pageCache = pageCacheBytes > 0 ? String.valueOf(pageCacheBytes) : pageCacheMemory;
+            File dbDir = Tgraph.getDbDir(username, dbName);
+            DatabaseManagementService service;
+            try {
+                DatabaseManagementServiceBuilder builder = new DatabaseManagementServiceBuilder(dbDir.toPath());
+                if (!pageCache.isEmpty()) {
+                    builder.setConfig(GraphDatabaseSettings.pagecache_memory, pageCache);
+                }
+                service = builder.build();
+            } catch (RuntimeException e) {
+                releasePageCache(pageCacheBytes);
+                throw e;
+            }
+            ManagedDatabase database = new ManagedDatabase(idGenerator.incrementAndGet(), key, username, dbName,
+                dbDir.getPath(), service, pageCacheBytes, pageCache);
+            databases.put(key, database);
+            openedCount.incrementAndGet();
+            // 按上次关闭时记录的热数据在后台预热页缓存
+            PageCacheWarmup.start(database);
+            System.out.println("已打开数据库 " + key + "（页缓存 " + (pageCache.isEmpty() ? "默认" : formatSize(pageCache)) + "）");
+            return database;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取已打开的数据库，不自动打开，也不计入使用
+     * @return 未打开时返回null
+     */
+    public static ManagedDatabase get(String username, String dbName) {
+        return databases.get(key(username, dbName));
+    }
+
+    /**
+     * 按目录查找已打开的数据库
+     * @return 未打开时返回null
+     */
+    public static ManagedDatabase getByPath(String dbPath) {
+        for (ManagedDatabase database : databases.values()) {
+            if (database.path.equals(dbPath)) {
+                return database;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 数据库未打开时开始离线复制，复制结束前不能打开该数据库
+     * @return 数据库已打开时返回false，应改用在线复制
+     */
+    static boolean beginOfflineCopy(String username, String dbName) {
+        String key = key(username, dbName);
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            if (databases.containsKey(key)) {
+                return false;
+            }
+            offlineCopies.add(key);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void endOfflineCopy(String username, String dbName) {
+        offlineCopies.remove(key(username, dbName));
+    }
+
+    /**
+     * 关闭数据库，最多等待 FORCE_CLOSE_WAIT_MS 让正在使用它的请求结束，之后强制关闭
+     * @return 数据库未打开时返回false
+     */
+    public static boolean close(String username, String dbName) {
+        String key = key(username, dbName);
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            ManagedDatabase database = databases.get(key);
+            if (database == null) {
+                return false;
+            }
+            database.pinned = false;
+            database.draining = true;
+            long deadline = System.currentTimeMillis() + FORCE_CLOSE_WAIT_MS;
+            while (!database.markClosing()) {
+                if (System.currentTimeMillis() > deadline) {
+                    System.err.println("数据库 " + key + " 仍有 " + database.users.get() + " 个请求在使用，强制关闭");
+                    database.users.set(-1);
+                    break;
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            shutdown(database);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 尝试关闭一个空闲数据库，数据库正在使用、被固定或锁被占用时放弃
+    private static boolean tryEvict(ManagedDatabase database) {
+        if (database.pinned) {
+            return false;
+        }
+        ReentrantLock lock = lockFor(database.key);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (databases.get(database.key) != database || database.pinned || !database.markClosing()) {
+                return false;
+            }
+            shutdown(database);
+            evictedCount.incrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 调用方持有该数据库的锁，且已把使用计数置为-1
+    private static void shutdown(ManagedDatabase database) {
+        databases.remove(database.key);
+        try {
+            PageCacheWarmup.stop(database);
+            // 记录热数据，下次打开时据此预热
+            PageCacheWarmup.saveProfile(database);
+            database.service.shutdown();
+        } finally {
+            releasePageCache(database.pageCacheBytes);
+            TemporalValueCache.clearDatabase(database.id);
+            System.out.println("已关闭数据库 " + database.key);
+        }
+    }
+
+    // 关闭空闲超时的数据库
+    private static void closeIdle() {
+        long timeout = idleTimeoutMs;
+        if (timeout == 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - timeout;
+        for (ManagedDatabase database : new ArrayList<>(databases.values())) {
+            if (database.lastAccess < cutoff && database.users.get() == 0) {
+                try {
+                    if (tryEvict(database)) {
+                        System.out.println("数据库 " + database.key + " 空闲超过 " + (timeout / 1000) + " 秒，已关闭");
+                    }
+                } catch (Exception e) {
+                    System.err.println("关闭空闲数据库 " + database.key + " 失败: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // 清除未打开且已不再登记（如已删除）的数据库的访问统计和锁
+    private static void pruneUnregistered() {
+        List<String> keys = new ArrayList<>(accessRates.keySet());
+        keys.addAll(locks.keySet());
+        for (String key : keys) {
+            int colon = key.indexOf(':');
+            if (databases.containsKey(key) || offlineCopies.contains(key)
+                    || knownDatabases.test(key.substring(0, colon), key.substring(colon + 1))) {
+                continue;
+            }
+            accessRates.remove(key);
+            ReentrantLock lock = locks.get(key);
+            if (lock != null && !lock.isLocked() && !lock.hasQueuedThreads()) {
+                locks.remove(key, lock);
+            }
+        }
+    }
+
+    /**
+     * 按访问频率为即将打开的数据库分配页缓存，预算不足时先关闭访问频率最低的空闲数据库
+     * @return 分配的字节数，未配置总预算时返回0
+     */
+    private static long reservePageCache(String key) {
+        long budget;
+        long desired;
+        synchronized (DatabaseRegistry.class) {
+            budget = pageCacheBudget;
+            if (budget == 0) {
+                return 0;
+            }
+            double rate = rateOf(key);
+            double totalRate = rate;
+            for (ManagedDatabase database : databases.values()) {
+                totalRate += rateOf(database.key);
+            }
+            desired = Math.max(minPageCache, Math.min(maxPageCache, (long) (budget * (rate / totalRate))));
+            if (budget - allocatedPageCache >= desired) {
+                allocatedPageCache += desired;
+                return desired;
+            }
+        }
+
+        // 预算不足，按访问频率从低到高关闭空闲数据库，关闭在锁外进行
+        List<ManagedDatabase> candidates = new ArrayList<>(databases.values());
+        candidates.sort(Comparator.comparingDouble(database -> rateOf(database.key)));
+        for (ManagedDatabase candidate : candidates) {
+            synchronized (DatabaseRegistry.class) {
+                if (budget - allocatedPageCache >= desired) {
+                    break;
+                }
+            }
+            if (candidate.users.get() == 0 && tryEvict(candidate)) {
+                System.out.println("页缓存预算不足，已关闭空闲数据库 " + candidate.key);
+            }
+        }
+
+        synchronized (DatabaseRegistry.class) {
+            // 仍然不足时按剩余预算分配，但不少于最小值（此时总分配会略超预算）
+            long granted = Math.max(minPageCache, Math.min(desired, budget - allocatedPageCache));
+            if (allocatedPageCache + granted > budget) {
+                System.err.println("页缓存预算不足，数据库 " + key + " 以最小页缓存打开");
+            }
+            allocatedPageCache += granted;
+            return granted;
+        }
+    }
+
+    private static synchronized void releasePageCache(long bytes) {
+        allocatedPageCache = Math.max(0, allocatedPageCache - bytes);
+    }
+
+    private static void recordAccess(String key) {
+        accessRates.computeIfAbsent(key, k -> new AccessRate()).record();
+    }
+
+    private static double rateOf(String key) {
+        AccessRate rate = accessRates.get(key);
+        // 从未访问过的数据库按一次访问计算，避免分得0
+        return rate == null ? 1.0 : Math.max(1.0, rate.value());
+    }
+
+    private static ReentrantLock lockFor(String key) {
+        return locks.computeIfAbsent(key, k -> new ReentrantLock());
+    }
+
+    // 解析 512m、4g 这样的大小，纯数字按字节解释
+    private static long parseSize(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return 0;
+        }
+        String value = text.trim().toLowerCase();
+        long unit = 1;
+        switch (value.charAt(value.length() - 1)) {
+            case 'k': unit = 1L << 10; break;
+            case 'm': unit = 1L << 20; break;
+            case 'g': unit = 1L << 30; break;
+            default: break;
+        }
+        if (unit > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value.trim()) * unit;
+    }
+
+    private static String formatSize(String pageCache) {
+        try {
+            return (Long.parseLong(pageCache) >> 20) + "m";
+        } catch (NumberFormatException e) {
+            return pageCache;
+        }
+    }
+
+    /**
+     * 当前打开的所有数据库
+     */
+    public static List<ManagedDatabase> openDatabases() {
+        return new ArrayList<>(databases.values());
+    }
+
+    /**
+     * 列出已打开的数据库及其访问情况
+     */
+    public static List<Map<String, Object>> list() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (ManagedDatabase database : databases.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", database.key);
+            item.put("username", database.username);
+            item.put("database", database.name);
+            item.put("path", database.path);
+            item.put("page_cache", database.pageCache.isEmpty() ? "default" : formatSize(database.pageCache));
+            item.put("pinned", database.pinned);
+            item.put("active_users", Math.max(0, database.users.get()));
+            item.put("access_rate", rateOf(database.key));
+            item.put("opened_at", database.openedAt);
+            item.put("last_access", database.lastAccess);
+            item.put("access_count", database.accessCount.get());
+            result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * 获取连接池统计信息
+     */
+    public static synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("open_databases", databases.size());
+        stats.put("lazy_open", lazyOpen);
+        stats.put("idle_timeout_seconds", idleTimeoutMs / 1000);
+        stats.put("page_cache_budget", pageCacheBudget);
+        stats.put("page_cache_allocated", allocatedPageCache);
+        stats.put("opened_total", openedCount.get());
+        stats.put("evicted_total", evictedCount.get());
+        stats.put("databases", list());
+        return stats;
+    }
+
+    /**
+     * 按半衰期衰减的访问计数
+     */
+    private static class AccessRate {
+        private double value = 0;
+        private long lastUpdate = System.currentTimeMillis();
+
+        synchronized void record() {
+            decay();
+            value += 1;
+        }
+
+        synchronized double value() {
+            decay();
+            return value;
+        }
+
+        private void decay() {
+            long now = System.currentTimeMillis();
+            value *= Math.pow(0.5, (now - lastUpdate) / RATE_HALF_LIFE_MS);
+            lastUpdate = now;
+        }
+    }
+
+    /**
+     * 一个已打开的数据库
+     */
+    public static class ManagedDatabase {
+        private final int id;
+        private final String key;
+        private final String username;
+        private final String name;
+        private final String path;
+        private final DatabaseManagementService service;
+        private final GraphDatabaseService db;
+        private final long pageCacheBytes;
+        private final String pageCache;
+        private final long openedAt;
+        private volatile long lastAccess;
+        private final AtomicLong accessCount = new AtomicLong();
+        // 正在使用的请求数，-1 表示正在关闭
+        private final AtomicInteger users = new AtomicInteger();
+        // 固定的数据库不会被自动关闭
+        private volatile boolean pinned = false;
+        // 正在排空请求，不再接受新的使用
+        private volatile boolean draining = false;
+
+        ManagedDatabase(int id, String key, String username, String name, String path,
+                        DatabaseManagementService service, long pageCacheBytes, String pageCache) {
+            this.id = id;
+            this.key = key;
+            this.username = username;
+            this.name = name;
+            this.path = path;
+            this.service = service;
+            this.db = service.database("neo4j");
+            this.pageCacheBytes = pageCacheBytes;
+            this.pageCache = pageCache;
+            this.openedAt = System.currentTimeMillis();
+            this.lastAccess = openedAt;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+            accessCount.incrementAndGet();
+        }
+
+        /**
+         * 登记一次使用，数据库正在关闭时返回false
+         */
+        public boolean tryAcquire() {
+            if (draining) {
+                return false;
+            }
+            while (true) {
+                int current = users.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (users.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void release() {
+            users.decrementAndGet();
+        }
+
+        // 没有请求在使用时标记为正在关闭
+        boolean markClosing() {
+            return users.compareAndSet(0, -1);
+        }
+
+        public void setPinned(boolean pinned) {
+            this.pinned = pinned;
+        }
+
+        void startDraining() {
+            draining = true;
+        }
+
+        public boolean isDraining() {
+            return draining;
+        }
+
+        // 正在使用的请求数
+        int getActiveUsers() {
+            return Math.max(0, users.get());
+        }
+
+        public int getId() { return id; }
+        public String getKey() { return key; }
+        public String getUsername() { return username; }
+        public String getName() { return name; }
+        public String getPath() { return path; }
+        public DatabaseManagementService getService() { return service; }
+        public GraphDatabaseService getDatabase() { return db; }
+        public long getLastAccess() { return lastAccess; }
+    }
+}
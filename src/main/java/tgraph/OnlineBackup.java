@@ -0,0 +1,433 @@
+package tgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+
+import org.neo4j.graphdb.Resource;
+import org.neo4j.kernel.impl.transaction.log.checkpoint.CheckPointer;
+import org.neo4j.kernel.impl.transaction.log.checkpoint.SimpleTriggerInfo;
+import org.neo4j.kernel.impl.transaction.log.checkpoint.StoreCopyCheckPointMutex;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+/**
+ * 在线备份
+ * 数据库不需要停止：先强制执行一次检查点（TGraph 同时把时态存储的内存数据刷成文件），
+ * 然后持有 StoreCopyCheckPointMutex 阻止后续检查点，在此期间依次复制存储文件、时态存储目录，
+ * 最后复制事务日志。检查点被阻止时事务日志不会被裁剪、时态文件不会被合并删除，
+ * 恢复后 Neo4j 从备份中的检查点重放日志，即可得到一致的数据库。
+ *
+ * 增量备份以同一个数据库最近一次的备份为基础（见 BackupManifest）：大小和修改时间都没变的文件不复制；
+ * 变长且原有部分的 CRC32 不变的文件只复制追加的部分；其余文件完整复制。
+ *
+ * 未打开的数据库按配置的速率限速复制，避免备份抢占前台请求的磁盘带宽。在线复制持有互斥锁期间没有检查点、
+ * 事务日志不裁剪、时态存储也不能合并，因此不限速，以尽快释放互斥锁。备份写成分块压缩的 .tgbk 文件（见 BlockArchive），
+ * 压缩和恢复时的解压都是多线程并行的；增量备份的文件名以 .inc.tgbk 结尾。原来的 zip 备份仍然可以恢复。
+ */
+public class OnlineBackup {
+
+    // 事务日志目录，必须在存储文件之后复制
+    private static final String TRANSACTIONS_DIR = "transactions";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // 离线复制每秒最多复制的字节数，0 表示不限速
+    private static volatile long maxBytesPerSecond = 64L << 20;
+
+    // 正在备份的数据库，同一个数据库同时只允许一个备份
+    private static final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    private OnlineBackup() {
+    }
+
+    /**
+     * 设置备份限速，只对未打开的数据库的复制生效
+     * @param megabytesPerSecond 每秒最多复制的 MB 数，0 表示不限速
+     */
+    public static void init(int megabytesPerSecond) {
+        maxBytesPerSecond = Math.max(0, megabytesPerSecond) * (1L << 20);
+    }
+
+    /**
+     * 备份数据库
+     * 数据库已打开时在线复制；未打开时不为备份打开它（避免恢复、预热和占用页缓存预算），
+     * 直接复制文件，复制期间禁止打开
+     * @param dbDir 数据库目录
+     * @param backupFile 备份文件
+     * @param parent 增量备份的基础，为null时做完整备份
+     * @param progress 汇报进度，任务被取消时复制中止
+     * @throws IllegalStateException 同一个数据库已有备份在进行时
+     */
+    public static void backup(String username, String dbName, File dbDir, File backupFile, BackupManifest parent,
+                              BackupProgress.Operation progress) throws IOException {
+        String key = DatabaseRegistry.key(username, dbName);
+        if (!running.add(key)) {
+            throw new IllegalStateException("数据库 '" + dbName + "' 正在备份");
+        }
+        long start = System.currentTimeMillis();
+        File incompleteDir = new File(backupFile.getParentFile(), ".incomplete");
+        incompleteDir.mkdirs();
+        File tmpFile = new File(incompleteDir, backupFile.getName());
+
+        BackupManifest manifest = new BackupManifest(backupFile.getName());
+        manifest.type = parent == null ? BackupManifest.FULL : BackupManifest.INCREMENTAL;
+        manifest.parent = parent == null ? "" : parent.name;
+        manifest.username = username;
+        manifest.database = dbName;
+        manifest.root = new File(dbName).getName();
+        manifest.createdAt = start;
+        try {
+            long bytes;
+            while (true) {
+                DatabaseRegistry.ManagedDatabase database = DatabaseRegistry.get(username, dbName);
+                if (database != null) {
+                    // 备份期间持有数据库，避免被空闲关闭
+                    if (database.tryAcquire()) {
+                        try {
+                            bytes = copyOnline(database, dbDir, tmpFile, manifest, parent, progress);
+                        } finally {
+                            database.release();
+                        }
+                        break;
+                    }
+                    // 数据库正在关闭，关闭后离线复制
+                    progress.checkCancelled();
+                    pause(100);
+                    continue;
+                }
+                if (DatabaseRegistry.beginOfflineCopy(username, dbName)) {
+                    // 数据库未打开，直接复制即是一致的
+                    try {
+                        bytes = copyTo(dbDir, tmpFile, manifest, parent, progress, maxBytesPerSecond);
+                    } finally {
+                        DatabaseRegistry.endOfflineCopy(username, dbName);
+                    }
+                    break;
+                }
+            }
+            Files.move(tmpFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            manifest.save(backupFile);
+            System.out.println("数据库 " + key + (parent == null ? " 完整" : " 增量") + "备份完成: " + backupFile.getName()
+                + "，复制 " + (bytes >> 20) + " MB，耗时 " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+            running.remove(key);
+        }
+    }
+
+    // 检查点之后持有互斥锁复制，复制期间不会再有检查点。
+    // 检查点被阻止期间日志无法裁剪、时态存储无法合并，所以不限速，尽快完成复制并释放互斥锁
+    private static long copyOnline(DatabaseRegistry.ManagedDatabase database, File dbDir, File archive,
+                                   BackupManifest manifest, BackupManifest parent,
+                                   BackupProgress.Operation progress) throws IOException {
+        GraphDatabaseAPI db = (GraphDatabaseAPI) database.getDatabase();
+        CheckPointer checkPointer = db.getDependencyResolver().resolveDependency(CheckPointer.class);
+        StoreCopyCheckPointMutex mutex = db.getDependencyResolver().resolveDependency(StoreCopyCheckPointMutex.class);
+        try (Resource ignored = mutex.storeCopy(() -> checkPointer.forceCheckPoint(new SimpleTriggerInfo("online backup")))) {
+            return copyTo(dbDir, archive, manifest, parent, progress, 0);
+        }
+    }
+
+    // 把数据库目录写入备份文件，条目名称以数据库名为根目录，与原来 zip 备份的布局一致
+    // bytesPerSecond 为每秒最多复制的字节数，0 表示不限速
+    private static long copyTo(File dbDir, File archive, BackupManifest manifest, BackupManifest parent,
+                               BackupProgress.Operation progress, long bytesPerSecond) throws IOException {
+        Path base = dbDir.toPath();
+        List<Path> storeFiles = new ArrayList<>();
+        List<Path> logFiles = new ArrayList<>();
+        long totalBytes = 0;
+        try (Stream<Path> paths = Files.walk(base)) {
+            for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                if (!shouldCopy(path)) {
+                    continue;
+                }
+                totalBytes += path.toFile().length();
+                if (base.relativize(path).toString().contains(TRANSACTIONS_DIR)) {
+                    logFiles.add(path);
+                } else {
+                    storeFiles.add(path);
+                }
+            }
+        }
+
+        progress.addTotal(totalBytes, storeFiles.size() + logFiles.size());
+        Throttle throttle = new Throttle(bytesPerSecond);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        try (BlockArchive.Writer out = new BlockArchive.Writer(archive, progress::addArchiveBytes)) {
+            for (List<Path> files : List.of(storeFiles, logFiles)) {
+                for (Path path : files) {
+                    String relative = base.relativize(path).toString().replace(File.separatorChar, '/');
+                    BackupManifest.FileRecord previous = parent == null ? null : parent.files.get(relative);
+                    total += copyFile(path, relative, previous, out, buffer, throttle, manifest, progress);
+                    progress.fileProcessed();
+                }
+            }
+            out.finish();
+        }
+        return total;
+    }
+
+    /**
+     * 按与上一个备份的差异复制一个文件，并在清单中记录
+     * @return 写入备份的字节数
+     */
+    private static long copyFile(Path path, String relative, BackupManifest.FileRecord previous, BlockArchive.Writer out,
+                                 byte[] buffer, Throttle throttle, BackupManifest manifest,
+                                 BackupProgress.Operation progress) throws IOException {
+        long size;
+        long mtime;
+        try {
+            size = Files.size(path);
+            mtime = Files.getLastModifiedTime(path).toMillis();
+        } catch (NoSuchFileException e) {
+            // 索引等文件可能在列出之后被删除
+            return 0;
+        }
+        if (previous != null && previous.size == size && previous.mtime == mtime) {
+            manifest.files.put(relative, new BackupManifest.FileRecord(relative, size, mtime, previous.crc, BackupManifest.SAME, 0));
+            progress.addSkippedBytes(size);
+            return 0;
+        }
+
+        String name = manifest.root + "/" + relative;
+        CRC32 crc = new CRC32();
+        if (previous != null && size > previous.size) {
+            // 先校验原有部分，未改变时只复制追加的部分
+            try (InputStream in = Files.newInputStream(path)) {
+                if (readPrefix(in, previous.size, crc, buffer, throttle, progress) && crc.getValue() == previous.crc) {
+                    out.beginEntry(name, previous.size);
+                    long copied = writeEntry(in, out, crc, buffer, throttle, progress);
+                    manifest.files.put(relative, new BackupManifest.FileRecord(relative, previous.size + copied, mtime,
+                        crc.getValue(), BackupManifest.APPEND, previous.size));
+                    return copied;
+                }
+            }
+            crc.reset();
+        }
+
+        InputStream in;
+        try {
+            in = Files.newInputStream(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        try (InputStream input = in) {
+            out.beginEntry(name, 0);
+            long copied = writeEntry(input, out, crc, buffer, throttle, progress);
+            manifest.files.put(relative, new BackupManifest.FileRecord(relative, copied, mtime, crc.getValue(), BackupManifest.FULL, 0));
+            return copied;
+        }
+    }
+
+    // 读取文件开头的 length 字节并计算 CRC32，文件不够长时返回false
+    private static boolean readPrefix(InputStream in, long length, CRC32 crc, byte[] buffer, Throttle throttle,
+                                      BackupProgress.Operation progress) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                return false;
+            }
+            crc.update(buffer, 0, n);
+            remaining -= n;
+            progress.addRawBytes(n);
+            throttle.acquire(n);
+        }
+        return true;
+    }
+
+    private static long writeEntry(InputStream in, BlockArchive.Writer out, CRC32 crc, byte[] buffer,
+                                   Throttle throttle, BackupProgress.Operation progress) throws IOException {
+        long copied = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+            crc.update(buffer, 0, n);
+            copied += n;
+            progress.addRawBytes(n);
+            throttle.acquire(n);
+        }
+        return copied;
+    }
+
+    // 锁文件不复制，否则恢复后的数据库无法打开
+    private static boolean shouldCopy(Path path) {
+        String name = path.getFileName().toString();
+        return !name.equals("store_lock") && !name.equals("database_lock") && !name.endsWith(".tmp");
+    }
+
+    /**
+     * 从备份恢复数据库目录
+     * 没有清单的旧备份和完整备份直接解压；增量备份从完整备份开始依次应用整条链
+     * @param backupFile 要恢复到的备份
+     * @param parentDir 解压到的目录，备份中以数据库名为根目录，应为空目录
+     * @param progress 汇报进度，任务被取消时解压中止
+     * @return 恢复出的数据库目录
+     */
+    public static File restore(File backupFile, File parentDir, BackupProgress.Operation progress) throws IOException {
+        BackupManifest target = BackupManifest.load(backupFile);
+        if (target == null) {
+            // 没有清单的旧 zip 备份，根目录即解压出的唯一目录
+            long total = 0;
+            try (ZipFile zipFile = new ZipFile(backupFile)) {
+                for (FileHeader header : zipFile.getFileHeaders()) {
+                    total += header.getUncompressedSize();
+                }
+            }
+            progress.addTotal(total, 0);
+            extract(backupFile, parentDir, progress);
+            File[] roots = parentDir.listFiles(File::isDirectory);
+            if (roots == null || roots.length != 1) {
+                throw new IOException("备份文件 " + backupFile.getName() + " 中应只有一个数据库目录");
+            }
+            return roots[0];
+        }
+        if (!target.isIncremental()) {
+            addRestoreTotal(target, progress);
+            extract(backupFile, parentDir, progress);
+            return new File(parentDir, target.root);
+        }
+
+        // 找到整条链，从完整备份开始
+        LinkedList<BackupManifest> chain = BackupManifest.chain(backupFile);
+        for (BackupManifest manifest : chain) {
+            addRestoreTotal(manifest, progress);
+        }
+
+        File dbDir = new File(parentDir, target.root);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (BackupManifest manifest : chain) {
+            File archive = new File(backupFile.getParentFile(), manifest.name);
+            if (!archive.getName().endsWith(".zip")) {
+                // 分块备份中的条目自带偏移，直接解压即可
+                extract(archive, parentDir, progress);
+                continue;
+            }
+            try (ZipFile zipFile = new ZipFile(archive)) {
+                for (BackupManifest.FileRecord record : manifest.files.values()) {
+                    if (BackupManifest.SAME.equals(record.kind)) {
+                        continue;
+                    }
+                    FileHeader header = zipFile.getFileHeader(manifest.root + "/" + record.path);
+                    if (header == null) {
+                        throw new IOException("备份 " + manifest.name + " 中缺少文件 " + record.path);
+                    }
+                    File file = new File(dbDir, record.path);
+                    file.getParentFile().mkdirs();
+                    long offset = BackupManifest.APPEND.equals(record.kind) ? record.offset : 0;
+                    try (InputStream in = zipFile.getInputStream(header);
+                         RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                        raf.setLength(offset);
+                        raf.seek(offset);
+                        int n;
+                        while ((n = in.read(buffer)) > 0) {
+                            raf.write(buffer, 0, n);
+                            progress.addRawBytes(n);
+                        }
+                    }
+                }
+            }
+        }
+
+        // 删除最终清单中没有的文件，并检查文件大小
+        try (Stream<Path> paths = Files.walk(dbDir.toPath())) {
+            for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                String relative = dbDir.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+                if (!target.files.containsKey(relative)) {
+                    Files.delete(path);
+                }
+            }
+        }
+        for (BackupManifest.FileRecord record : target.files.values()) {
+            File file = new File(dbDir, record.path);
+            if (!file.exists() || file.length() != record.size) {
+                throw new IOException("恢复后的文件 " + record.path + " 与备份清单不一致");
+            }
+        }
+        System.out.println("已从 " + chain.size() + " 个备份恢复数据库 " + target.database);
+        return dbDir;
+    }
+
+    // 一个备份中实际存放的字节数
+    private static void addRestoreTotal(BackupManifest manifest, BackupProgress.Operation progress) {
+        long total = 0;
+        for (BackupManifest.FileRecord record : manifest.files.values()) {
+            if (!BackupManifest.SAME.equals(record.kind)) {
+                total += record.size - record.offset;
+            }
+        }
+        progress.addTotal(total, 0);
+    }
+
+    // 解压一个完整的备份文件，zip 为原来的备份格式
+    private static void extract(File archive, File parentDir, BackupProgress.Operation progress) throws IOException {
+        progress.addArchiveBytes(archive.length());
+        if (archive.getName().endsWith(".zip")) {
+            long total = 0;
+            try (ZipFile zipFile = new ZipFile(archive)) {
+                for (FileHeader header : zipFile.getFileHeaders()) {
+                    total += header.getUncompressedSize();
+                }
+                zipFile.extractAll(parentDir.getPath());
+            }
+            progress.addRawBytes(total);
+            return;
+        }
+        BlockArchive.extract(archive, parentDir, progress::addRawBytes);
+    }
+
+    private static void pause(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("备份被中断", e);
+        }
+    }
+
+    /**
+     * 按字节数限速
+     */
+    private static class Throttle {
+        private final long bytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long bytes = 0;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long n) throws IOException {
+            if (bytesPerSecond == 0) {
+                return;
+            }
+            bytes += n;
+            long expectedMillis = (long) (bytes * 1000.0 / bytesPerSecond);
+            long sleepMillis = expectedMillis - (System.nanoTime() - startNanos) / 1_000_000;
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("备份被中断", e);
+                }
+            }
+        }
+    }
+}
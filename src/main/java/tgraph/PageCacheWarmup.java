@@ -0,0 +1,424 @@
+package tgraph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.io.pagecache.PageCache;
+import org.neo4j.io.pagecache.PageCursor;
+import org.neo4j.io.pagecache.PagedFile;
+import org.neo4j.io.pagecache.context.CursorContext;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+/**
+ * 页缓存预热
+ * 数据库刚打开时页缓存是空的，最初的查询都要从磁盘读，重启后延迟会高很长一段时间。
+ * 这里在数据库关闭时（以及运行期间定期）把热数据记录到数据库目录下的 warmup.profile：
+ * 页缓存中映射的存储文件及其页数，以及时态存储中最新的数据文件和索引文件；
+ * 下次打开时在后台低优先级线程中按记录预读，存储文件读入 Neo4j 页缓存，时态存储文件读入操作系统缓存。
+ *
+ * 预读总量不超过页缓存容量，核心存储（节点、关系、属性）优先。数据库关闭时预热立即停止。
+ */
+public class PageCacheWarmup {
+
+    private static final String PROFILE_FILE = "warmup.profile";
+    // 时态存储最多记录的字节数
+    private static final long TEMPORAL_PROFILE_BYTES = 256L << 20;
+    // 时态存储文件预读的缓冲区大小
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private static volatile boolean enabled = false;
+
+    // 每个数据库最近一次预热的状态，键为 DatabaseRegistry 的键
+    private static final Map<String, Status> statuses = new ConcurrentHashMap<>();
+
+    // 预热在低优先级的单线程中依次执行
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "page-cache-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static final ScheduledExecutorService profiler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "page-cache-profiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private PageCacheWarmup() {
+    }
+
+    /**
+     * 初始化预热
+     * @param enable 是否启用
+     * @param profileIntervalSeconds 运行期间记录热数据的间隔，0 表示只在关闭时记录
+     */
+    public static void init(boolean enable, int profileIntervalSeconds) {
+        enabled = enable;
+        if (enable && profileIntervalSeconds > 0) {
+            profiler.scheduleAtFixedRate(PageCacheWarmup::saveAllProfiles,
+                profileIntervalSeconds, profileIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 在后台按记录预热刚打开的数据库，没有记录时不做任何事
+     */
+    public static void start(DatabaseRegistry.ManagedDatabase database) {
+        if (!enabled || !new File(database.getPath(), PROFILE_FILE).exists()) {
+            return;
+        }
+        Status status = new Status(database.getKey());
+        Status previous = statuses.put(database.getKey(), status);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        executor.submit(() -> run(database, status));
+    }
+
+    /**
+     * 停止数据库上正在进行的预热并等待其退出，在关闭数据库之前调用
+     */
+    public static void stop(DatabaseRegistry.ManagedDatabase database) {
+        Status status = statuses.get(database.getKey());
+        if (status == null) {
+            return;
+        }
+        status.cancelled = true;
+        synchronized (status) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while ("running".equals(status.state) || "pending".equals(status.state)) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                try {
+                    status.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void run(DatabaseRegistry.ManagedDatabase database, Status status) {
+        if (status.cancelled) {
+            status.finish("cancelled", null);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        status.startedAt = start;
+        status.state = "running";
+        String state = "done";
+        String error = null;
+        try {
+            PageCache pageCache = pageCache(database);
+            List<Entry> entries = loadProfile(new File(database.getPath(), PROFILE_FILE));
+            long pageSize = pageCache.pageSize();
+            long pageBudget = pageCache.maxCachedPages();
+
+            // 按页缓存容量截断存储文件，时态存储文件按记录时的上限
+            List<Entry> plan = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.pageCache) {
+                    long pages = Math.min(entry.size, pageBudget);
+                    if (pages <= 0) {
+                        continue;
+                    }
+                    pageBudget -= pages;
+                    plan.add(new Entry(true, entry.path, pages));
+                    status.totalBytes += pages * pageSize;
+                } else {
+                    plan.add(entry);
+                    status.totalBytes += entry.size;
+                }
+            }
+            status.totalFiles = plan.size();
+
+            Map<Path, PagedFile> mappings = new HashMap<>();
+            for (PagedFile pagedFile : pageCache.listExistingMappings()) {
+                mappings.put(pagedFile.path().toAbsolutePath().normalize(), pagedFile);
+            }
+            for (Entry entry : plan) {
+                if (status.cancelled) {
+                    break;
+                }
+                Path path = resolve(database, entry.path);
+                if (entry.pageCache) {
+                    PagedFile pagedFile = mappings.get(path);
+                    if (pagedFile != null) {
+                        warmPagedFile(pagedFile, entry.size, pageSize, status);
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    warmFile(path, entry.size, status);
+                }
+                status.warmedFiles++;
+            }
+            if (status.cancelled) {
+                state = "cancelled";
+            }
+        } catch (Exception e) {
+            state = "failed";
+            error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            System.err.println("页缓存预热失败: " + database.getKey() + ": " + error);
+        }
+        status.durationMs = System.currentTimeMillis() - start;
+        status.finish(state, error);
+        System.out.println("页缓存预热结束: " + database.getKey() + "，预读 " + (status.warmedBytes >> 20)
+            + " MB，耗时 " + status.durationMs + " ms");
+    }
+
+    // 逐页读入 Neo4j 页缓存
+    private static void warmPagedFile(PagedFile pagedFile, long pages, long pageSize, Status status) throws IOException {
+        long lastPageId = Math.min(pagedFile.getLastPageId(), pages - 1);
+        try (PageCursor cursor = pagedFile.io(0, PagedFile.PF_SHARED_READ_LOCK | PagedFile.PF_READ_AHEAD, CursorContext.NULL)) {
+            while (!status.cancelled && cursor.getCurrentPageId() < lastPageId && cursor.next()) {
+                status.warmedBytes += pageSize;
+            }
+        }
+    }
+
+    // 顺序读文件，使其进入操作系统缓存
+    private static void warmFile(Path path, long limit, Status status) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        long read = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (!status.cancelled && read < limit) {
+                buffer.clear();
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+                status.warmedBytes += n;
+            }
+        }
+    }
+
+    /**
+     * 记录数据库当前的热数据，在关闭数据库之前调用
+     */
+    public static void saveProfile(DatabaseRegistry.ManagedDatabase database) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<Entry> entries = new ArrayList<>();
+            PageCache pageCache = pageCache(database);
+            for (PagedFile pagedFile : pageCache.listExistingMappings()) {
+                long pages = pagedFile.getLastPageId() + 1;
+                if (pages > 0) {
+                    entries.add(new Entry(true, relativize(database, pagedFile.path()), pages));
+                }
+            }
+            entries.sort(Comparator.comparingInt(entry -> storePriority(entry.path)));
+            entries.addAll(temporalEntries(database));
+
+            File profile = new File(database.getPath(), PROFILE_FILE);
+            File tmp = new File(database.getPath(), PROFILE_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                for (Entry entry : entries) {
+                    writer.write((entry.pageCache ? "pages" : "bytes") + "\t" + entry.size + "\t" + entry.path);
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp.toPath(), profile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            System.err.println("记录页缓存热数据失败: " + database.getKey() + ": " + e.getMessage());
+        }
+    }
+
+    private static void saveAllProfiles() {
+        for (DatabaseRegistry.ManagedDatabase database : DatabaseRegistry.openDatabases()) {
+            // 数据库已被关闭时跳过，记录期间不会被关闭
+            if (!database.tryAcquire()) {
+                continue;
+            }
+            try {
+                saveProfile(database);
+            } finally {
+                database.release();
+            }
+        }
+    }
+
+    // 时态存储中最新的文件优先，索引总是先于数据
+    private static List<Entry> temporalEntries(DatabaseRegistry.ManagedDatabase database) {
+        List<File> indexFiles = new ArrayList<>();
+        List<File> dataFiles = new ArrayList<>();
+        for (String store : new String[]{TemporalStoreMaintenance.NODE_STORE, TemporalStoreMaintenance.RELATIONSHIP_STORE}) {
+            File storeDir = new File(database.getPath(), store);
+            collectFiles(new File(storeDir, "index"), indexFiles);
+            File[] children = storeDir.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (!"index".equals(child.getName())) {
+                        collectFiles(child, dataFiles);
+                    }
+                }
+            }
+        }
+        dataFiles.sort(Comparator.comparingLong(File::lastModified).reversed());
+
+        List<Entry> entries = new ArrayList<>();
+        long budget = TEMPORAL_PROFILE_BYTES;
+        for (List<File> files : List.of(indexFiles, dataFiles)) {
+            for (File file : files) {
+                long length = file.length();
+                if (length > budget) {
+                    continue;
+                }
+                budget -= length;
+                entries.add(new Entry(false, relativize(database, file.toPath()), length));
+            }
+        }
+        return entries;
+    }
+
+    private static void collectFiles(File file, List<File> files) {
+        if (file.isFile()) {
+            files.add(file);
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                collectFiles(child, files);
+            }
+        }
+    }
+
+    // 节点、关系、关系组、属性存储优先，其余在后
+    private static int storePriority(String path) {
+        String name = new File(path).getName();
+        if (name.endsWith("nodestore.db")) {
+            return 0;
+        }
+        if (name.endsWith("relationshipstore.db")) {
+            return 1;
+        }
+        if (name.endsWith("relationshipgroupstore.db")) {
+            return 2;
+        }
+        if (name.endsWith("propertystore.db")) {
+            return 3;
+        }
+        return 4;
+    }
+
+    private static List<Entry> loadProfile(File profile) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(profile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length != 3) {
+                    continue;
+                }
+                try {
+                    entries.add(new Entry("pages".equals(parts[0]), parts[2], Long.parseLong(parts[1])));
+                } catch (NumberFormatException e) {
+                    // 忽略损坏的行
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static PageCache pageCache(DatabaseRegistry.ManagedDatabase database) {
+        GraphDatabaseAPI db = (GraphDatabaseAPI) database.getDatabase();
+        return db.getDependencyResolver().resolveDependency(PageCache.class);
+    }
+
+    // 数据库目录下的文件记录相对路径，数据库目录移动后仍然有效
+    private static String relativize(DatabaseRegistry.ManagedDatabase database, Path path) {
+        Path base = new File(database.getPath()).toPath().toAbsolutePath().normalize();
+        Path file = path.toAbsolutePath().normalize();
+        return file.startsWith(base) ? base.relativize(file).toString() : file.toString();
+    }
+
+    private static Path resolve(DatabaseRegistry.ManagedDatabase database, String path) {
+        Path base = new File(database.getPath()).toPath().toAbsolutePath().normalize();
+        return base.resolve(path).toAbsolutePath().normalize();
+    }
+
+    /**
+     * 获取各数据库的预热进度
+     */
+    public static List<Map<String, Object>> getStatus() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Status status : statuses.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("database", status.key);
+            item.put("state", status.state);
+            item.put("total_files", status.totalFiles);
+            item.put("warmed_files", status.warmedFiles);
+            item.put("total_bytes", status.totalBytes);
+            item.put("warmed_bytes", status.warmedBytes);
+            item.put("progress", status.totalBytes == 0 ? 0.0 : Math.min(1.0, (double) status.warmedBytes / status.totalBytes));
+            item.put("started_at", status.startedAt);
+            item.put("duration_ms", status.durationMs);
+            item.put("error", status.error);
+            result.add(item);
+        }
+        return result;
+    }
+
+    // 热数据记录中的一项：存储文件的页数，或时态存储文件的字节数
+    private static class Entry {
+        final boolean pageCache;
+        final String path;
+        final long size;
+
+        Entry(boolean pageCache, String path, long size) {
+            this.pageCache = pageCache;
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    // 一次预热的进度，只由预热线程写入
+    private static class Status {
+        final String key;
+        volatile String state = "pending";
+        volatile boolean cancelled = false;
+        volatile int totalFiles = 0;
+        volatile int warmedFiles = 0;
+        volatile long totalBytes = 0;
+        volatile long warmedBytes = 0;
+        volatile long startedAt = 0;
+        volatile long durationMs = 0;
+        volatile String error = null;
+
+        Status(String key) {
+            this.key = key;
+        }
+
+        synchronized void finish(String finalState, String finalError) {
+            error = finalError;
+            state = finalState;
+            notifyAll();
+        }
+    }
+}
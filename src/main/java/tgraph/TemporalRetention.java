@@ -0,0 +1,410 @@
+package tgraph;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.act.temporalProperty.query.TimePointL;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.temporal.TemporalRangeQuery;
+import org.neo4j.graphdb.temporal.TimePoint;
+
+import service.TemporalValueCache;
+
+/**
+ * 时态属性保留策略
+ * 按属性名配置保留时长和降采样粒度，例如原始数据保留30天，更早的数据按小时聚合。
+ * 后台任务定期把早于保留期限的原始时间点按桶聚合后，用一次区间写入覆盖整个桶，
+ * 使旧数据的条目数按桶数而不是采样数增长，从而限制磁盘占用和冷数据范围扫描的开销。
+ *
+ * 策略文件 config/temporal-retention.properties，每行形如：
+ *   temp_speed=30d,1h,avg
+ * 依次为保留时长、降采样桶大小和聚合方式（avg / min / max / last），时长支持 s / m / h / d 后缀，
+ * 不带后缀时直接按存储中的时间单位解释。
+ *
+ * 每个数据库、每个属性已处理到的时间点（水位线）保存在数据库目录下的 temporal-retention.state 中，
+ * 之后每轮只处理水位线到保留期限之间的新数据。
+ */
+public class TemporalRetention {
+
+    private static final String POLICY_FILE = "config" + File.separator + "temporal-retention.properties";
+    private static final String STATE_FILE = "temporal-retention.state";
+    // 每个写事务处理的实体数
+    private static final int ENTITIES_PER_TX = 500;
+
+    private static final Map<String, Policy> policies = new LinkedHashMap<>();
+    // 存储中的时间点对应的毫秒数，秒为1000，毫秒为1
+    private static long unitMillis = 1000;
+
+    private static ScheduledExecutorService scheduler;
+
+    // 运行状态，由 synchronized 方法保护
+    private static boolean running = false;
+    private static long lastRunTime = 0;
+    private static long lastDurationMs = 0;
+    private static long lastBuckets = 0;
+    private static long lastEntries = 0;
+    private static String lastError = null;
+
+    private TemporalRetention() {
+    }
+
+    /**
+     * 加载策略并启动后台任务
+     * @param intervalSeconds 执行间隔（秒），0 表示不自动执行
+     * @param timeUnit 存储中时间点的单位，seconds 或 millis
+     */
+    public static synchronized void start(int intervalSeconds, String timeUnit) {
+        unitMillis = "millis".equalsIgnoreCase(timeUnit) ? 1 : 1000;
+        loadPolicies();
+        if (intervalSeconds <= 0 || policies.isEmpty() || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "temporal-retention");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (Exception e) {
+                System.err.println("时态保留任务执行失败: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        System.out.println("时态保留任务已启动: " + policies.size() + " 条策略，每 " + intervalSeconds + " 秒执行一次");
+    }
+
+    private static void loadPolicies() {
+        policies.clear();
+        File file = new File(POLICY_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(file)) {
+            props.load(fis);
+        } catch (IOException e) {
+            System.err.println("加载时态保留策略时出错: " + e.getMessage());
+            return;
+        }
+        for (String key : props.stringPropertyNames()) {
+            try {
+                String[] parts = props.getProperty(key).split(",");
+                long retention = parseDuration(parts[0].trim());
+                long bucket = parseDuration(parts[1].trim());
+                String aggregate = parts.length > 2 ? parts[2].trim().toLowerCase() : "avg";
+                if (retention <= 0 || bucket <= 0) {
+                    throw new IllegalArgumentException("保留时长和桶大小必须大于0");
+                }
+                if (!aggregate.equals("avg") && !aggregate.equals("min") && !aggregate.equals("max") && !aggregate.equals("last")) {
+                    throw new IllegalArgumentException("不支持的聚合方式 " + aggregate);
+                }
+                policies.put(key, new Policy(key, retention, bucket, aggregate));
+            } catch (Exception e) {
+                System.err.println("忽略无效的时态保留策略 " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // 把带单位的时长转换为存储中的时间单位
+    private static long parseDuration(String text) {
+        char suffix = Character.toLowerCase(text.charAt(text.length() - 1));
+        long seconds;
+        switch (suffix) {
+            case 's': seconds = 1; break;
+            case 'm': seconds = 60; break;
+            case 'h': seconds = 3600; break;
+            case 'd': seconds = 86400; break;
+            default: return Long.parseLong(text);
+        }
+        long amount = Long.parseLong(text.substring(0, text.length() - 1));
+        return amount * seconds * 1000 / unitMillis;
+    }
+
+    /**
+     * 在后台立即执行一轮保留任务
+     * @return 未能启动时返回原因，成功启动返回null
+     */
+    public static synchronized String trigger() {
+        if (DatabaseRegistry.openDatabases().isEmpty()) {
+            return "数据库未运行";
+        }
+        if (policies.isEmpty()) {
+            return "未配置时态保留策略";
+        }
+        if (running) {
+            return "保留任务正在运行";
+        }
+        Thread thread = new Thread(TemporalRetention::runOnce, "temporal-retention-manual");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return null;
+    }
+
+    /**
+     * 立即对所有已打开的数据库执行一轮保留任务
+     * @return 未能执行时返回原因，执行完成返回null
+     */
+    public static String runOnce() {
+        List<DatabaseRegistry.ManagedDatabase> targets;
+        synchronized (TemporalRetention.class) {
+            targets = DatabaseRegistry.openDatabases();
+            if (targets.isEmpty()) {
+                return "数据库未运行";
+            }
+            if (policies.isEmpty()) {
+                return "未配置时态保留策略";
+            }
+            if (running) {
+                return "保留任务正在运行";
+            }
+            running = true;
+        }
+
+        long start = System.currentTimeMillis();
+        long[] totals = new long[2];
+        String error = null;
+        try {
+            long now = start / unitMillis;
+            for (DatabaseRegistry.ManagedDatabase database : targets) {
+                // 数据库已被空闲关闭时跳过，使用期间不会被关闭
+                if (!database.tryAcquire()) {
+                    continue;
+                }
+                // 绑定到当前线程，使缓存失效作用于正在处理的数据库
+                Tgraph.bind(database);
+                try {
+                    applyPolicies(database.getDatabase(), database.getPath(), now, totals);
+                } finally {
+                    Tgraph.unbind();
+                    database.release();
+                }
+            }
+        } catch (Exception e) {
+            error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            System.err.println("时态保留任务失败: " + error);
+        }
+
+        synchronized (TemporalRetention.class) {
+            running = false;
+            lastRunTime = start;
+            lastDurationMs = System.currentTimeMillis() - start;
+            lastBuckets = totals[0];
+            lastEntries = totals[1];
+            lastError = error;
+        }
+        System.out.println("时态保留任务完成: 聚合 " + totals[1] + " 个时间点为 " + totals[0] + " 个区间");
+        return error;
+    }
+
+    // 对一个数据库执行所有策略，每条策略完成后推进水位线
+    private static void applyPolicies(GraphDatabaseService db, String dbPath, long now, long[] totals) throws IOException {
+        Properties state = loadState(dbPath);
+        for (Policy policy : new ArrayList<>(policies.values())) {
+            // 只处理完全早于保留期限的桶
+            long horizon = Math.floorDiv(now - policy.retention, policy.bucket) * policy.bucket;
+            long watermark = Long.parseLong(state.getProperty(policy.key, "0"));
+            if (horizon <= watermark) {
+                continue;
+            }
+            applyPolicy(db, policy, watermark, horizon, true, totals);
+            applyPolicy(db, policy, watermark, horizon, false, totals);
+            state.setProperty(policy.key, String.valueOf(horizon));
+            saveState(dbPath, state);
+        }
+    }
+
+    // 对一类实体执行一条策略，totals[0] 累计写入的桶数，totals[1] 累计被聚合的时间点数
+    private static void applyPolicy(GraphDatabaseService db, Policy policy, long from, long to, boolean isNode, long[] totals) {
+        List<Long> ids = new ArrayList<>();
+        try (Transaction tx = db.beginTx()) {
+            Iterable<? extends Entity> entities = isNode ? tx.getAllNodes() : tx.getAllRelationships();
+            for (Entity entity : entities) {
+                if (entity.hasProperty(policy.key)) {
+                    ids.add(entity.getId());
+                }
+            }
+            tx.commit();
+        }
+
+        for (int offset = 0; offset < ids.size(); offset += ENTITIES_PER_TX) {
+            List<Long> touched = new ArrayList<>();
+            try (Transaction tx = db.beginTx()) {
+                for (long id : ids.subList(offset, Math.min(offset + ENTITIES_PER_TX, ids.size()))) {
+                    Entity entity;
+                    try {
+                        entity = isNode ? tx.getNodeById(id) : tx.getRelationshipById(id);
+                    } catch (NotFoundException e) {
+                        continue;
+                    }
+                    if (downsample(entity, policy, from, to, totals)) {
+                        touched.add(id);
+                    }
+                }
+                tx.commit();
+            }
+            for (long id : touched) {
+                TemporalValueCache.invalidate(isNode, id, policy.key);
+            }
+        }
+    }
+
+    // 聚合一个实体在 [from, to) 内的时间点，返回是否有写入
+    @SuppressWarnings("unchecked")
+    private static boolean downsample(Entity entity, Policy policy, long from, long to, long[] totals) {
+        TreeMap<Long, Object> points = (TreeMap<Long, Object>) entity.getTemporalProperty(policy.key,
+            new TimePoint(from), new TimePoint(to - 1), new TemporalRangeQuery() {
+                TreeMap<Long, Object> result = new TreeMap<>();
+
+                @Override
+                public boolean onNewEntry(long entityId, int propertyId, TimePointL time, Object val) {
+                    result.put(time.getTime(), val);
+                    return true;
+                }
+
+                @Override
+                public Object onReturn() {
+                    return result;
+                }
+            });
+
+        // 按桶分组，只有桶内多于一个时间点时才需要改写
+        Map<Long, List<Object>> buckets = new TreeMap<>();
+        for (Map.Entry<Long, Object> point : points.entrySet()) {
+            if (point.getKey() < from || point.getKey() >= to) {
+                continue;
+            }
+            long bucketStart = Math.floorDiv(point.getKey(), policy.bucket) * policy.bucket;
+            buckets.computeIfAbsent(bucketStart, k -> new ArrayList<>()).add(point.getValue());
+        }
+        boolean written = false;
+        for (Map.Entry<Long, List<Object>> bucket : buckets.entrySet()) {
+            if (bucket.getValue().size() < 2) {
+                continue;
+            }
+            long bucketStart = bucket.getKey();
+            Object value = aggregate(bucket.getValue(), policy.aggregate);
+            entity.setTemporalProperty(policy.key, new TimePoint(bucketStart),
+                new TimePoint(bucketStart + policy.bucket - 1), value);
+            totals[0]++;
+            totals[1] += bucket.getValue().size();
+            written = true;
+        }
+        return written;
+    }
+
+    // 数值按聚合方式计算，非数值或 last 取桶内最后一个值
+    private static Object aggregate(List<Object> values, String aggregate) {
+        Object last = values.get(values.size() - 1);
+        if ("last".equals(aggregate)) {
+            return last;
+        }
+        for (Object value : values) {
+            if (!(value instanceof Number)) {
+                return last;
+            }
+        }
+        boolean integral = last instanceof Long || last instanceof Integer || last instanceof Short || last instanceof Byte;
+        double result = ((Number) values.get(0)).doubleValue();
+        double sum = 0;
+        for (Object value : values) {
+            double d = ((Number) value).doubleValue();
+            sum += d;
+            if ("min".equals(aggregate)) {
+                result = Math.min(result, d);
+            } else if ("max".equals(aggregate)) {
+                result = Math.max(result, d);
+            }
+        }
+        if ("avg".equals(aggregate)) {
+            // 整数属性的平均值四舍五入为原类型，同一个时态属性中不混入浮点值
+            if (!integral) {
+                return last instanceof Float ? (Object) (float) (sum / values.size()) : (Object) (sum / values.size());
+            }
+            result = Math.round(sum / values.size());
+        }
+        if (integral) {
+            return last instanceof Integer ? (Object) (int) result : (Object) (long) result;
+        }
+        return last instanceof Float ? (Object) (float) result : (Object) result;
+    }
+
+    private static Properties loadState(String dbPath) {
+        Properties state = new Properties();
+        File file = new File(dbPath, STATE_FILE);
+        if (file.exists()) {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                state.load(fis);
+            } catch (IOException e) {
+                System.err.println("加载时态保留水位线时出错: " + e.getMessage());
+            }
+        }
+        return state;
+    }
+
+    private static void saveState(String dbPath, Properties state) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(new File(dbPath, STATE_FILE))) {
+            state.store(fos, "时态保留水位线");
+        }
+    }
+
+    /**
+     * 获取保留策略和最近一次执行的状态
+     */
+    public static synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        List<Map<String, Object>> policyList = new ArrayList<>();
+        for (Policy policy : policies.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", policy.key);
+            item.put("retention", policy.retention);
+            item.put("bucket", policy.bucket);
+            item.put("aggregate", policy.aggregate);
+            policyList.add(item);
+        }
+        status.put("policies", policyList);
+        status.put("time_unit", unitMillis == 1 ? "millis" : "seconds");
+        status.put("running", running);
+        status.put("last_run_time", lastRunTime);
+        status.put("last_duration_ms", lastDurationMs);
+        status.put("last_buckets_written", lastBuckets);
+        status.put("last_points_aggregated", lastEntries);
+        status.put("last_error", lastError);
+        Map<String, Object> watermarks = new LinkedHashMap<>();
+        for (DatabaseRegistry.ManagedDatabase database : DatabaseRegistry.openDatabases()) {
+            watermarks.put(database.getKey(), loadState(database.getPath()));
+        }
+        status.put("watermarks", watermarks);
+        return status;
+    }
+
+    private static class Policy {
+        final String key;
+        final long retention;
+        final long bucket;
+        final String aggregate;
+
+        Policy(String key, long retention, long bucket, String aggregate) {
+            this.key = key;
+            this.retention = retention;
+            this.bucket = bucket;
+            this.aggregate = aggregate;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package tgraph;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.kernel.impl.transaction.log.checkpoint.CheckPointer;
+import org.neo4j.kernel.impl.transaction.log.checkpoint.SimpleTriggerInfo;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+/**
+ * 时态属性存储维护工具
+ * 负责在后台触发时态存储的合并（compaction），统计各层文件数量和大小，并记录范围读的读放大情况。
+ *
+ * TGraph 的时态存储在检查点时把内存中的新数据刷成文件并合并旧文件，这里通过强制检查点触发合并，
+ * 同一时间只允许一个合并任务，且两次合并之间至少间隔 minIntervalMs，避免频繁合并和前台读写争抢磁盘。
+ * 合并在检查点内由 TGraph 完成，这里只能控制合并的间隔和线程优先级，不限制合并本身的磁盘读写速度。
+ */
+public class TemporalStoreMaintenance {
+
+    public static final String NODE_STORE = "temporal.node.properties";
+    public static final String RELATIONSHIP_STORE = "temporal.relationship.properties";
+    private static final String INDEX_DIR = "index";
+
+    // 两次合并之间的最小间隔（毫秒）
+    private static long minIntervalMs = 10 * 60 * 1000L;
+
+    // 合并任务在低优先级的单线程中执行，优先级只影响 CPU 调度，不影响磁盘读写
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "temporal-compaction");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // 合并状态，由 synchronized 方法保护
+    private static boolean running = false;
+    private static String runningDbPath = null;
+    private static long lastStartTime = 0;
+    private static long lastEndTime = 0;
+    private static long lastDurationMs = 0;
+    private static String lastError = null;
+    private static Map<String, Object> lastBefore = null;
+    private static Map<String, Object> lastAfter = null;
+
+    // 范围读统计，按数据库目录区分，每个数据库分节点和关系
+    private static final Map<String, ReadStats[]> readStats = new ConcurrentHashMap<>();
+
+    private TemporalStoreMaintenance() {
+    }
+
+    /**
+     * 设置两次合并之间的最小间隔
+     * @param seconds 秒数，0 表示不限制
+     */
+    public static void init(int seconds) {
+        minIntervalMs = Math.max(0, seconds) * 1000L;
+    }
+
+    /**
+     * 在后台启动一次合并
+     * @param dbPath 要合并的数据库目录，必须是已打开的数据库
+     * @return 未能启动时返回原因，成功启动返回null
+     */
+    public static synchronized String startCompaction(String dbPath) {
+        if (DatabaseRegistry.getByPath(dbPath) == null) {
+            return "数据库未运行，只能合并已启动的数据库";
+        }
+        if (running) {
+            return "已有合并任务在运行";
+        }
+        long now = System.currentTimeMillis();
+        long wait = lastEndTime + minIntervalMs - now;
+        if (lastEndTime > 0 && wait > 0) {
+            return "距离上次合并不足 " + (minIntervalMs / 1000) + " 秒，请在 " + (wait / 1000 + 1) + " 秒后重试";
+        }
+
+        running = true;
+        runningDbPath = dbPath;
+        lastStartTime = now;
+        lastError = null;
+        executor.submit(() -> runCompaction(dbPath));
+        return null;
+    }
+
+    private static void runCompaction(String dbPath) {
+        File dbDir = new File(dbPath);
+        Map<String, Object> before = getLevelStats(dbDir);
+        String error = null;
+        try {
+            DatabaseRegistry.ManagedDatabase database = DatabaseRegistry.getByPath(dbPath);
+            // 合并期间持有数据库，避免被空闲关闭
+            if (database == null || !database.tryAcquire()) {
+                throw new IllegalStateException("数据库已关闭");
+            }
+            try {
+                GraphDatabaseAPI db = (GraphDatabaseAPI) database.getDatabase();
+                CheckPointer checkPointer = db.getDependencyResolver().resolveDependency(CheckPointer.class);
+                checkPointer.forceCheckPoint(new SimpleTriggerInfo("temporal store compaction"));
+            } finally {
+                database.release();
+            }
+        } catch (Exception e) {
+            error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            System.err.println("时态存储合并失败: " + error);
+        }
+        Map<String, Object> after = getLevelStats(dbDir);
+
+        long durationMs;
+        synchronized (TemporalStoreMaintenance.class) {
+            running = false;
+            runningDbPath = null;
+            lastEndTime = System.currentTimeMillis();
+            lastDurationMs = lastEndTime - lastStartTime;
+            lastError = error;
+            lastBefore = before;
+            lastAfter = after;
+            durationMs = lastDurationMs;
+        }
+        // 合并后重新统计该数据库，使读放大数据反映新的文件布局
+        readStats.remove(dbPath);
+        System.out.println("时态存储合并结束: " + dbPath + "，耗时 " + durationMs + " ms");
+    }
+
+    /**
+     * 获取合并任务状态
+     */
+    public static synchronized Map<String, Object> getCompactionStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running);
+        status.put("db_path", runningDbPath);
+        status.put("last_start_time", lastStartTime);
+        status.put("last_end_time", lastEndTime);
+        status.put("last_duration_ms", lastDurationMs);
+        status.put("last_error", lastError);
+        status.put("min_interval_seconds", minIntervalMs / 1000);
+        status.put("before", lastBefore);
+        status.put("after", lastAfter);
+        return status;
+    }
+
+    /**
+     * 按层统计时态存储的文件数和大小
+     * 层按文件扩展名区分（无扩展名的文件归为 "default"），索引目录单独统计
+     */
+    public static Map<String, Object> getLevelStats(File dbDir) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("node", storeStats(new File(dbDir, NODE_STORE)));
+        stats.put("relationship", storeStats(new File(dbDir, RELATIONSHIP_STORE)));
+        return stats;
+    }
+
+    private static Map<String, Object> storeStats(File storeDir) {
+        Map<String, long[]> levels = new TreeMap<>();
+        long[] index = new long[2];
+        File[] children = storeDir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    if (INDEX_DIR.equals(child.getName())) {
+                        countFiles(child, index);
+                    } else {
+                        countFiles(child, levels.computeIfAbsent(child.getName(), k -> new long[2]));
+                    }
+                } else {
+                    countFiles(child, levels.computeIfAbsent(levelOf(child.getName()), k -> new long[2]));
+                }
+            }
+        }
+
+        Map<String, Object> levelStats = new LinkedHashMap<>();
+        long dataFiles = 0;
+        long dataBytes = 0;
+        for (Map.Entry<String, long[]> entry : levels.entrySet()) {
+            Map<String, Object> level = new LinkedHashMap<>();
+            level.put("files", entry.getValue()[0]);
+            level.put("bytes", entry.getValue()[1]);
+            levelStats.put(entry.getKey(), level);
+            dataFiles += entry.getValue()[0];
+            dataBytes += entry.getValue()[1];
+        }
+
+        Map<String, Object> indexStats = new LinkedHashMap<>();
+        indexStats.put("files", index[0]);
+        indexStats.put("bytes", index[1]);
+
+        Map<String, Object> store = new LinkedHashMap<>();
+        store.put("levels", levelStats);
+        store.put("index", indexStats);
+        store.put("data_files", dataFiles);
+        store.put("data_bytes", dataBytes);
+        return store;
+    }
+
+    private static String levelOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 && dot < fileName.length() - 1 ? fileName.substring(dot + 1) : "default";
+    }
+
+    // counter[0] 为文件数，counter[1] 为字节数
+    private static void countFiles(File file, long[] counter) {
+        if (file.isFile()) {
+            counter[0]++;
+            counter[1] += file.length();
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                countFiles(child, counter);
+            }
+        }
+    }
+
+    /**
+     * 记录当前线程所用数据库上的一次时态范围读
+     * @param isNode 是否为节点上的读
+     * @param elapsedNanos 读耗时（纳秒）
+     * @param entries 返回的时间点数量
+     */
+    public static void recordRangeRead(boolean isNode, long elapsedNanos, int entries) {
+        String dbPath = Tgraph.getCurrentDbPath();
+        if (dbPath == null) {
+            return;
+        }
+        ReadStats[] stats = readStats.computeIfAbsent(dbPath, k -> new ReadStats[]{new ReadStats(), new ReadStats()});
+        stats[isNode ? 0 : 1].record(elapsedNanos, entries);
+    }
+
+    /**
+     * 获取读放大统计
+     * data_files 为数据文件总数，是一次范围读最多访问的文件数，与实际的访问模式无关；
+     * 实际的读开销看实测的范围读延迟和每次读出的条目数
+     */
+    public static Map<String, Object> getReadAmplificationStats(File dbDir) {
+        ReadStats[] reads = readStats.get(dbDir.getPath());
+        if (reads == null) {
+            reads = new ReadStats[]{new ReadStats(), new ReadStats()};
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("node", readStats(new File(dbDir, NODE_STORE), reads[0]));
+        stats.put("relationship", readStats(new File(dbDir, RELATIONSHIP_STORE), reads[1]));
+        return stats;
+    }
+
+    private static Map<String, Object> readStats(File storeDir, ReadStats reads) {
+        long[] data = new long[2];
+        File[] children = storeDir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (!INDEX_DIR.equals(child.getName())) {
+                    countFiles(child, data);
+                }
+            }
+        }
+        Map<String, Object> stats = reads.snapshot();
+        stats.put("data_files", data[0]);
+        return stats;
+    }
+
+    private static class ReadStats {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong totalEntries = new AtomicLong();
+
+        void record(long elapsedNanos, int entries) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(elapsedNanos);
+            totalEntries.addAndGet(entries);
+            maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+        }
+
+        Map<String, Object> snapshot() {
+            long n = count.get();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("range_reads", n);
+            stats.put("avg_latency_ms", n == 0 ? 0.0 : totalNanos.get() / 1e6 / n);
+            stats.put("max_latency_ms", maxNanos.get() / 1e6);
+            stats.put("avg_entries", n == 0 ? 0.0 : (double) totalEntries.get() / n);
+            return stats;
+        }
+    }
+}
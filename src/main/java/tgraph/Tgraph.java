@@ -1,7 +1,5 @@
 package tgraph;
 
-import org.neo4j.dbms.api.DatabaseManagementService;
-import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
 import org.neo4j.graphdb.*;
 import org.neo4j.io.fs.FileUtils;
 
@@ -13,22 +11,37 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.nio.file.Files;
 import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
-import net.lingala.zip4j.ZipFile;
+import app.RequestAbortedException;
+import app.RequestTracker;
 
 public class Tgraph {
     // 静态全局变量，只需要一个实例
     public static final String TARGET_DIR = "target";
 
-    //public static GraphDatabaseService graphDb = null;
+    // 旧的 /db/data/... 接口使用的默认数据库，即第一个通过 start/create 打开的数据库
+    private static volatile DatabaseRegistry.ManagedDatabase defaultDatabase = null;
 
-    public static DatabaseManagementService graphDb = null;
+    // 当前请求通过 /db/{database}/data/... 指定的数据库
+    private static final ThreadLocal<DatabaseRegistry.ManagedDatabase> boundDatabase = new ThreadLocal<>();
     
     // 私有构造函数，防止实例化
     private Tgraph() {
         // 防止实例化的私有构造函数
     }
     
+    // 数据库名只能是字母、数字、下划线和连字符，不能是 . 或 .. 等指向其他目录的名字
+    private static final Pattern DB_NAME_PATTERN = Pattern.compile("[\\p{L}\\p{N}_-]{1,64}");
+
+    /**
+     * 数据库名是否合法
+     */
+    public static boolean isValidDbName(String dbName) {
+        return dbName != null && DB_NAME_PATTERN.matcher(dbName).matches();
+    }
+
     /**
      * 获取用户数据库路径
      */
@@ -36,26 +49,87 @@ public class Tgraph {
         return TARGET_DIR + File.separator + username + File.separator + dbName;
     }
 
+    /**
+     * 获取当前运行数据库的目录，未运行时返回null
+     */
+    public static String getCurrentDbPath() {
+        DatabaseRegistry.ManagedDatabase database = current();
+        return database == null ? null : database.getPath();
+    }
+
+    /**
+     * 当前线程使用的数据库：请求指定了数据库时为该数据库，否则为默认数据库
+     * @return 没有可用数据库时返回null
+     */
+    public static DatabaseRegistry.ManagedDatabase current() {
+        DatabaseRegistry.ManagedDatabase database = boundDatabase.get();
+        return database != null ? database : defaultDatabase;
+    }
+
+    /**
+     * 当前线程使用的数据库是否在运行
+     */
+    public static boolean isRunning() {
+        return current() != null;
+    }
+
+    /**
+     * 当前线程使用的数据库
+     * @throws IllegalStateException 没有可用数据库时
+     */
+    public static GraphDatabaseService database() {
+        DatabaseRegistry.ManagedDatabase database = current();
+        if (database == null) {
+            throw new IllegalStateException("没有正在运行的数据库");
+        }
+        // 请求第一次使用该数据库时登记，数据库正在关闭时不再接受新的请求
+        if (RequestTracker.useDatabase(database.getKey()) && database.isDraining()) {
+            throw new RequestAbortedException(RequestAbortedException.Reason.DATABASE_UNAVAILABLE,
+                "数据库 '" + database.getName() + "' 正在关闭");
+        }
+        return database.getDatabase();
+    }
+
+    /**
+     * 当前线程使用的数据库的编号，没有可用数据库时为0
+     */
+    public static int currentDatabaseId() {
+        DatabaseRegistry.ManagedDatabase database = current();
+        return database == null ? 0 : database.getId();
+    }
+
+    /**
+     * 把数据库绑定到当前线程，之后的 beginTx/database 都作用于该数据库
+     */
+    public static void bind(DatabaseRegistry.ManagedDatabase database) {
+        boundDatabase.set(database);
+        RequestTracker.useDatabase(database.getKey());
+    }
+
+    public static void unbind() {
+        boundDatabase.remove();
+    }
+
+    /**
+     * 获取用户数据库目录
+     */
+    public static File getDbDir(String username, String dbName) {
+        return new File(getUserDbPath(username, dbName));
+    }
+
     // 获取当前数据库的名字
     public static String getCurrentDbName() {
-        // TODO: 这个获取的数据库名字永远是neo4j，后续如果要用的话，需要改成获取当前数据库的名字
-        String absolutePath =  graphDb.database("neo4j").toString(); // 是绝对路径Community [D:\Desktop\study\graduation_project\source\test\target\neo4j-hello-db]
-        // 取最后一个
-        String[] parts = absolutePath.split(File.separator);
-        return parts[parts.length - 1]; // neo4j-hello-db
+        DatabaseRegistry.ManagedDatabase database = current();
+        return database == null ? null : database.getName();
     }
     
     /**
      * 创建数据库
      */
-    public static DatabaseManagementService createDb(String username, String dbName) throws IOException {
-        String dbPath = getUserDbPath(username, dbName);
+    public static DatabaseRegistry.ManagedDatabase createDb(String username, String dbName) throws IOException {
         // 确保用户目录存在
         new File(TARGET_DIR + File.separator + username).mkdirs();
-        // deleteDirectoryRecursively(new File(dbPath));
-        graphDb = new DatabaseManagementServiceBuilder(new File(dbPath).toPath()).build();
-        registerShutdownHook(graphDb);
-        return graphDb;
+        return startDb(username, dbName);
     }
 
     private static void deleteDirectoryRecursively(File directory) throws IOException {
@@ -76,7 +150,12 @@ public class Tgraph {
      * 删除数据库
      */
     public static boolean deleteDb(String username, String dbName) {
+        if (!isValidDbName(dbName)) {
+            return false;
+        }
         String dbPath = getUserDbPath(username, dbName);
+        // 正在运行时先关闭
+        shutDown(username, dbName);
         try {
             deleteDirectoryRecursively(new File(dbPath));
             return true;
@@ -87,53 +166,87 @@ public class Tgraph {
     }
 
     /**
-     * 启动数据库
+     * 启动数据库，已启动时直接返回；没有默认数据库时成为默认数据库
      */
-    public static DatabaseManagementService startDb(String username, String dbName) {
-        String dbPath = getUserDbPath(username, dbName);
-        graphDb = new DatabaseManagementServiceBuilder(new File(dbPath).toPath()).build();
-        registerShutdownHook(graphDb);
-        return graphDb;
+    public static DatabaseRegistry.ManagedDatabase startDb(String username, String dbName) {
+        DatabaseRegistry.ManagedDatabase database = DatabaseRegistry.open(username, dbName);
+        synchronized (Tgraph.class) {
+            if (defaultDatabase == null) {
+                defaultDatabase = database;
+                // 旧的 /db/data 接口直接使用默认数据库，不能被空闲关闭
+                database.setPinned(true);
+            }
+        }
+        return database;
+    }
+
+    /**
+     * 在当前运行的数据库上开启事务
+     * 在请求线程中调用时，以请求剩余的期限作为事务超时，超时后 Neo4j 会终止该事务；
+     * 事务登记到当前请求上，取消请求时一并终止
+     */
+    public static Transaction beginTx() {
+        return beginTx(database());
+    }
+
+    /**
+     * 在指定的数据库上开启事务，期限和取消的处理同 beginTx()
+     */
+    public static Transaction beginTx(GraphDatabaseService db) {
+        // 请求已取消或期限已过时直接中止，不再开启事务
+        RequestTracker.checkAborted();
+        long remaining = RequestTracker.remainingMillis();
+        Transaction tx = remaining < 0 ? db.beginTx() : db.beginTx(Math.max(1, remaining), TimeUnit.MILLISECONDS);
+        RequestTracker.registerTransaction(tx);
+        return tx;
     }
 
     /**
-     * 关闭数据库
+     * 关闭默认数据库
+     * @return 没有默认数据库时返回false
      */
-    public static void shutDown() {
-        if (graphDb != null) {
-            graphDb.shutdown();
+    public static boolean shutDown() {
+        DatabaseRegistry.ManagedDatabase database = defaultDatabase;
+        if (database == null) {
+            return false;
         }
+        return shutDown(database.getUsername(), database.getName());
     }
 
     /**
-     * 注册JVM关闭钩子
+     * 关闭指定数据库
+     * @return 数据库未运行时返回false
      */
-    private static void registerShutdownHook(final DatabaseManagementService graphDb) {
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                graphDb.shutdown();
+    public static boolean shutDown(String username, String dbName) {
+        synchronized (Tgraph.class) {
+            DatabaseRegistry.ManagedDatabase database = defaultDatabase;
+            if (database != null && database.getKey().equals(DatabaseRegistry.key(username, dbName))) {
+                defaultDatabase = null;
             }
-        });
+        }
+        return DatabaseLifecycle.close(username, dbName);
     }
 
     /**
-     * 备份数据库
+     * 提交在线备份任务，数据库不需要停止
+     * @param incremental 是否以该数据库最近一次的备份为基础做增量备份，没有可用的基础时做完整备份
+     * @return 备份任务，备份文件名在任务开始执行时确定
+     * @throws IllegalStateException 该数据库已有备份任务排队或进行时
      */
-    public static void backupDatabase(String username, String dbName) throws IOException {
+    public static BackupProgress.Operation backupDatabase(String username, String dbName, boolean incremental) {
+        if (!isValidDbName(dbName)) {
+            throw new IllegalArgumentException("数据库 '" + dbName + "' 不存在");
+        }
         File dbDir = new File(getUserDbPath(username, dbName));
         if (!dbDir.exists()) {
             throw new IllegalArgumentException("数据库 '" + dbDir.getPath() + "' 不存在");
         }
+        return BackupJobs.submit("backup", DatabaseRegistry.key(username, dbName), null,
+            operation -> backupDatabase(username, dbName, dbDir, incremental, operation));
+    }
 
-        // 检查数据库是否正在运行
-        try {
-            DatabaseManagementService graphDb = new DatabaseManagementServiceBuilder(dbDir.toPath()).build();
-            graphDb.shutdown();
-        } catch (Exception e) {
-            throw new IllegalStateException("数据库正在运行，无法执行备份操作", e);
-        }
-
+    private static void backupDatabase(String username, String dbName, File dbDir, boolean incremental,
+                                       BackupProgress.Operation operation) throws IOException {
         // 创建备份目录
         File backupDir = new File(TARGET_DIR, "backup");
         if (!backupDir.exists()) {
@@ -143,62 +256,109 @@ public class Tgraph {
         // 生成备份文件名
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd_HHmmss");
         String timestamp = dateFormat.format(new Date());
-        String backupFileName = username + "_" + dbName.replace('/', '_').replace('\\', '_') 
-            + "_" + timestamp + ".zip";
-        File backupFile = new File(backupDir, backupFileName);
+        BackupManifest parent = incremental ? BackupManifest.latest(backupDir, username, dbName) : null;
+        // 没有带清单的备份可作为基础时做完整备份
+        String backupFileName = username + "_" + dbName.replace('/', '_').replace('\\', '_')
+            + "_" + timestamp + (parent != null ? ".inc" : "") + BlockArchive.EXTENSION;
+        operation.setFile(backupFileName);
 
-        // 压缩数据库目录
-        try (ZipFile zipFile = new ZipFile(backupFile)) {
-            zipFile.addFolder(dbDir);
-        }
+        OnlineBackup.backup(username, dbName, dbDir, new File(backupDir, backupFileName), parent, operation);
     }
 
     /**
-     * 从备份文件恢复数据库
+     * 从备份文件名中解析数据库名，格式应为username_dbname_yyyyMMdd_HHmmss.tgbk（旧备份为 .zip，增量备份为 .inc.tgbk）
+     * @throws IllegalArgumentException 文件名格式错误或不属于该用户时
      */
-    public static void restoreDatabase(String username, String backupFileName) throws IOException {
-        File backupFile = new File(TARGET_DIR + "/backup", backupFileName);
-        
-        if (!backupFile.exists()) {
-            throw new IllegalArgumentException("备份文件 '" + backupFile.getPath() + "' 不存在");
-        }
-        
-        // 提取数据库名称，格式应为username_dbname_yyyyMMdd_HHmmss.zip
-        String fileNameWithoutExt = backupFileName.substring(0, backupFileName.lastIndexOf('.'));
+    public static String databaseNameOfBackup(String username, String backupFileName) {
+        String fileNameWithoutExt = backupFileName.substring(0, Math.max(0, backupFileName.lastIndexOf('.')));
         String[] parts = fileNameWithoutExt.split("_");
         if (parts.length < 4) {
-            throw new IllegalArgumentException("备份文件名格式错误，应为username_dbname_yyyyMMdd_HHmmss.zip");
+            throw new IllegalArgumentException("备份文件名格式错误，应为username_dbname_yyyyMMdd_HHmmss" + BlockArchive.EXTENSION);
         }
-        
+
         // 确认用户名匹配
         if (!parts[0].equals(username)) {
             throw new IllegalArgumentException("无权访问其他用户的备份文件");
         }
-        
+
         // 重建数据库名
         String dbName = parts[1];
         for (int i = 2; i < parts.length - 2; i++) {
             dbName += "_" + parts[i];
         }
+        if (!isValidDbName(dbName)) {
+            throw new IllegalArgumentException("备份文件中的数据库名 '" + dbName + "' 不合法");
+        }
+        return dbName;
+    }
+
+    /**
+     * 提交从备份文件恢复数据库的任务
+     * @param onSuccess 恢复成功后在任务线程中执行
+     * @return 恢复任务
+     * @throws IllegalStateException 该数据库已有恢复任务排队或进行时
+     */
+    public static BackupProgress.Operation restoreDatabase(String username, String backupFileName, Runnable onSuccess) {
+        File backupFile = new File(TARGET_DIR + "/backup", backupFileName);
         
-        // 确保用户目录存在
-        new File(TARGET_DIR + File.separator + username).mkdirs();
-        
-        // 检查目标数据库目录
-        File dbDir = new File(getUserDbPath(username, dbName));
-        if (dbDir.exists()) {
-            deleteDirectoryRecursively(dbDir);
-            System.out.println("已删除原数据库文件夹: " + dbDir.getPath());
+        if (!backupFile.exists()) {
+            throw new IllegalArgumentException("备份文件 '" + backupFile.getPath() + "' 不存在");
         }
-        if (dbDir.exists()) {
-            throw new IllegalStateException("目标数据库 '" + dbName + "' 已存在，请先删除或重命名");
+        String dbName = databaseNameOfBackup(username, backupFileName);
+        // 增量备份链不完整时直接拒绝，不关闭和删除现有的数据库
+        try {
+            BackupManifest.chain(backupFile);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
-        
-        // 解压备份文件
-        try (ZipFile zipFile = new ZipFile(backupFile)) {
-            zipFile.extractAll(TARGET_DIR + File.separator + username);
-        } catch (Exception e) {
-            throw new IOException("恢复数据库失败: " + e.getMessage(), e);
+        return BackupJobs.submit("restore", DatabaseRegistry.key(username, dbName), backupFileName, operation -> {
+            restoreDatabase(username, dbName, backupFile, operation);
+            onSuccess.run();
+        });
+    }
+
+    private static void restoreDatabase(String username, String dbName, File backupFile,
+                                        BackupProgress.Operation operation) throws IOException {
+        // 任务排队期间链上的备份可能被删除，关闭和删除现有数据库前再检查一次
+        BackupManifest.chain(backupFile);
+
+        // 先解压到用户目录下的临时目录，完成并校验后才关闭现有数据库并用改名替换，
+        // 恢复失败或被取消时现有数据库不受影响
+        File userDir = new File(TARGET_DIR + File.separator + username);
+        File stagingDir = new File(userDir, ".restore-" + operation.getId());
+        File replacedDir = new File(userDir, ".replaced-" + operation.getId());
+        try {
+            if (stagingDir.exists()) {
+                deleteDirectoryRecursively(stagingDir);
+            }
+            stagingDir.mkdirs();
+            File restoredDir = OnlineBackup.restore(backupFile, stagingDir, operation);
+            operation.checkCancelled();
+
+            // 目标数据库正在运行时先关闭，关闭时会清理它在缓存中的值
+            shutDown(username, dbName);
+
+            File dbDir = new File(getUserDbPath(username, dbName));
+            if (dbDir.exists()) {
+                Files.move(dbDir.toPath(), replacedDir.toPath());
+            }
+            try {
+                Files.move(restoredDir.toPath(), dbDir.toPath());
+            } catch (IOException e) {
+                // 换回原来的数据库
+                if (replacedDir.exists()) {
+                    Files.move(replacedDir.toPath(), dbDir.toPath());
+                }
+                throw e;
+            }
+            System.out.println("已用备份 " + backupFile.getName() + " 替换数据库文件夹: " + dbDir.getPath());
+        } finally {
+            if (stagingDir.exists()) {
+                deleteDirectoryRecursively(stagingDir);
+            }
+            if (replacedDir.exists()) {
+                deleteDirectoryRecursively(replacedDir);
+            }
         }
     }
 }
@@ -19,6 +19,10 @@ public class ConfigFileStore {
         saveProperties(props);
     }
     
+    public static File getUserCredentialsFile() {
+        return new File(CONFIG_FILE);
+    }
+    
     public static Properties loadUserCredentials() {
         return loadProperties();
     }